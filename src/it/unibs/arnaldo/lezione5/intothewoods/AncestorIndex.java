@@ -0,0 +1,300 @@
+package it.unibs.arnaldo.lezione5.intothewoods;
+
+/**
+ * Classe che indicizza un CompactTree per rispondere velocemente alle domande sugli antenati: profondità, percorso
+ * dalla radice, appartenenza ad un sottoalbero, k-esimo antenato e minimo antenato comune (LCA) di due nodi.
+ * La costruzione richiede tempo O(n log p), dove p è la profondità massima, e calcola:
+ * - la profondità di ciascun nodo;
+ * - i tempi di entrata e di uscita di una visita in profondità (giro di Eulero): il sottoalbero di un nodo occupa
+ *   l'intervallo di tempi tra la sua entrata e la sua uscita, quindi l'appartenenza si verifica in O(1);
+ * - una tabella di salti (binary lifting) con l'antenato a distanza 2^k di ciascun nodo, che permette di trovare
+ *   il k-esimo antenato e il minimo antenato comune in O(log p).
+ * La tabella ha solo i livelli che servono per la profondità massima dell'albero: per gli alberi casuali, che sono
+ * poco profondi, occupa pochi interi per nodo.
+ * Per un Tree si usa l'albero restituito da Tree.toCompactTree.
+ *
+ * @author Michele Dusi <michele.dusi.it@ieee.org>
+ *
+ */
+public final class AncestorIndex {
+
+    private static final String UNKNOWN_NODE_EXCEPTION = "Il nodo %d non appartiene all'albero.";
+    private static final String NEGATIVE_DISTANCE_EXCEPTION = "La distanza dell'antenato non può essere negativa: %d.";
+
+    private final CompactTree tree;
+    private final int[] depths;
+    private final int[] entries;
+    private final int[] exits;
+    /**
+     * Nodi in ordine di entrata: il sottoalbero di un nodo è l'intervallo tra la sua entrata e la sua uscita.
+     */
+    private final int[] tour;
+    /**
+     * jumps[k][v] è l'antenato di v a distanza 2^k, oppure la radice se v è meno profondo.
+     */
+    private final int[][] jumps;
+
+    /**
+     * Costruttore.
+     * Indicizza l'albero dato, che non viene modificato.
+     *
+     * @param tree L'albero compatto.
+     */
+    public AncestorIndex(CompactTree tree) {
+        this.tree = tree;
+        int n = tree.getNodeCount();
+        this.depths = new int[n];
+        this.entries = new int[n];
+        this.exits = new int[n];
+        this.tour = new int[n];
+
+        // i nodi sono in ordine di ampiezza, quindi il padre precede sempre i figli: le profondità si calcolano
+        // in avanti, le dimensioni dei sottoalberi (tenute per ora in exits) all'indietro
+        int maxDepth = 0;
+        for (int node = 1; node < n; node++) {
+            this.depths[node] = this.depths[tree.getParent(node)] + 1;
+            maxDepth = Math.max(maxDepth, this.depths[node]);
+        }
+        for (int node = 0; node < n; node++) {
+            this.exits[node] = 1;
+        }
+        for (int node = n - 1; node > 0; node--) {
+            this.exits[tree.getParent(node)] += this.exits[node];
+        }
+        // la visita in profondità non serve: i figli di un nodo entrano uno dopo l'altro subito dopo il padre,
+        // ciascuno lasciando spazio al sottoalbero del fratello precedente
+        for (int node = 0; node < n; node++) {
+            int time = this.entries[node] + 1;
+            int first = tree.getFirstChild(node);
+            int end = first + tree.getChildCount(node);
+            for (int child = first; child < end; child++) {
+                this.entries[child] = time;
+                time += this.exits[child];
+            }
+            this.exits[node] = this.entries[node] + this.exits[node] - 1;
+            this.tour[this.entries[node]] = node;
+        }
+
+        int levels = Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(maxDepth));
+        this.jumps = new int[levels][];
+        this.jumps[0] = new int[n];
+        for (int node = 1; node < n; node++) {
+            this.jumps[0][node] = tree.getParent(node);
+        }
+        for (int k = 1; k < levels; k++) {
+            int[] previous = this.jumps[k - 1];
+            int[] current = new int[n];
+            for (int node = 0; node < n; node++) {
+                current[node] = previous[previous[node]];
+            }
+            this.jumps[k] = current;
+        }
+    }
+
+    /**
+     * Getter dell'albero indicizzato.
+     *
+     * @return L'albero.
+     */
+    public CompactTree getTree() {
+        return this.tree;
+    }
+
+    /**
+     * Restituisce la profondità del nodo dato, ossia la sua distanza dalla radice.
+     *
+     * @param node L'indice del nodo.
+     * @return La profondità (0 per la radice).
+     */
+    public int getDepth(int node) {
+        this.checkNode(node);
+        return this.depths[node];
+    }
+
+    /**
+     * Restituisce il tempo di entrata del nodo nella visita in profondità, ossia la sua posizione in ordine anticipato.
+     *
+     * @param node L'indice del nodo.
+     * @return Il tempo di entrata.
+     */
+    public int getEntryTime(int node) {
+        this.checkNode(node);
+        return this.entries[node];
+    }
+
+    /**
+     * Restituisce il tempo di uscita del nodo nella visita in profondità, ossia il tempo di entrata del suo ultimo
+     * discendente.
+     *
+     * @param node L'indice del nodo.
+     * @return Il tempo di uscita.
+     */
+    public int getExitTime(int node) {
+        this.checkNode(node);
+        return this.exits[node];
+    }
+
+    /**
+     * Restituisce il nodo con il tempo di entrata dato: i nodi del sottoalbero di v sono quelli con tempo tra
+     * getEntryTime(v) e getExitTime(v).
+     *
+     * @param time Il tempo di entrata.
+     * @return L'indice del nodo.
+     */
+    public int getNodeAt(int time) {
+        this.checkNode(time);
+        return this.tour[time];
+    }
+
+    /**
+     * Restituisce il numero di nodi del sottoalbero del nodo dato, nodo compreso.
+     *
+     * @param node L'indice del nodo.
+     * @return La dimensione del sottoalbero.
+     */
+    public int getSubtreeSize(int node) {
+        this.checkNode(node);
+        return this.exits[node] - this.entries[node] + 1;
+    }
+
+    /**
+     * Verifica se un nodo appartiene al sottoalbero di un altro, in tempo costante.
+     *
+     * @param ancestor L'indice del possibile antenato.
+     * @param node L'indice del nodo.
+     * @return true se node è ancestor o un suo discendente.
+     */
+    public boolean isAncestor(int ancestor, int node) {
+        this.checkNode(ancestor);
+        this.checkNode(node);
+        return this.contains(ancestor, node);
+    }
+
+    /**
+     * Restituisce l'antenato del nodo dato alla distanza data.
+     *
+     * @param node L'indice del nodo.
+     * @param distance La distanza (0 per il nodo stesso, 1 per il padre, ...).
+     * @return L'indice dell'antenato, oppure CompactTree.NONE se la distanza supera la profondità del nodo.
+     */
+    public int getAncestor(int node, int distance) {
+        this.checkNode(node);
+        if (distance < 0) {
+            throw new IllegalArgumentException(String.format(NEGATIVE_DISTANCE_EXCEPTION, distance));
+        }
+        if (distance > this.depths[node]) {
+            return CompactTree.NONE;
+        }
+        for (int k = 0; distance != 0; k++, distance >>>= 1) {
+            if ((distance & 1) != 0) {
+                node = this.jumps[k][node];
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Restituisce il minimo antenato comune di due nodi, ossia il nodo più profondo di cui entrambi sono discendenti.
+     *
+     * @param a L'indice del primo nodo.
+     * @param b L'indice del secondo nodo.
+     * @return L'indice del minimo antenato comune.
+     */
+    public int lowestCommonAncestor(int a, int b) {
+        this.checkNode(a);
+        this.checkNode(b);
+        if (this.contains(a, b)) {
+            return a;
+        }
+        if (this.contains(b, a)) {
+            return b;
+        }
+        // si risale da a con salti sempre più corti, restando sotto l'antenato comune
+        for (int k = this.jumps.length - 1; k >= 0; k--) {
+            int jump = this.jumps[k][a];
+            if (!this.contains(jump, b)) {
+                a = jump;
+            }
+        }
+        return this.jumps[0][a];
+    }
+
+    /**
+     * Restituisce il minimo antenato comune dei primi nodi, in ordine di ampiezza, con le etichette date (vedere
+     * CompactTree.find).
+     *
+     * @param a La prima etichetta.
+     * @param b La seconda etichetta.
+     * @return L'indice del minimo antenato comune, oppure CompactTree.NONE se una delle etichette non è presente.
+     */
+    public int lowestCommonAncestor(String a, String b) {
+        int nodeA = this.tree.find(a);
+        int nodeB = this.tree.find(b);
+        if (nodeA == CompactTree.NONE || nodeB == CompactTree.NONE) {
+            return CompactTree.NONE;
+        }
+        return this.lowestCommonAncestor(nodeA, nodeB);
+    }
+
+    /**
+     * Restituisce il numero di archi del percorso tra due nodi.
+     *
+     * @param a L'indice del primo nodo.
+     * @param b L'indice del secondo nodo.
+     * @return La distanza tra i due nodi.
+     */
+    public int getDistance(int a, int b) {
+        int lca = this.lowestCommonAncestor(a, b);
+        return this.depths[a] + this.depths[b] - 2 * this.depths[lca];
+    }
+
+    /**
+     * Restituisce il percorso dalla radice al nodo dato.
+     *
+     * @param node L'indice del nodo.
+     * @return Gli indici dei nodi del percorso, dalla radice al nodo compreso.
+     */
+    public int[] getPath(int node) {
+        this.checkNode(node);
+        int[] path = new int[this.depths[node] + 1];
+        for (int i = path.length - 1; i > 0; i--) {
+            path[i] = node;
+            node = this.jumps[0][node];
+        }
+        path[0] = node;
+        return path;
+    }
+
+    /**
+     * Restituisce il percorso dalla radice al primo nodo, in ordine di ampiezza, con l'etichetta data.
+     *
+     * @param label L'etichetta.
+     * @return Gli indici dei nodi del percorso, oppure un array vuoto se l'etichetta non è presente.
+     */
+    public int[] getPath(String label) {
+        int node = this.tree.find(label);
+        if (node == CompactTree.NONE) {
+            return new int[0];
+        }
+        return this.getPath(node);
+    }
+
+    /**
+     * Verifica l'appartenenza al sottoalbero senza controllare gli indici.
+     */
+    private boolean contains(int ancestor, int node) {
+        return this.entries[ancestor] <= this.entries[node] && this.exits[node] <= this.exits[ancestor];
+    }
+
+    /**
+     * Controlla che l'indice dato corrisponda ad un nodo dell'albero.
+     *
+     * @param node L'indice del nodo.
+     */
+    private void checkNode(int node) {
+        if (node < 0 || node >= this.depths.length) {
+            throw new IllegalArgumentException(String.format(UNKNOWN_NODE_EXCEPTION, node));
+        }
+    }
+
+}
@@ -0,0 +1,510 @@
+package it.unibs.arnaldo.lezione5.intothewoods;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.IntConsumer;
+
+/**
+ * Classe che rappresenta un albero in forma compatta, adatta ad alberi con decine di milioni di nodi.
+ * Invece di un oggetto per nodo con la propria lista di adiacenti, l'albero è memorizzato in tre array di interi
+ * (formato CSR, "compressed sparse row"):
+ * - il padre di ciascun nodo;
+ * - la posizione del primo figlio di ciascun nodo;
+ * - l'identificativo dell'etichetta di ciascun nodo, secondo un LabelDictionary.
+ * I nodi sono numerati in ampiezza a partire dalla radice (che ha indice 0), quindi i figli di un nodo hanno indici
+ * consecutivi, e i figli del nodo i sono quelli tra firstChild[i] (incluso) e firstChild[i + 1] (escluso).
+ * Ogni nodo occupa così 12 byte, e le visite scorrono gli array in modo sequenziale.
+ * L'albero non è modificabile: viene costruito tramite un Builder o un TreeGenerator, oppure convertito da un Tree.
+ *
+ * @author Michele Dusi <michele.dusi.it@ieee.org>
+ *
+ */
+public final class CompactTree {
+
+    /**
+     * Indice della radice.
+     */
+    public static final int ROOT = 0;
+    /**
+     * Padre della radice e valore restituito da find quando l'etichetta non viene trovata.
+     */
+    public static final int NONE = -1;
+    private static final String ROOT_LABEL = "root";
+    private static final String NO_LABELS_EXCEPTION = "Non è possibile generare un albero casuale senza definire le etichette da utilizzare.";
+    private static final String NOT_ENOUGH_NODES_EXCEPTION = "Non è possibile generare un albero poiché il numero di nodi richiesto non basta per utilizzare tutte le etichette.";
+    private static final String UNKNOWN_NODE_EXCEPTION = "Il nodo %d non appartiene all'albero.";
+    private static final String USED_BUILDER_EXCEPTION = "L'albero di questo Builder è già stato costruito.";
+
+    private final LabelDictionary dictionary;
+    private final int[] parents;
+    private final int[] firstChild;
+    private final int[] labels;
+
+    /**
+     * Costruttore privato, a partire da array già ordinati in ampiezza.
+     */
+    private CompactTree(LabelDictionary dictionary, int[] parents, int[] firstChild, int[] labels) {
+        this.dictionary = dictionary;
+        this.parents = parents;
+        this.firstChild = firstChild;
+        this.labels = labels;
+    }
+
+    /**
+     * Genera un albero <b>CASUALE</b> con le stesse regole del costruttore casuale di Tree:
+     * tutte le etichette della lista vengono utilizzate, e la radice non viene contata nella dimensione.
+     *
+     * @param size La dimensione dell'albero.
+     * @param labels La lista di etichette.
+     * @return L'albero generato.
+     */
+    public static CompactTree random(int size, List<String> labels) {
+        if (labels == null || labels.isEmpty()) {
+            throw new IllegalArgumentException(NO_LABELS_EXCEPTION);
+        } else if (labels.size() > size) {
+            throw new IllegalArgumentException(NOT_ENOUGH_NODES_EXCEPTION);
+        }
+        Builder builder = new Builder(size + 1);
+        for (String l : labels) {
+            builder.addRandomNode(l);
+        }
+        for (int i = 0; i < (size - labels.size()); i++) {
+            builder.addRandomNode(labels.get((int) (Math.random() * labels.size())));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Converte un albero di nodi in forma compatta.
+     *
+     * @param root La radice dell'albero da convertire.
+     * @return L'albero compatto equivalente.
+     */
+    static CompactTree fromNode(Node root) {
+        // visita in ampiezza: l'ordine di visita coincide con la numerazione dei nodi compatti
+        Builder builder = new Builder(root.getLabel(), 1);
+        Node[] queue = new Node[16];
+        queue[0] = root;
+        int tail = 1;
+        for (int head = 0; head < tail; head++) {
+            Node node = queue[head];
+            for (Node child : node.getAdjacents()) {
+                builder.addNode(head, child.getLabel());
+                if (tail == queue.length) {
+                    queue = Arrays.copyOf(queue, tail * 2);
+                }
+                queue[tail++] = child;
+            }
+            // il nodo è già stato convertito, quindi non serve più tenerne il riferimento
+            queue[head] = null;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Costruisce un albero compatto a partire dal padre di ciascun nodo, in una numerazione qualsiasi in cui la
+     * radice ha indice 0: i nodi vengono rinumerati in ampiezza, e i figli di uno stesso nodo restano nell'ordine
+     * dei loro indici originali.
+     * <b>Nota:</b> l'array dei padri viene riutilizzato per l'albero costruito, quindi non va più usato.
+     *
+     * @param dictionary Il dizionario delle etichette.
+     * @param parents Il padre di ciascun nodo (NONE per la radice).
+     * @param labels L'identificativo dell'etichetta di ciascun nodo.
+     * @return L'albero compatto.
+     */
+    static CompactTree fromParents(LabelDictionary dictionary, int[] parents, int[] labels) {
+        int n = parents.length;
+        // figli nella numerazione originale, in formato CSR: dopo il riempimento, i figli del nodo v sono tra
+        // end[v - 1] (0 per la radice) ed end[v]
+        int[] end = new int[n];
+        for (int node = 1; node < n; node++) {
+            end[parents[node]]++;
+        }
+        // somme prefisse esclusive: end[v] diventa l'inizio dei figli di v, e riempiendo in ordine crescente
+        // diventa la fine
+        int sum = 0;
+        for (int node = 0; node < n; node++) {
+            int count = end[node];
+            end[node] = sum;
+            sum += count;
+        }
+        int[] children = new int[n - 1];
+        for (int node = 1; node < n; node++) {
+            children[end[parents[node]]++] = node;
+        }
+
+        // visita in ampiezza: order fa da coda, e il padre di ciascun nodo accodato è il nodo in testa alla coda,
+        // quindi i padri rinumerati si possono scrivere direttamente nell'array originale (non più necessario)
+        int[] order = new int[n];
+        int[] firstChild = new int[n + 1];
+        int[] compactLabels = new int[n];
+        order[0] = ROOT;
+        parents[ROOT] = NONE;
+        compactLabels[ROOT] = labels[ROOT];
+        int tail = 1;
+        for (int head = 0; head < n; head++) {
+            int node = order[head];
+            firstChild[head] = tail;
+            for (int c = node == ROOT ? 0 : end[node - 1]; c < end[node]; c++) {
+                int child = children[c];
+                order[tail] = child;
+                parents[tail] = head;
+                compactLabels[tail] = labels[child];
+                tail++;
+            }
+        }
+        firstChild[n] = tail;
+        return new CompactTree(dictionary, parents, firstChild, compactLabels);
+    }
+
+    /**
+     * Restituisce il numero di nodi dell'albero, radice compresa.
+     *
+     * @return Il numero di nodi.
+     */
+    public int getNodeCount() {
+        return this.parents.length;
+    }
+
+    /**
+     * Restituisce il padre del nodo dato.
+     *
+     * @param node L'indice del nodo.
+     * @return L'indice del padre, oppure NONE per la radice.
+     */
+    public int getParent(int node) {
+        this.checkNode(node);
+        return this.parents[node];
+    }
+
+    /**
+     * Restituisce l'indice del primo figlio del nodo dato: i figli hanno indici consecutivi.
+     *
+     * @param node L'indice del nodo.
+     * @return L'indice del primo figlio (significativo solo se il nodo ha figli).
+     */
+    public int getFirstChild(int node) {
+        this.checkNode(node);
+        return this.firstChild[node];
+    }
+
+    /**
+     * Restituisce il numero di figli del nodo dato.
+     *
+     * @param node L'indice del nodo.
+     * @return Il numero di figli.
+     */
+    public int getChildCount(int node) {
+        this.checkNode(node);
+        return this.firstChild[node + 1] - this.firstChild[node];
+    }
+
+    /**
+     * Restituisce l'etichetta del nodo dato.
+     *
+     * @param node L'indice del nodo.
+     * @return L'etichetta del nodo.
+     */
+    public String getLabel(int node) {
+        return this.dictionary.getLabel(this.getLabelId(node));
+    }
+
+    /**
+     * Restituisce l'identificativo dell'etichetta del nodo dato (vedere getDictionary).
+     *
+     * @param node L'indice del nodo.
+     * @return L'identificativo dell'etichetta.
+     */
+    public int getLabelId(int node) {
+        this.checkNode(node);
+        return this.labels[node];
+    }
+
+    /**
+     * Restituisce il dizionario delle etichette dell'albero.
+     *
+     * @return Il dizionario.
+     */
+    public LabelDictionary getDictionary() {
+        return this.dictionary;
+    }
+
+    /**
+     * Verifica se all'interno dell'albero è presente almeno un nodo con la label specificata.
+     * Il dizionario contiene solo le etichette usate dai nodi, quindi non serve visitare l'albero.
+     *
+     * @param label L'etichetta da cercare.
+     * @return true se esiste almeno un nodo con l'etichetta data.
+     */
+    public boolean containsLabel(String label) {
+        return this.dictionary.getId(label) != LabelDictionary.ABSENT;
+    }
+
+    /**
+     * Verifica quali etichette di una lista sono presenti nell'albero, con una sola interrogazione del dizionario
+     * per ciascuna.
+     *
+     * @param labels Le etichette da cercare.
+     * @return L'insieme delle posizioni, nella lista, delle etichette presenti nell'albero.
+     */
+    public BitSet containsAll(List<String> labels) {
+        BitSet result = new BitSet(labels.size());
+        for (int i = 0; i < labels.size(); i++) {
+            if (this.containsLabel(labels.get(i))) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Cerca il primo nodo, in ordine di ampiezza, con l'etichetta specificata.
+     * La ricerca confronta interi scorrendo un solo array, senza confronti tra stringhe (per la versione parallela
+     * vedere TreeSearch).
+     *
+     * @param label L'etichetta da cercare.
+     * @return L'indice del nodo trovato, oppure NONE.
+     */
+    public int find(String label) {
+        int id = this.dictionary.getId(label);
+        if (id == LabelDictionary.ABSENT) {
+            return NONE;
+        }
+        return this.findLabelId(id, 0, this.labels.length);
+    }
+
+    /**
+     * Cerca il primo nodo con l'etichetta data in un intervallo di indici (vedere anche TreeSearch).
+     *
+     * @param id L'identificativo dell'etichetta.
+     * @param from Il primo indice dell'intervallo.
+     * @param to L'indice che segue l'ultimo dell'intervallo.
+     * @return L'indice del nodo trovato, oppure NONE.
+     */
+    int findLabelId(int id, int from, int to) {
+        for (int node = from; node < to; node++) {
+            if (this.labels[node] == id) {
+                return node;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Visita tutti i nodi in ampiezza, ossia in ordine di indice.
+     *
+     * @param visitor L'azione da eseguire su ciascun nodo.
+     */
+    public void visitBreadthFirst(IntConsumer visitor) {
+        for (int node = 0; node < this.parents.length; node++) {
+            visitor.accept(node);
+        }
+    }
+
+    /**
+     * Visita tutti i nodi in profondità (ordine anticipato: un nodo prima dei suoi figli), con una pila esplicita.
+     *
+     * @param visitor L'azione da eseguire su ciascun nodo.
+     */
+    public void visitDepthFirst(IntConsumer visitor) {
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = ROOT;
+        while (top > 0) {
+            int node = stack[--top];
+            visitor.accept(node);
+            int first = this.firstChild[node];
+            int end = this.firstChild[node + 1];
+            if (top + end - first > stack.length) {
+                stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + end - first));
+            }
+            // i figli vengono inseriti al contrario, così il primo è il prossimo ad essere visitato
+            for (int child = end - 1; child >= first; child--) {
+                stack[top++] = child;
+            }
+        }
+    }
+
+    /**
+     * Controlla che l'indice dato corrisponda ad un nodo dell'albero.
+     *
+     * @param node L'indice del nodo.
+     */
+    private void checkNode(int node) {
+        if (node < 0 || node >= this.parents.length) {
+            throw new IllegalArgumentException(String.format(UNKNOWN_NODE_EXCEPTION, node));
+        }
+    }
+
+    /**
+     * Classe che costruisce un CompactTree aggiungendo un nodo alla volta, come si fa con i Node.
+     * Durante la costruzione i figli di ciascun nodo sono tenuti in array di interi separati, che servono per
+     * l'aggiunta casuale e vengono scartati da build: l'albero viene poi costruito a partire dai padri (vedere
+     * fromParents).
+     */
+    public static final class Builder {
+
+        private static final int INITIAL_CAPACITY = 16;
+        private static final int INITIAL_CHILDREN = 2;
+
+        private LabelDictionary dictionary;
+        private int[] parents;
+        private int[] labels;
+        private int[][] children;
+        private int[] childCounts;
+        private int size;
+
+        /**
+         * Costruttore.
+         * Istanzia un albero con la sola radice, con l'etichetta predefinita dei Tree.
+         */
+        public Builder() {
+            this(ROOT_LABEL, INITIAL_CAPACITY);
+        }
+
+        /**
+         * Costruttore che prealloca lo spazio per il numero di nodi previsto.
+         *
+         * @param expectedNodes Il numero di nodi previsto, radice compresa.
+         */
+        public Builder(int expectedNodes) {
+            this(ROOT_LABEL, expectedNodes);
+        }
+
+        /**
+         * Costruttore privato, con l'etichetta della radice.
+         */
+        private Builder(String rootLabel, int expectedNodes) {
+            int capacity = Math.max(1, expectedNodes);
+            this.dictionary = new LabelDictionary();
+            this.parents = new int[capacity];
+            this.labels = new int[capacity];
+            this.children = new int[capacity][];
+            this.childCounts = new int[capacity];
+            this.parents[ROOT] = NONE;
+            this.labels[ROOT] = this.dictionary.intern(rootLabel);
+            this.size = 1;
+        }
+
+        /**
+         * Aggiunge un nuovo nodo come figlio del nodo dato.
+         * Gli indici restituiti si riferiscono al Builder, e non coincidono con quelli dell'albero costruito.
+         *
+         * @param parent L'indice del padre (ROOT per la radice).
+         * @param label L'etichetta del nuovo nodo.
+         * @return L'indice del nuovo nodo.
+         */
+        public int addNode(int parent, String label) {
+            this.checkBuilding();
+            if (parent < 0 || parent >= this.size) {
+                throw new IllegalArgumentException(String.format(UNKNOWN_NODE_EXCEPTION, parent));
+            }
+            return this.addNode(parent, this.dictionary.intern(label));
+        }
+
+        /**
+         * Aggiunge un nuovo nodo in una posizione casuale, con le stesse probabilità di Node.addNewRandomNode:
+         * partendo dalla radice, ad ogni passo il nodo viene aggiunto al nodo corrente oppure si scende in un figlio
+         * scelto a caso.
+         *
+         * @param label L'etichetta del nuovo nodo.
+         * @return L'indice del nuovo nodo.
+         */
+        public int addRandomNode(String label) {
+            this.checkBuilding();
+            int node = ROOT;
+            while (this.childCounts[node] > 0 && Math.random() >= Node.ADJACENCY_PERCENTAGE) {
+                node = this.children[node][(int) (Math.random() * this.childCounts[node])];
+            }
+            return this.addNode(node, this.dictionary.intern(label));
+        }
+
+        /**
+         * Come addRandomNode, ma con un generatore dato e un'etichetta già inserita nel dizionario (vedere
+         * TreeGenerator).
+         *
+         * @param labelId L'identificativo dell'etichetta, restituito da intern.
+         * @param random Il generatore di numeri casuali.
+         * @return L'indice del nuovo nodo.
+         */
+        int addRandomNode(int labelId, SplittableRandom random) {
+            int node = ROOT;
+            while (this.childCounts[node] > 0 && random.nextDouble() >= Node.ADJACENCY_PERCENTAGE) {
+                node = this.children[node][random.nextInt(this.childCounts[node])];
+            }
+            return this.addNode(node, labelId);
+        }
+
+        /**
+         * Inserisce un'etichetta nel dizionario dell'albero in costruzione.
+         *
+         * @param label L'etichetta.
+         * @return L'identificativo dell'etichetta.
+         */
+        int intern(String label) {
+            this.checkBuilding();
+            return this.dictionary.intern(label);
+        }
+
+        /**
+         * Aggiunge un nodo con un'etichetta già inserita nel dizionario, senza controlli sul padre.
+         */
+        private int addNode(int parent, int labelId) {
+            if (this.size == this.parents.length) {
+                int capacity = this.size * 2;
+                this.parents = Arrays.copyOf(this.parents, capacity);
+                this.labels = Arrays.copyOf(this.labels, capacity);
+                this.children = Arrays.copyOf(this.children, capacity);
+                this.childCounts = Arrays.copyOf(this.childCounts, capacity);
+            }
+            int node = this.size++;
+            this.parents[node] = parent;
+            this.labels[node] = labelId;
+
+            int[] siblings = this.children[parent];
+            int count = this.childCounts[parent];
+            if (siblings == null) {
+                siblings = new int[INITIAL_CHILDREN];
+            } else if (count == siblings.length) {
+                siblings = Arrays.copyOf(siblings, count * 2);
+            }
+            siblings[count] = node;
+            this.children[parent] = siblings;
+            this.childCounts[parent] = count + 1;
+            return node;
+        }
+
+        /**
+         * Costruisce l'albero compatto, numerando i nodi in ampiezza.
+         * Dopo la costruzione il Builder non può più essere utilizzato.
+         *
+         * @return L'albero costruito.
+         */
+        public CompactTree build() {
+            this.checkBuilding();
+            // le liste dei figli servono solo per l'aggiunta casuale: la conversione usa i padri
+            this.children = null;
+            this.childCounts = null;
+            int[] parents = this.size == this.parents.length ? this.parents : Arrays.copyOf(this.parents, this.size);
+            int[] labels = this.size == this.labels.length ? this.labels : Arrays.copyOf(this.labels, this.size);
+            LabelDictionary dictionary = this.dictionary;
+            this.dictionary = null;
+            this.parents = null;
+            this.labels = null;
+            return fromParents(dictionary, parents, labels);
+        }
+
+        /**
+         * Controlla che l'albero non sia già stato costruito.
+         */
+        private void checkBuilding() {
+            if (this.dictionary == null) {
+                throw new IllegalStateException(USED_BUILDER_EXCEPTION);
+            }
+        }
+
+    }
+
+}
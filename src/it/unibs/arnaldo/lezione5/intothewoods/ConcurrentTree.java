@@ -0,0 +1,392 @@
+package it.unibs.arnaldo.lezione5.intothewoods;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Classe che rappresenta un albero in cui più thread possono aggiungere nodi mentre altri thread cercano etichette,
+ * senza lock: né le aggiunte né le letture attendono mai altri thread.
+ * - Ogni nodo riceve un id progressivo da un contatore atomico, quindi gli id sono unici e il padre ha sempre un id
+ *   minore dei figli.
+ * - I figli di un nodo formano una lista concatenata in cui i nuovi nodi vengono inseriti in testa con un
+ *   compare-and-set: i nodi già inseriti non vengono mai modificati.
+ * - Ogni nodo viene infine registrato in un array indicizzato per id, e un contatore ("pubblicati") avanza sugli id
+ *   registrati senza buchi. Una lettura (vedere Snapshot) considera solo i nodi con id minore del valore letto: è
+ *   un prefisso dell'ordine di inserimento, quindi un albero completo (il padre di ogni nodo è anch'esso incluso),
+ *   che non cambia anche se nel frattempo vengono aggiunti altri nodi.
+ * Di conseguenza un nodo diventa visibile alle letture (e ad addRandomNode) solo quando lo sono tutti i nodi con id
+ * minore: un thread sospeso a metà di un'aggiunta non blocca gli altri thread, ma ritarda la visibilità dei nodi
+ * aggiunti dopo il suo finché non riprende. Un nodo restituito da addNode può quindi non essere ancora visibile.
+ * Se un'aggiunta fallisce dopo aver ottenuto l'id (solo per errori della JVM, come OutOfMemoryError), l'id viene
+ * comunque registrato con un segnaposto, così i pubblicati non si fermano mai.
+ *
+ * @author Michele Dusi <michele.dusi.it@ieee.org>
+ *
+ */
+public final class ConcurrentTree {
+
+    private static final String ROOT_LABEL = "root";
+    private static final String FOREIGN_NODE_EXCEPTION = "Il nodo %d non appartiene a questo albero.";
+    private static final String FULL_TREE_EXCEPTION = "L'albero ha raggiunto il numero massimo di nodi.";
+    private static final String NULL_LABEL_EXCEPTION = "L'etichetta di un nodo non può essere null.";
+    /**
+     * Dimensione dei blocchi dell'array dei nodi registrati, che vengono creati solo quando servono.
+     */
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 1 << (Integer.SIZE - 1 - CHUNK_BITS);
+    /**
+     * Segnaposto registrato al posto di un nodo la cui aggiunta è fallita: non è raggiungibile dalla radice.
+     */
+    private static final Entry TOMBSTONE = new Entry(-1, null, null, null);
+
+    private final AtomicInteger allocated;
+    private final AtomicInteger published;
+    private final AtomicReferenceArray<AtomicReferenceArray<Entry>> chunks;
+    /**
+     * Indice delle etichette: associa a ciascuna etichetta il minimo id dei nodi che la portano.
+     */
+    private final ConcurrentHashMap<String, Integer> firstIds;
+    private final Entry root;
+
+    /**
+     * Costruttore.
+     * Istanzia un albero con la sola radice.
+     */
+    public ConcurrentTree() {
+        this.allocated = new AtomicInteger();
+        this.published = new AtomicInteger();
+        this.chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+        this.firstIds = new ConcurrentHashMap<>();
+        this.root = this.add(null, ROOT_LABEL);
+    }
+
+    /**
+     * Restituisce la radice dell'albero.
+     *
+     * @return La radice.
+     */
+    public Entry getRoot() {
+        return this.root;
+    }
+
+    /**
+     * Aggiunge un nuovo nodo come figlio del nodo dato. Può essere chiamato da più thread contemporaneamente.
+     *
+     * @param parent Il padre, restituito da un'aggiunta precedente su questo albero.
+     * @param label L'etichetta del nuovo nodo (non null).
+     * @return Il nodo aggiunto.
+     */
+    public Entry addNode(Entry parent, String label) {
+        if (parent == null || this.registered(parent.id) != parent) {
+            throw new IllegalArgumentException(String.format(FOREIGN_NODE_EXCEPTION, parent == null ? -1 : parent.id));
+        }
+        return this.add(parent, label);
+    }
+
+    /**
+     * Aggiunge un nuovo nodo come figlio di un nodo scelto a caso, con probabilità uniforme, tra quelli già
+     * pubblicati (come la forma UNIFORM_PARENT di TreeGenerator). Può essere chiamato da più thread
+     * contemporaneamente.
+     *
+     * @param label L'etichetta del nuovo nodo (non null).
+     * @return Il nodo aggiunto.
+     */
+    public Entry addRandomNode(String label) {
+        Entry parent;
+        do {
+            parent = this.registered(ThreadLocalRandom.current().nextInt(this.published.get()));
+        } while (parent == TOMBSTONE);
+        return this.add(parent, label);
+    }
+
+    /**
+     * Restituisce il numero di nodi pubblicati, ossia visibili alle letture, radice compresa.
+     *
+     * @return Il numero di nodi pubblicati.
+     */
+    public int size() {
+        return this.published.get();
+    }
+
+    /**
+     * Restituisce una vista dei nodi pubblicati finora, che non cambia con le aggiunte successive.
+     *
+     * @return La vista.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this.published.get());
+    }
+
+    /**
+     * Verifica se all'interno dell'albero è presente almeno un nodo pubblicato con la label specificata.
+     *
+     * @param label L'etichetta da cercare.
+     * @return true se esiste almeno un nodo con l'etichetta data.
+     */
+    public boolean containsLabel(String label) {
+        return this.snapshot().containsLabel(label);
+    }
+
+    /**
+     * Aggiunge un nodo, nell'ordine che garantisce la coerenza delle letture: prima il collegamento al padre, poi
+     * l'indice delle etichette, poi la registrazione, e infine l'avanzamento dei pubblicati.
+     * Tutti i controlli avvengono prima di ottenere l'id; dopo, l'id viene registrato in ogni caso.
+     */
+    private Entry add(Entry parent, String label) {
+        if (label == null) {
+            throw new IllegalArgumentException(NULL_LABEL_EXCEPTION);
+        }
+        int id = this.allocate();
+        Entry entry = null;
+        boolean linked = false;
+        try {
+            if (parent == null) {
+                entry = new Entry(id, label, null, null);
+            } else {
+                // inserimento in testa alla lista dei figli: se un altro thread ha inserito nel frattempo, si riprova
+                Entry head;
+                do {
+                    head = parent.firstChild;
+                    entry = new Entry(id, label, parent, head);
+                } while (!Entry.FIRST_CHILD.compareAndSet(parent, head, entry));
+            }
+            linked = true;
+            this.firstIds.merge(label, id, Math::min);
+        } finally {
+            // un nodo già collegato al padre è raggiungibile, quindi va registrato anche se l'indice non è
+            // aggiornato; altrimenti si registra il segnaposto, perché publish non si fermi a questo id
+            this.chunks.get(id >>> CHUNK_BITS).set(id & (CHUNK_SIZE - 1), linked ? entry : TOMBSTONE);
+            this.publish();
+        }
+        return entry;
+    }
+
+    /**
+     * Ottiene un nuovo id, oppure segnala che l'albero è pieno senza consumarne nessuno.
+     * Il blocco dell'array in cui verrà registrato il nodo viene creato prima di prendere l'id, così la registrazione
+     * non può più fallire.
+     *
+     * @return Il nuovo id.
+     */
+    private int allocate() {
+        while (true) {
+            int id = this.allocated.get();
+            // l'ultimo id resta libero, così il contatore dei pubblicati non supera mai Integer.MAX_VALUE
+            if (id == Integer.MAX_VALUE) {
+                throw new IllegalStateException(FULL_TREE_EXCEPTION);
+            }
+            this.chunk(id >>> CHUNK_BITS);
+            if (this.allocated.compareAndSet(id, id + 1)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Fa avanzare il contatore dei pubblicati finché gli id sono registrati. Ogni thread che aggiunge un nodo lo
+     * chiama, quindi anche un nodo registrato dopo uno più lento viene pubblicato da quest'ultimo.
+     */
+    private void publish() {
+        int next = this.published.get();
+        while (next < Integer.MAX_VALUE && this.registered(next) != null) {
+            this.published.compareAndSet(next, next + 1);
+            next = this.published.get();
+        }
+    }
+
+    /**
+     * Restituisce il nodo registrato con l'id dato.
+     *
+     * @param id L'id.
+     * @return Il nodo, oppure null se non è ancora registrato.
+     */
+    private Entry registered(int id) {
+        AtomicReferenceArray<Entry> chunk = this.chunks.get(id >>> CHUNK_BITS);
+        return chunk == null ? null : chunk.get(id & (CHUNK_SIZE - 1));
+    }
+
+    /**
+     * Restituisce il blocco dell'array dei nodi con l'indice dato, creandolo se non esiste ancora.
+     */
+    private AtomicReferenceArray<Entry> chunk(int index) {
+        AtomicReferenceArray<Entry> chunk = this.chunks.get(index);
+        if (chunk == null) {
+            this.chunks.compareAndSet(index, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+            chunk = this.chunks.get(index);
+        }
+        return chunk;
+    }
+
+    /**
+     * Nodo di un ConcurrentTree. L'id, l'etichetta, il padre e il fratello successivo non cambiano mai; cambia solo
+     * il primo figlio, quando viene aggiunto un nuovo figlio.
+     */
+    public static final class Entry {
+
+        private static final AtomicReferenceFieldUpdater<Entry, Entry> FIRST_CHILD =
+                AtomicReferenceFieldUpdater.newUpdater(Entry.class, Entry.class, "firstChild");
+
+        private final int id;
+        private final String label;
+        private final Entry parent;
+        private final Entry nextSibling;
+        private volatile Entry firstChild;
+
+        private Entry(int id, String label, Entry parent, Entry nextSibling) {
+            this.id = id;
+            this.label = label;
+            this.parent = parent;
+            this.nextSibling = nextSibling;
+        }
+
+        /**
+         * Restituisce l'id del nodo.
+         *
+         * @return L'id del nodo.
+         */
+        public int getId() {
+            return this.id;
+        }
+
+        /**
+         * Restituisce l'etichetta del nodo.
+         *
+         * @return L'etichetta del nodo.
+         */
+        public String getLabel() {
+            return this.label;
+        }
+
+        /**
+         * Restituisce il padre del nodo.
+         *
+         * @return Il padre, oppure null per la radice.
+         */
+        public Entry getParent() {
+            return this.parent;
+        }
+
+    }
+
+    /**
+     * Vista dei nodi di un ConcurrentTree pubblicati in un certo istante, ossia di quelli con id minore di getSize.
+     * Tutte le letture di una stessa vista danno risultati coerenti tra loro, anche se altri thread continuano ad
+     * aggiungere nodi.
+     */
+    public final class Snapshot {
+
+        private final int size;
+
+        private Snapshot(int size) {
+            this.size = size;
+        }
+
+        /**
+         * Restituisce il numero di nodi della vista, radice compresa (compresi gli eventuali segnaposto di aggiunte
+         * fallite, vedere ConcurrentTree).
+         *
+         * @return Il numero di nodi.
+         */
+        public int getSize() {
+            return this.size;
+        }
+
+        /**
+         * Restituisce il nodo della vista con l'id dato.
+         *
+         * @param id L'id del nodo.
+         * @return Il nodo, oppure null se la sua aggiunta è fallita.
+         */
+        public Entry getEntry(int id) {
+            if (id < 0 || id >= this.size) {
+                throw new IllegalArgumentException(String.format(FOREIGN_NODE_EXCEPTION, id));
+            }
+            Entry entry = registered(id);
+            return entry == TOMBSTONE ? null : entry;
+        }
+
+        /**
+         * Verifica se nella vista è presente almeno un nodo con la label specificata, tramite l'indice delle
+         * etichette.
+         *
+         * @param label L'etichetta da cercare.
+         * @return true se esiste almeno un nodo con l'etichetta data.
+         */
+        public boolean containsLabel(String label) {
+            Integer first = firstIds.get(label);
+            return first != null && first < this.size;
+        }
+
+        /**
+         * Verifica quali etichette di una lista sono presenti nella vista.
+         *
+         * @param labels Le etichette da cercare.
+         * @return L'insieme delle posizioni, nella lista, delle etichette presenti.
+         */
+        public BitSet containsAll(List<String> labels) {
+            BitSet result = new BitSet(labels.size());
+            for (int i = 0; i < labels.size(); i++) {
+                if (this.containsLabel(labels.get(i))) {
+                    result.set(i);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Cerca la label visitando i nodi della vista in profondità, a partire dalla radice (senza usare l'indice).
+         *
+         * @param label L'etichetta da cercare.
+         * @return true se esiste almeno un nodo con l'etichetta data.
+         */
+        public boolean find(String label) {
+            Deque<Entry> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Entry entry = stack.pop();
+                if (entry.label.equals(label)) {
+                    return true;
+                }
+                // i nodi aggiunti dopo la vista sono in testa alla lista dei figli, e vengono saltati con i loro
+                // discendenti (che hanno id ancora maggiori)
+                for (Entry child = entry.firstChild; child != null; child = child.nextSibling) {
+                    if (child.id < this.size) {
+                        stack.push(child);
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Conta i nodi della vista raggiungibili dalla radice: coincide con getSize, salvo aggiunte fallite.
+         *
+         * @return Il numero di nodi visitati.
+         */
+        public int countReachable() {
+            int count = 0;
+            Deque<Entry> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Entry entry = stack.pop();
+                count++;
+                for (Entry child = entry.firstChild; child != null; child = child.nextSibling) {
+                    if (child.id < this.size) {
+                        stack.push(child);
+                    }
+                }
+            }
+            return count;
+        }
+
+    }
+
+}
@@ -0,0 +1,151 @@
+package it.unibs.arnaldo.lezione5.intothewoods;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Classe main che misura le prestazioni di ConcurrentTree sotto contesa: per ogni configurazione, alcuni thread
+ * aggiungono nodi in posizioni casuali mentre altri cercano etichette casuali, per un tempo fissato.
+ * Un ulteriore thread di controllo visita ripetutamente l'albero intero da una vista (vedere ConcurrentTree.Snapshot)
+ * e verifica che i nodi raggiungibili siano esattamente quelli della vista, anche durante le aggiunte.
+ * Il primo argomento, facoltativo, è la durata di ciascuna configurazione in secondi (3 se assente).
+ *
+ * @author Michele Dusi <michele.dusi.it@ieee.org>
+ *
+ */
+public final class ConcurrentTreeBenchmark {
+
+    private static final int DEFAULT_SECONDS = 3;
+    private static final int LABELS = 1000;
+    private static final String LABEL_PREFIX = "label";
+    private static final String HEADER_FORMAT = "Durata di ciascuna configurazione: %d s, %d processori disponibili\n\n";
+    private static final String ROW_HEADER = String.format("%8s %8s %16s %16s %12s %10s %10s",
+            "Scrittori", "Lettori", "Inserimenti/s", "Ricerche/s", "Nodi", "Controlli", "Errori");
+    private static final String ROW_FORMAT = "%8d %8d %16.0f %16.0f %12d %10d %10d\n";
+    private static final String INCONSISTENT_FORMAT = "Vista incoerente: %d nodi raggiungibili su %d.\n";
+
+    private ConcurrentTreeBenchmark() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SECONDS;
+        int half = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        String[] labels = new String[LABELS];
+        for (int l = 0; l < LABELS; l++) {
+            labels[l] = LABEL_PREFIX + l;
+        }
+
+        System.out.printf(HEADER_FORMAT, seconds, Runtime.getRuntime().availableProcessors());
+        System.out.println(ROW_HEADER);
+        int[][] configurations = {{1, 0}, {0, 1}, {1, 1}, {half, half}, {2 * half, 2 * half}};
+        for (int c = 0; c < configurations.length; c++) {
+            // con un solo processore, {half, half} coincide con {1, 1}
+            if (c > 0 && Arrays.equals(configurations[c], configurations[c - 1])) {
+                continue;
+            }
+            run(configurations[c][0], configurations[c][1], seconds, labels);
+        }
+    }
+
+    /**
+     * Esegue una configurazione e ne stampa i risultati.
+     *
+     * @param writers Il numero di thread che aggiungono nodi.
+     * @param readers Il numero di thread che cercano etichette.
+     * @param seconds La durata in secondi.
+     * @param labels Le etichette da usare.
+     */
+    private static void run(int writers, int readers, int seconds, String[] labels) throws InterruptedException {
+        ConcurrentTree tree = new ConcurrentTree();
+        // senza scrittori, le ricerche avvengono su un albero già popolato
+        if (writers == 0) {
+            for (int i = 0; i < 100_000; i++) {
+                tree.addRandomNode(labels[i % labels.length]);
+            }
+        }
+        int initialSize = tree.size();
+        LongAdder inserts = new LongAdder();
+        LongAdder queries = new LongAdder();
+        LongAdder audits = new LongAdder();
+        LongAdder errors = new LongAdder();
+        AtomicBoolean stop = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            threads.add(new Thread(() -> {
+                await(start);
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                while (!stop.get()) {
+                    tree.addRandomNode(labels[random.nextInt(labels.length)]);
+                    count++;
+                }
+                inserts.add(count);
+            }));
+        }
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread(() -> {
+                await(start);
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                while (!stop.get()) {
+                    // metà delle ricerche riguarda etichette che potrebbero non essere ancora state inserite
+                    int l = random.nextInt(2 * labels.length);
+                    tree.containsLabel(l < labels.length ? labels[l] : LABEL_PREFIX + l);
+                    count++;
+                }
+                queries.add(count);
+            }));
+        }
+        threads.add(new Thread(() -> {
+            await(start);
+            while (!stop.get()) {
+                ConcurrentTree.Snapshot snapshot = tree.snapshot();
+                int reachable = snapshot.countReachable();
+                if (reachable != snapshot.getSize()) {
+                    System.err.printf(INCONSISTENT_FORMAT, reachable, snapshot.getSize());
+                    errors.increment();
+                }
+                audits.increment();
+            }
+        }));
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+
+        // a scrittori fermi, tutti i nodi inseriti devono essere pubblicati e raggiungibili
+        ConcurrentTree.Snapshot last = tree.snapshot();
+        if (last.getSize() != initialSize + inserts.sum() || last.countReachable() != last.getSize()) {
+            errors.increment();
+        }
+        System.out.printf(ROW_FORMAT, writers, readers, inserts.sum() / elapsed, queries.sum() / elapsed,
+                last.getSize(), audits.sum(), errors.sum());
+    }
+
+    /**
+     * Attende il segnale di partenza comune a tutti i thread.
+     */
+    private static void await(CountDownLatch start) {
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package it.unibs.arnaldo.lezione5.intothewoods;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 /**
@@ -43,15 +44,14 @@ public final class IntoTheWoods {
     private static double testTree(int size, int num_labels) {
         List<String> labels = generateLabels(num_labels);
         Tree test_tree = new Tree(size, labels);
-        // Inizio la fase di testing
+        // Inizio la fase di testing: tutte le etichette vengono cercate con una sola interrogazione,
+        // e l'etichetta assente è l'ultima della lista
         try {
-            int success_number = 0;
-            for (String l : labels) {
-                if (test_tree.containsLabel(l)) {
-                    success_number++;
-                }
-            }
-            if (!test_tree.containsLabel(ABSENT_LABEL)) {
+            List<String> queries = new ArrayList<>(labels);
+            queries.add(ABSENT_LABEL);
+            BitSet found = test_tree.containsAll(queries);
+            int success_number = found.get(0, num_labels).cardinality();
+            if (!found.get(num_labels)) {
                 success_number++;
             }
             return success_number / (num_labels + 1.0);
@@ -0,0 +1,85 @@
+package it.unibs.arnaldo.lezione5.intothewoods;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classe che associa a ciascuna etichetta un identificativo intero, progressivo a partire da 0.
+ * Permette di memorizzare le etichette dei nodi come semplici interi (vedere CompactTree):
+ * ogni etichetta distinta viene salvata una volta sola, e i confronti tra etichette diventano confronti tra interi.
+ *
+ * @author Michele Dusi <michele.dusi.it@ieee.org>
+ *
+ */
+public final class LabelDictionary {
+
+    /**
+     * Valore restituito da getId per le etichette assenti dal dizionario.
+     */
+    public static final int ABSENT = -1;
+    private static final String UNKNOWN_ID_EXCEPTION = "Nessuna etichetta ha l'identificativo %d.";
+
+    private Map<String, Integer> ids;
+    private List<String> labels;
+
+    /**
+     * Costruttore.
+     * Istanzia un dizionario vuoto.
+     */
+    public LabelDictionary() {
+        this.ids = new HashMap<>();
+        this.labels = new ArrayList<>();
+    }
+
+    /**
+     * Restituisce l'identificativo dell'etichetta data, aggiungendola al dizionario se non è ancora presente.
+     *
+     * @param label L'etichetta.
+     * @return L'identificativo dell'etichetta.
+     */
+    public int intern(String label) {
+        Integer id = this.ids.get(label);
+        if (id == null) {
+            id = this.labels.size();
+            this.ids.put(label, id);
+            this.labels.add(label);
+        }
+        return id;
+    }
+
+    /**
+     * Restituisce l'identificativo dell'etichetta data, senza modificare il dizionario.
+     *
+     * @param label L'etichetta.
+     * @return L'identificativo dell'etichetta, oppure ABSENT se non è presente.
+     */
+    public int getId(String label) {
+        Integer id = this.ids.get(label);
+        return id == null ? ABSENT : id;
+    }
+
+    /**
+     * Restituisce l'etichetta con l'identificativo dato.
+     *
+     * @param id L'identificativo.
+     * @return L'etichetta corrispondente.
+     */
+    public String getLabel(int id) {
+        if (id < 0 || id >= this.labels.size()) {
+            throw new IllegalArgumentException(String.format(UNKNOWN_ID_EXCEPTION, id));
+        }
+        return this.labels.get(id);
+    }
+
+    /**
+     * Restituisce il numero di etichette distinte presenti nel dizionario.
+     *
+     * @return Il numero di etichette.
+     */
+    public int size() {
+        return this.labels.size();
+    }
+
+}
@@ -0,0 +1,115 @@
+package it.unibs.arnaldo.lezione5.intothewoods;
+
+/**
+ * Classe che riassume un insieme di etichette in un numero fisso di bit (filtro di Bloom): permette di stabilire con
+ * certezza che un'etichetta NON è nell'insieme, mentre una risposta positiva può essere un falso positivo.
+ * Ogni etichetta imposta HASHES bit, scelti con due valori di hash ricavati dall'hash della stringa; la probabilità di
+ * falso positivo cresce con il numero di etichette distinte rispetto al numero di bit, finché tutti i bit sono
+ * impostati e il riassunto non esclude più nulla.
+ * Viene usato da Node per riassumere le etichette di un sottoalbero e saltarlo durante le ricerche.
+ *
+ * @author Michele Dusi <michele.dusi.it@ieee.org>
+ *
+ */
+public final class LabelSummary {
+
+    /**
+     * Numero di bit impostati da ciascuna etichetta.
+     */
+    private static final int HASHES = 3;
+    private static final String ILLEGAL_BITS_EXCEPTION = "Il numero di bit del riassunto deve essere positivo: %d.";
+
+    private final long[] words;
+    private final int bits;
+
+    /**
+     * Costruttore.
+     * Istanzia un riassunto vuoto.
+     *
+     * @param bits Il numero di bit, arrotondato al multiplo di 64 successivo.
+     */
+    public LabelSummary(int bits) {
+        if (bits <= 0) {
+            throw new IllegalArgumentException(String.format(ILLEGAL_BITS_EXCEPTION, bits));
+        }
+        this.words = new long[(bits + Long.SIZE - 1) / Long.SIZE];
+        this.bits = this.words.length * Long.SIZE;
+    }
+
+    /**
+     * Calcola l'hash di un'etichetta usato dai riassunti: calcolarlo una volta sola permette di interrogare molti
+     * riassunti per la stessa etichetta senza ripetere il calcolo.
+     *
+     * @param label L'etichetta.
+     * @return L'hash a 64 bit dell'etichetta.
+     */
+    public static long hash(String label) {
+        // mescolamento a 64 bit dell'hash della stringa (che la stringa tiene in memoria dopo il primo calcolo)
+        long h = label.hashCode() * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xD6E8FEB86659FD93L;
+        h ^= h >>> 32;
+        return h;
+    }
+
+    /**
+     * Aggiunge un'etichetta al riassunto.
+     *
+     * @param label L'etichetta.
+     */
+    public void add(String label) {
+        this.add(hash(label));
+    }
+
+    /**
+     * Aggiunge al riassunto un'etichetta di cui è già stato calcolato l'hash.
+     *
+     * @param hash L'hash dell'etichetta, calcolato da hash(String).
+     */
+    public void add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, this.bits);
+            this.words[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Verifica se un'etichetta potrebbe essere nel riassunto.
+     *
+     * @param label L'etichetta.
+     * @return false se l'etichetta sicuramente non è stata aggiunta, true se potrebbe esserlo.
+     */
+    public boolean mightContain(String label) {
+        return this.mightContain(hash(label));
+    }
+
+    /**
+     * Verifica se un'etichetta, di cui è già stato calcolato l'hash, potrebbe essere nel riassunto.
+     *
+     * @param hash L'hash dell'etichetta, calcolato da hash(String).
+     * @return false se l'etichetta sicuramente non è stata aggiunta, true se potrebbe esserlo.
+     */
+    public boolean mightContain(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = Math.floorMod(h1 + i * h2, this.bits);
+            if ((this.words[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Restituisce il numero di bit del riassunto.
+     *
+     * @return Il numero di bit.
+     */
+    public int getBits() {
+        return this.bits;
+    }
+
+}
@@ -0,0 +1,455 @@
+package it.unibs.arnaldo.lezione5.intothewoods;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Classe che rappresenta un albero compatto salvato su file in formato binario, aperto in sola lettura tramite
+ * memory-mapping: il contenuto viene caricato dal sistema operativo solo quando serve, quindi anche un file di più
+ * GB si apre subito, e le pagine lette sono condivise tra tutti i processi che aprono lo stesso file.
+ * Le letture non modificano lo stato dell'oggetto, quindi più thread possono cercare contemporaneamente.
+ *
+ * Formato del file (tutti i numeri in big-endian):
+ * - intestazione: MAGIC (int), VERSION (short), FLAGS (short, con WITH_INDEX se c'è l'indice), numero di nodi n
+ *   (int), numero di etichette m (int) e posizione del dizionario nel file (long);
+ * - i padri (n int), le posizioni dei primi figli (n + 1 int) e gli identificativi delle etichette (n int) dei nodi,
+ *   come in CompactTree;
+ * - solo con l'indice: la posizione del primo nodo di ciascuna etichetta (m + 1 int) e i nodi raggruppati per
+ *   etichetta, ciascun gruppo in ordine crescente (n int);
+ * - il dizionario: per ciascuna etichetta, in ordine di identificativo, la lunghezza (int) e i byte UTF-8.
+ * Un singolo MappedByteBuffer non supera i 2 GB, quindi la parte di interi viene mappata a segmenti.
+ * Per non leggere tutto il file, open controlla solo l'intestazione e il dizionario: gli interi dei nodi e
+ * dell'indice vengono controllati quando vengono letti, e un valore fuori intervallo (un file danneggiato) viene
+ * segnalato con una IllegalArgumentException, come in squareroots.ExpressionArchive.
+ *
+ * @author Michele Dusi <michele.dusi.it@ieee.org>
+ *
+ */
+public final class MappedTree {
+
+    private static final int MAGIC = 0x574F4F44; // "WOOD"
+    private static final short VERSION = 1;
+    private static final short WITH_INDEX = 1;
+    private static final int HEADER_BYTES = Integer.BYTES + 2 * Short.BYTES + 2 * Integer.BYTES + Long.BYTES;
+    /**
+     * Dimensione in byte dei segmenti mappati (multipla di Integer.BYTES, così nessun intero è diviso tra due
+     * segmenti).
+     */
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+    private static final String BAD_FORMAT_EXCEPTION = "Il file '%s' non contiene un albero.";
+    private static final String BAD_VERSION_EXCEPTION = "Versione del file non supportata: %d.";
+    private static final String CORRUPTED_EXCEPTION = "Il file '%s' è danneggiato.";
+    private static final String UNKNOWN_NODE_EXCEPTION = "Il nodo %d non appartiene all'albero.";
+
+    private final MappedByteBuffer[] segments;
+    private final LabelDictionary dictionary;
+    private final String source;
+    private final int nodeCount;
+    private final int labelCount;
+    private final boolean indexed;
+    // posizioni, in interi dall'inizio della parte di interi, delle sezioni del file
+    private final long firstChildBase;
+    private final long labelsBase;
+    private final long labelStartBase;
+    private final long labelNodesBase;
+
+    /**
+     * Costruttore privato, utilizzare il metodo statico open.
+     *
+     * @param segments I segmenti mappati della parte di interi.
+     * @param dictionary Il dizionario letto dal file.
+     * @param source Il nome del file (per i messaggi di errore).
+     * @param nodeCount Il numero di nodi.
+     * @param labelCount Il numero di etichette dichiarato nell'intestazione.
+     * @param indexed true se il file contiene l'indice delle etichette.
+     */
+    private MappedTree(MappedByteBuffer[] segments, LabelDictionary dictionary, String source, int nodeCount,
+            int labelCount, boolean indexed) {
+        this.segments = segments;
+        this.dictionary = dictionary;
+        this.source = source;
+        this.nodeCount = nodeCount;
+        this.labelCount = labelCount;
+        this.indexed = indexed;
+        this.firstChildBase = nodeCount;
+        this.labelsBase = 2L * nodeCount + 1;
+        this.labelStartBase = 3L * nodeCount + 1;
+        this.labelNodesBase = this.labelStartBase + labelCount + 1;
+    }
+
+    /**
+     * Metodo statico che scrive un albero compatto su file, sostituendo il contenuto precedente.
+     * Per salvare un Tree si usa l'albero restituito da Tree.toCompactTree.
+     *
+     * @param tree L'albero da salvare.
+     * @param file Il file da scrivere.
+     * @param withIndex true per salvare anche l'indice delle etichette, che permette di trovare tutti i nodi con
+     *                  una certa etichetta senza scorrere l'albero (al costo di un intero in più per nodo).
+     * @throws IOException Se ci sono errori di scrittura.
+     */
+    public static void write(CompactTree tree, Path file, boolean withIndex) throws IOException {
+        int n = tree.getNodeCount();
+        LabelDictionary dictionary = tree.getDictionary();
+        int m = dictionary.size();
+        long ints = 3L * n + 1 + (withIndex ? m + 1L + n : 0);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(withIndex ? WITH_INDEX : 0);
+            out.writeInt(n);
+            out.writeInt(m);
+            out.writeLong(HEADER_BYTES + ints * Integer.BYTES);
+
+            for (int node = 0; node < n; node++) {
+                out.writeInt(tree.getParent(node));
+            }
+            for (int node = 0; node < n; node++) {
+                out.writeInt(tree.getFirstChild(node));
+            }
+            out.writeInt(tree.getFirstChild(n - 1) + tree.getChildCount(n - 1));
+            for (int node = 0; node < n; node++) {
+                out.writeInt(tree.getLabelId(node));
+            }
+
+            if (withIndex) {
+                // stesso schema dei figli in CompactTree: conteggi, somme prefisse e riempimento in ordine di nodo
+                int[] starts = new int[m + 1];
+                for (int node = 0; node < n; node++) {
+                    starts[tree.getLabelId(node) + 1]++;
+                }
+                for (int id = 0; id < m; id++) {
+                    starts[id + 1] += starts[id];
+                }
+                for (int start : starts) {
+                    out.writeInt(start);
+                }
+                int[] next = Arrays.copyOf(starts, m);
+                int[] nodes = new int[n];
+                for (int node = 0; node < n; node++) {
+                    nodes[next[tree.getLabelId(node)]++] = node;
+                }
+                for (int node : nodes) {
+                    out.writeInt(node);
+                }
+            }
+
+            for (int id = 0; id < m; id++) {
+                byte[] bytes = dictionary.getLabel(id).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Metodo statico che apre un albero salvato su file in sola lettura, tramite memory-mapping.
+     * Viene letto subito solo il dizionario delle etichette; i nodi vengono letti dal file quando servono (e
+     * controllati in quel momento).
+     *
+     * @param file Il file da aprire.
+     * @return L'albero contenuto nel file.
+     * @throws IOException Se ci sono errori di lettura.
+     * @throws IllegalArgumentException Se il file non è nel formato corretto.
+     */
+    public static MappedTree open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IllegalArgumentException(String.format(BAD_FORMAT_EXCEPTION, file));
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) {
+                throw new IllegalArgumentException(String.format(BAD_FORMAT_EXCEPTION, file));
+            }
+            short version = header.getShort();
+            if (version != VERSION) {
+                throw new IllegalArgumentException(String.format(BAD_VERSION_EXCEPTION, version));
+            }
+            boolean indexed = (header.getShort() & WITH_INDEX) != 0;
+            int n = header.getInt();
+            int m = header.getInt();
+            long dictionaryPosition = header.getLong();
+            long ints = 3L * n + 1 + (indexed ? m + 1L + n : 0);
+            if (n <= 0 || m <= 0 || dictionaryPosition != HEADER_BYTES + ints * Integer.BYTES
+                    || dictionaryPosition > size || size - dictionaryPosition > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(String.format(CORRUPTED_EXCEPTION, file));
+            }
+
+            // il dizionario viene letto subito, i nodi restano sul file
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, dictionaryPosition,
+                    size - dictionaryPosition);
+            LabelDictionary dictionary = new LabelDictionary();
+            for (int id = 0; id < m; id++) {
+                if (bytes.remaining() < Integer.BYTES) {
+                    throw new IllegalArgumentException(String.format(CORRUPTED_EXCEPTION, file));
+                }
+                int length = bytes.getInt();
+                if (length < 0 || length > bytes.remaining()) {
+                    throw new IllegalArgumentException(String.format(CORRUPTED_EXCEPTION, file));
+                }
+                byte[] label = new byte[length];
+                bytes.get(label);
+                dictionary.intern(new String(label, StandardCharsets.UTF_8));
+            }
+            // un'etichetta ripetuta o dei byte in più spostano gli identificativi rispetto a quelli dei nodi
+            if (dictionary.size() != m || bytes.hasRemaining()) {
+                throw new IllegalArgumentException(String.format(CORRUPTED_EXCEPTION, file));
+            }
+
+            // la mappatura resta valida anche dopo la chiusura del canale
+            long intBytes = ints * Integer.BYTES;
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((intBytes + SEGMENT_MASK) >>> SEGMENT_BITS)];
+            for (int s = 0; s < segments.length; s++) {
+                long from = (long) s << SEGMENT_BITS;
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + from,
+                        Math.min(intBytes - from, 1L << SEGMENT_BITS));
+            }
+            return new MappedTree(segments, dictionary, file.toString(), n, m, indexed);
+        }
+    }
+
+    /**
+     * Restituisce il numero di nodi dell'albero, radice compresa.
+     *
+     * @return Il numero di nodi.
+     */
+    public int getNodeCount() {
+        return this.nodeCount;
+    }
+
+    /**
+     * Restituisce il padre del nodo dato.
+     *
+     * @param node L'indice del nodo.
+     * @return L'indice del padre, oppure CompactTree.NONE per la radice.
+     * @throws IllegalArgumentException Se il file è danneggiato.
+     */
+    public int getParent(int node) {
+        this.checkNode(node);
+        return this.readParent(node);
+    }
+
+    /**
+     * Restituisce l'indice del primo figlio del nodo dato: i figli hanno indici consecutivi.
+     *
+     * @param node L'indice del nodo.
+     * @return L'indice del primo figlio (significativo solo se il nodo ha figli).
+     * @throws IllegalArgumentException Se il file è danneggiato.
+     */
+    public int getFirstChild(int node) {
+        this.checkNode(node);
+        return this.readChecked(this.firstChildBase + node, 0, this.nodeCount + 1);
+    }
+
+    /**
+     * Restituisce il numero di figli del nodo dato.
+     *
+     * @param node L'indice del nodo.
+     * @return Il numero di figli.
+     * @throws IllegalArgumentException Se il file è danneggiato.
+     */
+    public int getChildCount(int node) {
+        this.checkNode(node);
+        int count = this.readChecked(this.firstChildBase + node + 1, 0, this.nodeCount + 1)
+                - this.readChecked(this.firstChildBase + node, 0, this.nodeCount + 1);
+        if (count < 0) {
+            throw new IllegalArgumentException(String.format(CORRUPTED_EXCEPTION, this.source));
+        }
+        return count;
+    }
+
+    /**
+     * Restituisce l'etichetta del nodo dato.
+     *
+     * @param node L'indice del nodo.
+     * @return L'etichetta del nodo.
+     * @throws IllegalArgumentException Se il file è danneggiato.
+     */
+    public String getLabel(int node) {
+        return this.dictionary.getLabel(this.getLabelId(node));
+    }
+
+    /**
+     * Restituisce l'identificativo dell'etichetta del nodo dato (vedere getDictionary).
+     *
+     * @param node L'indice del nodo.
+     * @return L'identificativo dell'etichetta.
+     * @throws IllegalArgumentException Se il file è danneggiato.
+     */
+    public int getLabelId(int node) {
+        this.checkNode(node);
+        return this.readChecked(this.labelsBase + node, 0, this.labelCount);
+    }
+
+    /**
+     * Restituisce il dizionario delle etichette dell'albero.
+     *
+     * @return Il dizionario.
+     */
+    public LabelDictionary getDictionary() {
+        return this.dictionary;
+    }
+
+    /**
+     * Verifica se il file contiene l'indice delle etichette.
+     *
+     * @return true se l'indice è presente.
+     */
+    public boolean hasIndex() {
+        return this.indexed;
+    }
+
+    /**
+     * Verifica se all'interno dell'albero è presente almeno un nodo con la label specificata, tramite il dizionario.
+     *
+     * @param label L'etichetta da cercare.
+     * @return true se esiste almeno un nodo con l'etichetta data.
+     */
+    public boolean containsLabel(String label) {
+        return this.dictionary.getId(label) != LabelDictionary.ABSENT;
+    }
+
+    /**
+     * Cerca il primo nodo, in ordine di ampiezza, con l'etichetta specificata: con l'indice basta una lettura,
+     * altrimenti vengono scorse le etichette dei nodi.
+     *
+     * @param label L'etichetta da cercare.
+     * @return L'indice del nodo trovato (lo stesso di CompactTree.find), oppure CompactTree.NONE.
+     * @throws IllegalArgumentException Se il file è danneggiato.
+     */
+    public int find(String label) {
+        int id = this.dictionary.getId(label);
+        if (id == LabelDictionary.ABSENT) {
+            return CompactTree.NONE;
+        }
+        if (this.indexed) {
+            int from = this.readChecked(this.labelStartBase + id, 0, this.nodeCount);
+            return this.readChecked(this.labelNodesBase + from, 0, this.nodeCount);
+        }
+        for (int node = 0; node < this.nodeCount; node++) {
+            if (this.readInt(this.labelsBase + node) == id) {
+                return node;
+            }
+        }
+        return CompactTree.NONE;
+    }
+
+    /**
+     * Restituisce tutti i nodi con l'etichetta specificata.
+     *
+     * @param label L'etichetta da cercare.
+     * @return Gli indici dei nodi, in ordine crescente (vuoto se l'etichetta non è presente).
+     * @throws IllegalArgumentException Se il file è danneggiato.
+     */
+    public int[] findAll(String label) {
+        int id = this.dictionary.getId(label);
+        if (id == LabelDictionary.ABSENT) {
+            return new int[0];
+        }
+        if (this.indexed) {
+            int from = this.readChecked(this.labelStartBase + id, 0, this.nodeCount + 1);
+            int to = this.readChecked(this.labelStartBase + id + 1, 0, this.nodeCount + 1);
+            if (to < from) {
+                throw new IllegalArgumentException(String.format(CORRUPTED_EXCEPTION, this.source));
+            }
+            int[] nodes = new int[to - from];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = this.readChecked(this.labelNodesBase + from + i, 0, this.nodeCount);
+            }
+            return nodes;
+        }
+        int[] nodes = new int[16];
+        int count = 0;
+        for (int node = 0; node < this.nodeCount; node++) {
+            if (this.readInt(this.labelsBase + node) == id) {
+                if (count == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, count * 2);
+                }
+                nodes[count++] = node;
+            }
+        }
+        return Arrays.copyOf(nodes, count);
+    }
+
+    /**
+     * Copia l'albero in memoria come CompactTree, per usarlo con TreeSearch o AncestorIndex.
+     *
+     * @return L'albero compatto equivalente.
+     * @throws IllegalArgumentException Se il file è danneggiato.
+     */
+    public CompactTree toCompactTree() {
+        int[] parents = new int[this.nodeCount];
+        int[] labels = new int[this.nodeCount];
+        for (int node = 0; node < this.nodeCount; node++) {
+            parents[node] = this.readParent(node);
+            labels[node] = this.readChecked(this.labelsBase + node, 0, this.labelCount);
+        }
+        return CompactTree.fromParents(this.dictionary, parents, labels);
+    }
+
+    /**
+     * Legge il padre di un nodo, controllando che rispetti l'ordine in ampiezza: la radice non ha padre, e il padre
+     * di ogni altro nodo lo precede.
+     *
+     * @param node L'indice del nodo.
+     * @return L'indice del padre, oppure CompactTree.NONE per la radice.
+     * @throws IllegalArgumentException Se il padre non è valido, ossia il file è danneggiato.
+     */
+    private int readParent(int node) {
+        if (node == 0) {
+            return this.readChecked(node, CompactTree.NONE, CompactTree.NONE + 1);
+        }
+        return this.readChecked(node, 0, node);
+    }
+
+    /**
+     * Legge un intero della parte di interi del file, con una lettura assoluta (che non modifica il buffer).
+     *
+     * @param index La posizione dell'intero, in interi dall'inizio della parte di interi.
+     * @return L'intero letto.
+     */
+    private int readInt(long index) {
+        long position = index * Integer.BYTES;
+        return this.segments[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & SEGMENT_MASK));
+    }
+
+    /**
+     * Legge un intero della parte di interi del file, controllando che sia compreso nell'intervallo dato.
+     *
+     * @param index La posizione dell'intero, in interi dall'inizio della parte di interi.
+     * @param min Il minimo valore ammesso.
+     * @param max Il valore che segue il massimo ammesso.
+     * @return L'intero letto.
+     * @throws IllegalArgumentException Se l'intero è fuori intervallo, ossia il file è danneggiato.
+     */
+    private int readChecked(long index, int min, int max) {
+        int value = this.readInt(index);
+        if (value < min || value >= max) {
+            throw new IllegalArgumentException(String.format(CORRUPTED_EXCEPTION, this.source));
+        }
+        return value;
+    }
+
+    /**
+     * Controlla che l'indice dato corrisponda ad un nodo dell'albero.
+     *
+     * @param node L'indice del nodo.
+     */
+    private void checkNode(int node) {
+        if (node < 0 || node >= this.nodeCount) {
+            throw new IllegalArgumentException(String.format(UNKNOWN_NODE_EXCEPTION, node));
+        }
+    }
+
+}
@@ -1,10 +1,24 @@
 package it.unibs.arnaldo.lezione5.intothewoods;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Classe che rappresenta un nodo di un albero.
+ * Gli id sono unici anche se i nodi vengono creati da più thread, ma la lista degli adiacenti non è sincronizzata:
+ * per aggiungere nodi e cercare etichette in parallelo si usa ConcurrentTree.
+ * Facoltativamente, ogni nodo con almeno un figlio può tenere un riassunto (vedere LabelSummary) delle etichette del
+ * proprio sottoalbero, aggiornato ad ogni aggiunta: la ricerca salta i sottoalberi che sicuramente non contengono
+ * l'etichetta cercata, al costo di summaryBits bit per ogni nodo interno.
+ * Le etichette sono memorizzate come identificativi interi di un LabelDictionary condiviso da tutti i nodi dello
+ * stesso albero (creato dalla radice): ogni etichetta distinta è salvata una volta sola, e la ricerca confronta
+ * interi dopo aver cercato una sola volta l'etichetta nel dizionario.
  *
  * @author Michele Dusi <michele.dusi.it@ieee.org>
  *
@@ -15,12 +29,25 @@ public class Node {
      * Probabilità che un nodo venga creato adiacentemente ad un nodo dato.
      * Nota: è importante che non valga mai 0, o la generazione casuale di alberi dà problemi.
      */
-    private static final double ADJACENCY_PERCENTAGE = 0.5;
+    static final double ADJACENCY_PERCENTAGE = 0.5;
 
-    private static long idCounter = 0;
+    private static final String ILLEGAL_SUMMARY_EXCEPTION = "Il numero di bit dei riassunti non può essere negativo: %d.";
+
+    private static final AtomicLong idCounter = new AtomicLong();
     private long id;
-    private String label;
+    private int labelId;
+    private LabelDictionary dictionary;
     private List<Node> adjacents;
+    private Node parent;
+    /**
+     * Numero di bit dei riassunti dei sottoalberi, ereditato dai discendenti: 0 se i riassunti non sono usati.
+     */
+    private int summaryBits;
+    /**
+     * Riassunto delle etichette del sottoalbero, nodo compreso: viene creato quando il nodo riceve il primo figlio,
+     * quindi le foglie non occupano memoria aggiuntiva.
+     */
+    private LabelSummary summary;
 
     /**
      * Costruttore.
@@ -28,34 +55,86 @@ public class Node {
      * @param _label L'etichetta del nuovo nodo
      */
     public Node(String _label) {
-        this.id = Node.idCounter++;
-        this.label = _label;
-        this.adjacents = new LinkedList<>();
+        this(_label, 0);
+    }
+
+    /**
+     * Costruttore di un nodo che tiene, per sé e per tutti i discendenti che gli verranno aggiunti, un riassunto delle
+     * etichette del sottoalbero.
+     *
+     * @param _label L'etichetta del nuovo nodo.
+     * @param summaryBits Il numero di bit di ciascun riassunto (vedere LabelSummary), oppure 0 per non usarli.
+     */
+    public Node(String _label, int summaryBits) {
+        this(new LabelDictionary(), _label, summaryBits);
+    }
+
+    /**
+     * Costruttore privato, usato per i nodi aggiunti ad un albero esistente.
+     *
+     * @param dictionary Il dizionario delle etichette dell'albero.
+     * @param _label L'etichetta del nuovo nodo.
+     * @param summaryBits Il numero di bit di ciascun riassunto, oppure 0 per non usarli.
+     */
+    private Node(LabelDictionary dictionary, String _label, int summaryBits) {
+        if (summaryBits < 0) {
+            throw new IllegalArgumentException(String.format(ILLEGAL_SUMMARY_EXCEPTION, summaryBits));
+        }
+        this.id = Node.idCounter.getAndIncrement();
+        this.dictionary = dictionary;
+        this.labelId = dictionary.intern(_label);
+        // ArrayList e non LinkedList: addNewRandomNode accede agli adiacenti per indice
+        this.adjacents = new ArrayList<>();
+        this.summaryBits = summaryBits;
     }
 
     /**
      * Aggiunge un nodo adiacente istanziando un nuovo oggetto Node.
+     * Se il nodo usa i riassunti, l'etichetta del nuovo nodo viene aggiunta a quelli di tutti gli antenati.
      *
      * @param new_label La stringa del nuovo nodo
+     * @return Il nodo aggiunto.
      */
-    public void addNewAdjacentNode(String new_label) {
-        this.adjacents.add(new Node(new_label));
+    public Node addNewAdjacentNode(String new_label) {
+        Node node = new Node(this.dictionary, new_label, this.summaryBits);
+        node.parent = this;
+        this.adjacents.add(node);
+        if (this.summaryBits > 0) {
+            long hash = LabelSummary.hash(new_label);
+            for (Node ancestor = this; ancestor != null; ancestor = ancestor.parent) {
+                if (ancestor.summary == null) {
+                    // il nodo era una foglia: il riassunto parte dalla sua etichetta
+                    ancestor.summary = new LabelSummary(this.summaryBits);
+                    ancestor.summary.add(ancestor.getLabel());
+                }
+                // il riassunto di ogni antenato comprende quelli dei discendenti (e l'etichetta di un nodo appena
+                // diventato interno era già stata aggiunta ai suoi antenati): se i bit ci sono già, ci sono anche
+                // in tutti i riassunti più in alto, e l'inserimento non costa più la profondità dell'albero
+                if (ancestor.summary.mightContain(hash)) {
+                    break;
+                }
+                ancestor.summary.add(hash);
+            }
+        }
+        return node;
     }
 
     /**
      * Metodo utilizzato per la generazione casuale di alberi.
      * Sulla base di una certa percentuale, decide se aggiungere un nuovo nodo
-     * come adiacente al nodo stesso, o se richiamare l'aggiunta casuale su un suo adiacente.
+     * come adiacente al nodo stesso, o se ripetere la scelta su un suo adiacente.
+     * La discesa è iterativa, quindi non dipende dalla profondità dell'albero.
      *
      * @param new_label L'etichetta del nodo casuale
+     * @return Il nodo aggiunto.
      */
-    public void addNewRandomNode(String new_label) {
-        if (this.adjacents.size() < 1 || Math.random() < ADJACENCY_PERCENTAGE) {
-            this.addNewAdjacentNode(new_label);
-        } else {
-            int randomAdjacentIndex = (int) (Math.random() * this.adjacents.size());
-            this.adjacents.get(randomAdjacentIndex).addNewRandomNode(new_label);
+    public Node addNewRandomNode(String new_label) {
+        Node node = this;
+        while (node.adjacents.size() >= 1 && Math.random() >= ADJACENCY_PERCENTAGE) {
+            int randomAdjacentIndex = (int) (Math.random() * node.adjacents.size());
+            node = node.adjacents.get(randomAdjacentIndex);
         }
+        return node.addNewAdjacentNode(new_label);
     }
 
     /**
@@ -64,7 +143,25 @@ public class Node {
      * @return L'etichetta del nodo.
      */
     public String getLabel() {
-        return this.label;
+        return this.dictionary.getLabel(this.labelId);
+    }
+
+    /**
+     * Restituisce l'identificativo dell'etichetta del nodo nel dizionario dell'albero (vedere getDictionary).
+     *
+     * @return L'identificativo dell'etichetta.
+     */
+    int getLabelId() {
+        return this.labelId;
+    }
+
+    /**
+     * Restituisce il dizionario delle etichette dell'albero a cui appartiene il nodo.
+     *
+     * @return Il dizionario.
+     */
+    LabelDictionary getDictionary() {
+        return this.dictionary;
     }
 
     /**
@@ -76,6 +173,15 @@ public class Node {
         return this.id;
     }
 
+    /**
+     * Restituisce il padre del nodo.
+     *
+     * @return Il padre, oppure null se il nodo non è stato aggiunto ad un altro nodo.
+     */
+    public Node getParent() {
+        return this.parent;
+    }
+
     /**
      * Restituisce il numero di nodi adiacenti a tale nodo.
      *
@@ -87,21 +193,79 @@ public class Node {
 
 
     /**
-     * Metodo ricorsivo aggiunto, che permette l'effettiva ricerca del label all'interno del nodo
+     * Restituisce la lista dei nodi adiacenti, per le conversioni in altre rappresentazioni (vedere CompactTree).
+     *
+     * @return La lista degli adiacenti.
+     */
+    List<Node> getAdjacents() {
+        return this.adjacents;
+    }
+
+    /**
+     * Metodo che permette l'effettiva ricerca del label all'interno del nodo e dei suoi discendenti.
+     * La visita in profondità usa una pila esplicita invece della ricorsione, così gli alberi molto profondi
+     * non esauriscono lo stack (per la ricerca parallela vedere TreeSearch).
+     * Se i nodi usano i riassunti, i sottoalberi che sicuramente non contengono l'etichetta non vengono visitati.
+     * Un'etichetta assente dal dizionario dell'albero non viene cercata affatto.
      * @param label L'etichetta da cercare
      * @return      True se il valore è trovato, false altrimenti
      */
     public boolean find(String label) {
-        // controllo prima l'etichetta del nodo stesso
-        if (this.label.equals(label)) return true;
-
-        // controllo tutti i nodi figli e, se trovo qualcosa in qualche figlio, restituisco true
-        for (Node child : this.adjacents) {
-            if (child.find(label)) return true;
+        int labelId = this.dictionary.getId(label);
+        if (labelId == LabelDictionary.ABSENT) return false;
+        long hash = this.summaryBits > 0 ? LabelSummary.hash(label) : 0;
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            // il riassunto comprende il nodo stesso, quindi si può saltare tutto il sottoalbero
+            if (node.summary != null && !node.summary.mightContain(hash)) continue;
+            // controllo prima l'etichetta del nodo stesso
+            if (node.labelId == labelId) return true;
+            // poi accodo i figli, che verranno controllati prima dei fratelli del nodo
+            for (Node child : node.adjacents) {
+                stack.push(child);
+            }
         }
 
         // se non ho trovato nulla, restituisco false
         return false;
     }
 
+    /**
+     * Cerca più etichette con una sola visita del nodo e dei suoi discendenti.
+     * Le etichette cercate vengono tradotte una volta sola negli identificativi del dizionario dell'albero, quindi il
+     * costo è proporzionale al numero di nodi più il numero di etichette, e non al loro prodotto. Le etichette assenti
+     * dal dizionario vengono scartate subito, e la visita termina appena tutte le altre sono state trovate.
+     *
+     * @param labels Le etichette da cercare (anche ripetute).
+     * @return L'insieme delle posizioni, nella lista, delle etichette trovate.
+     */
+    public BitSet findAll(List<String> labels) {
+        BitSet result = new BitSet(labels.size());
+        // ciascuna etichetta distinta è associata alle posizioni in cui compare nella lista
+        Map<Integer, List<Integer>> positions = new HashMap<>();
+        for (int i = 0; i < labels.size(); i++) {
+            int labelId = this.dictionary.getId(labels.get(i));
+            if (labelId != LabelDictionary.ABSENT) {
+                positions.computeIfAbsent(labelId, l -> new ArrayList<>()).add(i);
+            }
+        }
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty() && !positions.isEmpty()) {
+            Node node = stack.pop();
+            List<Integer> found = positions.remove(node.labelId);
+            if (found != null) {
+                for (int i : found) {
+                    result.set(i);
+                }
+            }
+            for (Node child : node.adjacents) {
+                stack.push(child);
+            }
+        }
+        return result;
+    }
+
 }
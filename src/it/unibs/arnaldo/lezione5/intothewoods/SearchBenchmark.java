@@ -0,0 +1,102 @@
+package it.unibs.arnaldo.lezione5.intothewoods;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Classe main che misura l'accelerazione della ricerca parallela (vedere TreeSearch) rispetto a quella sequenziale,
+ * su un albero casuale di nodi e sulla sua versione compatta.
+ * Vengono cercate un'etichetta assente (l'albero di nodi viene visitato tutto, mentre quello compatto risponde
+ * con il solo dizionario e non viene misurato) e un'etichetta presente in un solo nodo, aggiunto in un momento
+ * casuale della generazione (la ricerca termina appena un'attività lo trova), con pool di 1, 2, 4, ... thread fino al
+ * numero di processori disponibili.
+ * Il primo argomento, facoltativo, è il numero di nodi (10^7 se assente): per alberi così grandi serve una heap di
+ * almeno 2 GB (ad esempio -Xmx2g).
+ *
+ * @author Michele Dusi <michele.dusi.it@ieee.org>
+ *
+ */
+public final class SearchBenchmark {
+
+    private static final int DEFAULT_SIZE = 10_000_000;
+    private static final int LABELS = 1000;
+    private static final int REPEATS = 5;
+    private static final String ROOT_LABEL = "root";
+    private static final String LABEL_PREFIX = "label";
+    private static final String TARGET_LABEL = "target";
+    private static final String ABSENT_LABEL = "Etichetta che sicuramente non viene generata automaticamente.";
+    private static final String WRONG_RESULT_EXCEPTION = "La ricerca di \"%s\" ha dato un risultato errato.";
+    private static final String HEADER_FORMAT = "Albero casuale di %d nodi, %d processori disponibili\n\n";
+    private static final String ROW_HEADER = String.format("%-34s %-12s %8s %12s %14s",
+            "Ricerca", "Etichetta", "Thread", "Tempo (ms)", "Accelerazione");
+    private static final String ROW_FORMAT = "%-34s %-12s %8s %12.1f %13.2fx\n";
+
+    private SearchBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SIZE;
+        Node root = new Node(ROOT_LABEL);
+        int targetPosition = (int) (Math.random() * size);
+        for (int i = 0; i < size; i++) {
+            root.addNewRandomNode(i == targetPosition ? TARGET_LABEL : LABEL_PREFIX + (int) (Math.random() * LABELS));
+        }
+        CompactTree compact = CompactTree.fromNode(root);
+        int target = compact.find(TARGET_LABEL);
+
+        System.out.printf(HEADER_FORMAT, size, Runtime.getRuntime().availableProcessors());
+        System.out.println(ROW_HEADER);
+        for (String label : new String[] {ABSENT_LABEL, TARGET_LABEL}) {
+            boolean expected = label.equals(TARGET_LABEL);
+            String name = expected ? TARGET_LABEL : "assente";
+            double sequential = measure("Node.find", name, "1", 0, () -> root.find(label) == expected);
+            for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                measure("TreeSearch.find(Node)", name, String.valueOf(threads), sequential,
+                        () -> TreeSearch.find(root, label, pool) == expected);
+                pool.shutdown();
+            }
+            if (!expected) {
+                continue;
+            }
+            sequential = measure("CompactTree.find", name, "1", 0, () -> compact.find(label) == target);
+            for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                measure("TreeSearch.find(CompactTree)", name, String.valueOf(threads), sequential,
+                        () -> TreeSearch.find(compact, label, pool) == target);
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Esegue più volte una ricerca e ne stampa il tempo migliore.
+     *
+     * @param name Il nome della ricerca.
+     * @param label L'etichetta cercata (solo per la stampa).
+     * @param threads Il numero di thread (solo per la stampa).
+     * @param reference Il tempo della ricerca sequenziale in millisecondi, 0 se è questa.
+     * @param search La ricerca, che restituisce true se il risultato è corretto.
+     * @return Il tempo migliore in millisecondi.
+     */
+    private static double measure(String name, String label, String threads, double reference,
+                                  BooleanSupplier search) {
+        long best = Long.MAX_VALUE;
+        // la prima esecuzione fa da riscaldamento
+        for (int r = 0; r <= REPEATS; r++) {
+            long start = System.nanoTime();
+            boolean isCorrect = search.getAsBoolean();
+            long elapsed = System.nanoTime() - start;
+            if (!isCorrect) {
+                throw new IllegalStateException(String.format(WRONG_RESULT_EXCEPTION, label));
+            }
+            if (r > 0) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        double millis = best / 1e6;
+        System.out.printf(ROW_FORMAT, name, label, threads, millis, reference == 0 ? 1 : reference / millis);
+        return millis;
+    }
+
+}
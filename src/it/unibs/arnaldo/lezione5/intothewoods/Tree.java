@@ -1,6 +1,11 @@
 package it.unibs.arnaldo.lezione5.intothewoods;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Classe che rappresenta un albero di elementi, ossia un grafo aciclico non orientato e non pesato.
@@ -11,6 +16,11 @@ import java.util.List;
 public class Tree {
 
     private Node root;
+    /**
+     * Indice delle etichette: associa a ciascuna etichetta presente nell'albero gli id dei nodi che la portano.
+     * Viene aggiornato a ogni nodo aggiunto, così la ricerca di un'etichetta non richiede di visitare l'albero.
+     */
+    private Map<String, List<Long>> labelIndex;
     private static final String ROOT_LABEL = "root";
     private static final String NO_LABELS_EXCEPTION = "Non è possibile generare un albero casuale senza definire le etichette da utilizzare.";
     private static final String NOT_ENOUGH_NODES_EXCEPTION = "Non è possibile generare un albero poiché il numero di nodi richiesto non basta per utilizzare tutte le etichette.";
@@ -18,9 +28,13 @@ public class Tree {
     /**
      * Costruttore vuoto, privato.
      * Si limita ad istanziare un albero vuoto.
+     *
+     * @param summaryBits Il numero di bit dei riassunti dei sottoalberi, oppure 0 per non usarli.
      */
-    private Tree() {
-        this.root = new Node(ROOT_LABEL);
+    private Tree(int summaryBits) {
+        this.root = new Node(ROOT_LABEL, summaryBits);
+        this.labelIndex = new HashMap<>();
+        this.index(this.root);
     }
 
     /**
@@ -34,18 +48,31 @@ public class Tree {
      * @param labels La lista di etichette.
      */
     public Tree(int size, List<String> labels) {
-        this();
+        this(size, labels, 0);
+    }
+
+    /**
+     * Costruttore <b>CASUALE</b> come il precedente, i cui nodi tengono un riassunto delle etichette dei propri
+     * sottoalberi (vedere LabelSummary): la ricerca senza indice (find) salta i sottoalberi che sicuramente non
+     * contengono l'etichetta, al costo di summaryBits bit per ogni nodo con almeno un figlio.
+     *
+     * @param size La dimensione dell'albero.
+     * @param labels La lista di etichette.
+     * @param summaryBits Il numero di bit di ciascun riassunto, oppure 0 per non usarli.
+     */
+    public Tree(int size, List<String> labels, int summaryBits) {
+        this(summaryBits);
         if (labels == null || labels.isEmpty()) {
             throw new IllegalArgumentException(NO_LABELS_EXCEPTION);
         } else if (labels.size() > size) {
             throw new IllegalArgumentException(NOT_ENOUGH_NODES_EXCEPTION);
         } else {
             for (String l : labels) {
-                this.root.addNewRandomNode(l);
+                this.index(this.root.addNewRandomNode(l));
             }
             for (int i = 0; i < (size - labels.size()); i++) {
                 String random_label = labels.get((int) (Math.random() * labels.size()));
-                this.root.addNewRandomNode(random_label);
+                this.index(this.root.addNewRandomNode(random_label));
             }
         }
     }
@@ -59,8 +86,67 @@ public class Tree {
      */
     public boolean containsLabel(String label) {
 //////////////////////////////////////////////////////////////////////////
-        return this.root.find(label);
+        return this.labelIndex.containsKey(label);
 //////////////////////////////////////////////////////////////////////////
     }
 
+    /**
+     * Cerca la label visitando l'albero a partire dalla radice, senza usare l'indice (vedere Node.find).
+     *
+     * @param label L'etichetta da cercare.
+     * @return true se esiste almeno un nodo con l'etichetta data.
+     */
+    public boolean find(String label) {
+        return this.root.find(label);
+    }
+
+    /**
+     * Verifica quali etichette di una lista sono presenti nell'albero, con una sola interrogazione dell'indice per
+     * ciascuna (per una visita senza indice vedere Node.findAll).
+     *
+     * @param labels Le etichette da cercare.
+     * @return L'insieme delle posizioni, nella lista, delle etichette presenti nell'albero.
+     */
+    public BitSet containsAll(List<String> labels) {
+        BitSet result = new BitSet(labels.size());
+        for (int i = 0; i < labels.size(); i++) {
+            if (this.labelIndex.containsKey(labels.get(i))) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Converte l'albero nella rappresentazione compatta CompactTree, adatta agli alberi molto grandi.
+     *
+     * @return L'albero compatto equivalente.
+     */
+    public CompactTree toCompactTree() {
+        return CompactTree.fromNode(this.root);
+    }
+
+    /**
+     * Restituisce gli id dei nodi con l'etichetta specificata, nell'ordine in cui sono stati aggiunti all'albero.
+     *
+     * @param label L'etichetta da cercare.
+     * @return La lista (non modificabile) degli id, vuota se nessun nodo ha l'etichetta data.
+     */
+    public List<Long> getNodeIds(String label) {
+        List<Long> ids = this.labelIndex.get(label);
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(ids);
+    }
+
+    /**
+     * Aggiunge un nodo appena inserito nell'albero all'indice delle etichette.
+     *
+     * @param node Il nodo aggiunto.
+     */
+    private void index(Node node) {
+        this.labelIndex.computeIfAbsent(node.getLabel(), l -> new ArrayList<>()).add(node.getId());
+    }
+
 }
@@ -0,0 +1,252 @@
+package it.unibs.arnaldo.lezione5.intothewoods;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Classe che genera alberi casuali molto grandi direttamente in forma compatta (vedere CompactTree), in modo
+ * riproducibile: ogni oggetto usa un SplittableRandom inizializzato con un seme dato, e con lo stesso seme, le stesse
+ * etichette e la stessa forma viene generato sempre lo stesso albero.
+ * Come nel costruttore casuale di Tree, tutte le etichette della lista vengono utilizzate e la radice non viene
+ * contata nella dimensione. La forma dell'albero dipende da Shape:
+ * - RANDOM_DESCENT riproduce la distribuzione di Tree, scendendo dalla radice ad ogni inserimento. Ogni inserimento
+ *   dipende dai precedenti, quindi la generazione è necessariamente sequenziale;
+ * - UNIFORM_PARENT sceglie il padre di ciascun nodo a caso tra i nodi precedenti, senza discese: i padri sono
+ *   indipendenti tra loro, quindi possono essere generati in parallelo, a blocchi.
+ * <b>Nota:</b> un oggetto di questa classe non è thread-safe.
+ *
+ * @author Michele Dusi <michele.dusi.it@ieee.org>
+ *
+ */
+public final class TreeGenerator {
+
+    /**
+     * Forma degli alberi generati.
+     */
+    public enum Shape {
+        /**
+         * Stessa distribuzione di Node.addNewRandomNode: ad ogni passo della discesa dalla radice il nodo viene
+         * aggiunto al nodo corrente con probabilità 1/2, altrimenti si scende in un figlio scelto a caso.
+         */
+        RANDOM_DESCENT,
+        /**
+         * Albero ricorsivo casuale: il padre di ciascun nodo è scelto con probabilità uniforme tra i nodi precedenti.
+         */
+        UNIFORM_PARENT
+    }
+
+    private static final String ROOT_LABEL = "root";
+    private static final String NO_LABELS_EXCEPTION = "Non è possibile generare un albero casuale senza definire le etichette da utilizzare.";
+    private static final String NOT_ENOUGH_NODES_EXCEPTION = "Non è possibile generare un albero poiché il numero di nodi richiesto non basta per utilizzare tutte le etichette.";
+    private static final String TOO_MANY_NODES_EXCEPTION = "Non è possibile generare un albero di %d nodi: il massimo è %d.";
+    /**
+     * Numero di nodi generati da ciascuna attività nella generazione parallela.
+     */
+    private static final int BULK_CHUNK = 1 << 16;
+    /**
+     * Massima dimensione di un albero compatto (più la radice e meno qualche elemento riservato dalla JVM).
+     */
+    private static final int MAX_SIZE = Integer.MAX_VALUE - 9;
+
+    private final long seed;
+    private SplittableRandom random;
+    private Shape shape;
+
+    /**
+     * Costruttore, con un seme casuale e la forma RANDOM_DESCENT.
+     */
+    public TreeGenerator() {
+        this(new SplittableRandom().nextLong());
+    }
+
+    /**
+     * Costruttore con seme dato e la forma RANDOM_DESCENT.
+     *
+     * @param seed Il seme del generatore di numeri casuali.
+     */
+    public TreeGenerator(long seed) {
+        this.seed = seed;
+        this.random = new SplittableRandom(seed);
+        this.shape = Shape.RANDOM_DESCENT;
+    }
+
+    /**
+     * Setter della forma degli alberi generati.
+     *
+     * @param shape La forma.
+     */
+    public void setShape(Shape shape) {
+        this.shape = shape;
+    }
+
+    /**
+     * Getter della forma degli alberi generati.
+     *
+     * @return La forma.
+     */
+    public Shape getShape() {
+        return this.shape;
+    }
+
+    /**
+     * Getter del seme.
+     *
+     * @return Il seme del generatore di numeri casuali.
+     */
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Genera un albero casuale in un solo thread.
+     *
+     * @param size La dimensione dell'albero, radice esclusa.
+     * @param labels La lista di etichette.
+     * @return L'albero generato.
+     */
+    public CompactTree generate(int size, List<String> labels) {
+        return this.generate(size, labels, null);
+    }
+
+    /**
+     * Genera un albero casuale usando il pool comune. Con la forma UNIFORM_PARENT il risultato è lo stesso di generate
+     * (a parità di seme e di alberi già generati); con RANDOM_DESCENT la generazione resta sequenziale.
+     *
+     * @param size La dimensione dell'albero, radice esclusa.
+     * @param labels La lista di etichette.
+     * @return L'albero generato.
+     */
+    public CompactTree generateParallel(int size, List<String> labels) {
+        return this.generate(size, labels, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Genera un albero casuale usando il pool dato (vedere generateParallel).
+     *
+     * @param size La dimensione dell'albero, radice esclusa.
+     * @param labels La lista di etichette.
+     * @param pool Il pool su cui eseguire la generazione.
+     * @return L'albero generato.
+     */
+    public CompactTree generateParallel(int size, List<String> labels, ForkJoinPool pool) {
+        return this.generate(size, labels, pool);
+    }
+
+    /**
+     * Metodo d'appoggio che controlla i parametri e genera l'albero della forma scelta.
+     *
+     * @param pool Il pool su cui eseguire la generazione, null per generare nel thread corrente.
+     */
+    private CompactTree generate(int size, List<String> labels, ForkJoinPool pool) {
+        if (labels == null || labels.isEmpty()) {
+            throw new IllegalArgumentException(NO_LABELS_EXCEPTION);
+        } else if (labels.size() > size) {
+            throw new IllegalArgumentException(NOT_ENOUGH_NODES_EXCEPTION);
+        } else if (size > MAX_SIZE) {
+            throw new IllegalArgumentException(String.format(TOO_MANY_NODES_EXCEPTION, size, MAX_SIZE));
+        }
+        if (this.shape == Shape.RANDOM_DESCENT) {
+            return this.generateDescent(size, labels);
+        }
+        return this.generateUniform(size, labels, pool);
+    }
+
+    /**
+     * Genera un albero con la forma RANDOM_DESCENT, tramite un CompactTree.Builder.
+     */
+    private CompactTree generateDescent(int size, List<String> labels) {
+        CompactTree.Builder builder = new CompactTree.Builder(size + 1);
+        int[] ids = new int[labels.size()];
+        for (int l = 0; l < ids.length; l++) {
+            ids[l] = builder.intern(labels.get(l));
+        }
+        for (int l = 0; l < ids.length; l++) {
+            builder.addRandomNode(ids[l], this.random);
+        }
+        for (int i = ids.length; i < size; i++) {
+            builder.addRandomNode(ids[this.random.nextInt(ids.length)], this.random);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Genera un albero con la forma UNIFORM_PARENT: i padri e le etichette vengono generati a blocchi, ciascuno con
+     * un proprio generatore ottenuto da quello dell'oggetto, e poi l'albero viene costruito a partire dai padri.
+     */
+    private CompactTree generateUniform(int size, List<String> labels, ForkJoinPool pool) {
+        LabelDictionary dictionary = new LabelDictionary();
+        dictionary.intern(ROOT_LABEL);
+        int[] ids = new int[labels.size()];
+        for (int l = 0; l < ids.length; l++) {
+            ids[l] = dictionary.intern(labels.get(l));
+        }
+
+        int n = size + 1;
+        int[] parents = new int[n];
+        int[] nodeLabels = new int[n];
+        parents[CompactTree.ROOT] = CompactTree.NONE;
+        nodeLabels[CompactTree.ROOT] = dictionary.getId(ROOT_LABEL);
+        // i generatori dei blocchi vengono creati in ordine, così il risultato non dipende dal numero di thread
+        int chunks = (n + BULK_CHUNK - 1) / BULK_CHUNK;
+        SplittableRandom[] randoms = new SplittableRandom[chunks];
+        for (int c = 0; c < chunks; c++) {
+            randoms[c] = this.random.split();
+        }
+        if (pool == null) {
+            // fuori da un pool, invokeAll userebbe il pool comune: i blocchi vengono generati uno alla volta
+            for (int c = 0; c < chunks; c++) {
+                new UniformTask(parents, nodeLabels, ids, randoms, c, c + 1).compute();
+            }
+        } else {
+            pool.invoke(new UniformTask(parents, nodeLabels, ids, randoms, 0, chunks));
+        }
+        return CompactTree.fromParents(dictionary, parents, nodeLabels);
+    }
+
+    /**
+     * Attività che genera i padri e le etichette di un intervallo di blocchi.
+     */
+    private static final class UniformTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] parents;
+        private final int[] labels;
+        private final int[] ids;
+        private final SplittableRandom[] randoms;
+        private final int fromChunk;
+        private final int toChunk;
+
+        UniformTask(int[] parents, int[] labels, int[] ids, SplittableRandom[] randoms, int fromChunk, int toChunk) {
+            this.parents = parents;
+            this.labels = labels;
+            this.ids = ids;
+            this.randoms = randoms;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.toChunk - this.fromChunk > 1) {
+                int middle = (this.fromChunk + this.toChunk) >>> 1;
+                invokeAll(new UniformTask(this.parents, this.labels, this.ids, this.randoms, this.fromChunk, middle),
+                        new UniformTask(this.parents, this.labels, this.ids, this.randoms, middle, this.toChunk));
+                return;
+            }
+            SplittableRandom random = this.randoms[this.fromChunk];
+            int from = Math.max(1, this.fromChunk * BULK_CHUNK);
+            int to = Math.min(this.parents.length, (this.fromChunk + 1) * BULK_CHUNK);
+            for (int node = from; node < to; node++) {
+                this.parents[node] = random.nextInt(node);
+                // i primi nodi usano ciascuno una delle etichette, così sono tutte presenti
+                this.labels[node] = node <= this.ids.length ? this.ids[node - 1]
+                        : this.ids[random.nextInt(this.ids.length)];
+            }
+        }
+
+    }
+
+}
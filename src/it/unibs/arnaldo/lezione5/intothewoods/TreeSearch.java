@@ -0,0 +1,216 @@
+package it.unibs.arnaldo.lezione5.intothewoods;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Classe che cerca un'etichetta in un albero sfruttando tutti i processori, tramite un ForkJoinPool.
+ * Per gli alberi di nodi, la ricerca è una visita in profondità con pila esplicita che, quando incontra un nodo con
+ * molti figli, divide i figli tra più sotto-attività; per gli alberi compatti, l'array delle etichette viene diviso
+ * in blocchi di dimensione fissa.
+ * In entrambi i casi le attività controllano periodicamente se l'etichetta è già stata trovata, e in quel caso
+ * terminano subito.
+ *
+ * @author Michele Dusi <michele.dusi.it@ieee.org>
+ *
+ */
+public final class TreeSearch {
+
+    /**
+     * Numero minimo di figli perché un nodo venga diviso tra più attività.
+     */
+    private static final int WIDE_NODE = 1024;
+    /**
+     * Numero di nodi visitati tra un controllo e l'altro della terminazione anticipata.
+     */
+    private static final int CHECK_INTERVAL = 1024;
+    /**
+     * Dimensione dei blocchi in cui viene diviso un albero compatto.
+     */
+    private static final int COMPACT_CHUNK = 1 << 16;
+
+    private TreeSearch() {
+    }
+
+    /**
+     * Verifica in parallelo, con il pool comune, se un nodo o un suo discendente ha l'etichetta data.
+     *
+     * @param root Il nodo da cui iniziare la ricerca.
+     * @param label L'etichetta da cercare.
+     * @return true se esiste almeno un nodo con l'etichetta data.
+     */
+    public static boolean find(Node root, String label) {
+        return find(root, label, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Verifica in parallelo se un nodo o un suo discendente ha l'etichetta data.
+     *
+     * @param root Il nodo da cui iniziare la ricerca.
+     * @param label L'etichetta da cercare.
+     * @param pool Il pool su cui eseguire la ricerca.
+     * @return true se esiste almeno un nodo con l'etichetta data.
+     */
+    public static boolean find(Node root, String label, ForkJoinPool pool) {
+        // le etichette vengono confrontate tramite il dizionario dell'albero, come in Node.find
+        int labelId = root.getDictionary().getId(label);
+        if (labelId == LabelDictionary.ABSENT) {
+            return false;
+        }
+        if (root.getLabelId() == labelId) {
+            return true;
+        }
+        AtomicBoolean found = new AtomicBoolean();
+        pool.invoke(new NodeTask(root, 0, root.getNumberOfAdjacents(), labelId, found));
+        return found.get();
+    }
+
+    /**
+     * Cerca in parallelo, con il pool comune, il primo nodo in ordine di ampiezza con l'etichetta data.
+     *
+     * @param tree L'albero compatto.
+     * @param label L'etichetta da cercare.
+     * @return L'indice del nodo trovato (lo stesso di CompactTree.find), oppure CompactTree.NONE.
+     */
+    public static int find(CompactTree tree, String label) {
+        return find(tree, label, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Cerca in parallelo il primo nodo in ordine di ampiezza con l'etichetta data.
+     * I blocchi che seguono un nodo già trovato vengono abbandonati, quelli che lo precedono vengono completati:
+     * il risultato è quindi lo stesso della ricerca sequenziale.
+     *
+     * @param tree L'albero compatto.
+     * @param label L'etichetta da cercare.
+     * @param pool Il pool su cui eseguire la ricerca.
+     * @return L'indice del nodo trovato (lo stesso di CompactTree.find), oppure CompactTree.NONE.
+     */
+    public static int find(CompactTree tree, String label, ForkJoinPool pool) {
+        int id = tree.getDictionary().getId(label);
+        if (id == LabelDictionary.ABSENT) {
+            return CompactTree.NONE;
+        }
+        AtomicInteger first = new AtomicInteger(Integer.MAX_VALUE);
+        pool.invoke(new CompactTask(tree, 0, tree.getNodeCount(), id, first));
+        int node = first.get();
+        return node == Integer.MAX_VALUE ? CompactTree.NONE : node;
+    }
+
+    /**
+     * Attività che visita i sottoalberi di un intervallo di figli di un nodo.
+     */
+    private static final class NodeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node parent;
+        private final int from;
+        private final int to;
+        private final int labelId;
+        private final AtomicBoolean found;
+
+        NodeTask(Node parent, int from, int to, int labelId, AtomicBoolean found) {
+            this.parent = parent;
+            this.from = from;
+            this.to = to;
+            this.labelId = labelId;
+            this.found = found;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.found.get()) {
+                return;
+            }
+            List<Node> adjacents = this.parent.getAdjacents();
+            // un intervallo ampio viene diviso a metà finché non diventa abbastanza piccolo
+            if (this.to - this.from > WIDE_NODE) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new NodeTask(this.parent, this.from, middle, this.labelId, this.found),
+                        new NodeTask(this.parent, middle, this.to, this.labelId, this.found));
+                return;
+            }
+
+            List<NodeTask> forked = new ArrayList<>();
+            Deque<Node> stack = new ArrayDeque<>();
+            for (int i = this.from; i < this.to; i++) {
+                stack.push(adjacents.get(i));
+            }
+            int visited = 0;
+            while (!stack.isEmpty()) {
+                if (++visited % CHECK_INTERVAL == 0 && this.found.get()) {
+                    break;
+                }
+                Node node = stack.pop();
+                if (node.getLabelId() == this.labelId) {
+                    this.found.set(true);
+                    break;
+                }
+                int children = node.getNumberOfAdjacents();
+                if (children > WIDE_NODE) {
+                    // i sottoalberi di un nodo con molti figli vengono lasciati ad un'altra attività
+                    NodeTask task = new NodeTask(node, 0, children, this.labelId, this.found);
+                    task.fork();
+                    forked.add(task);
+                } else {
+                    for (Node child : node.getAdjacents()) {
+                        stack.push(child);
+                    }
+                }
+            }
+            for (NodeTask task : forked) {
+                task.join();
+            }
+        }
+
+    }
+
+    /**
+     * Attività che scorre un intervallo di nodi di un albero compatto.
+     */
+    private static final class CompactTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CompactTree tree;
+        private final int from;
+        private final int to;
+        private final int id;
+        private final AtomicInteger first;
+
+        CompactTask(CompactTree tree, int from, int to, int id, AtomicInteger first) {
+            this.tree = tree;
+            this.from = from;
+            this.to = to;
+            this.id = id;
+            this.first = first;
+        }
+
+        @Override
+        protected void compute() {
+            // un blocco successivo al primo nodo già trovato non può migliorare il risultato
+            if (this.from >= this.first.get()) {
+                return;
+            }
+            if (this.to - this.from > COMPACT_CHUNK) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new CompactTask(this.tree, this.from, middle, this.id, this.first),
+                        new CompactTask(this.tree, middle, this.to, this.id, this.first));
+                return;
+            }
+            int node = this.tree.findLabelId(this.id, this.from, this.to);
+            if (node != CompactTree.NONE) {
+                this.first.accumulateAndGet(node, Math::min);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,125 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Enumerazione delle operazioni aritmetiche di base. A differenza di un'operazione qualsiasi (una lambda), di queste
+ * si conosce il significato, quindi oltre al calcolo in double possono essere calcolate anche in modo esatto (con i
+ * numeri razionali, vedere Rational) o con precisione arbitraria (con i BigDecimal).
+ * Un operatore creato con una di queste operazioni (vedere il costruttore di Operator) può quindi essere usato da
+ * Tree.calculateExact e Tree.calculate(MathContext).
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public enum Arithmetic implements Operation {
+    ADD {
+        @Override
+        public double calcValue(double l, double r) {
+            return l + r;
+        }
+
+        @Override
+        public Rational calcValue(Rational l, Rational r) {
+            return l.add(r);
+        }
+
+        @Override
+        public BigDecimal calcValue(BigDecimal l, BigDecimal r, MathContext mc) {
+            return l.add(r, mc);
+        }
+    },
+    SUBTRACT {
+        @Override
+        public double calcValue(double l, double r) {
+            return l - r;
+        }
+
+        @Override
+        public Rational calcValue(Rational l, Rational r) {
+            return l.subtract(r);
+        }
+
+        @Override
+        public BigDecimal calcValue(BigDecimal l, BigDecimal r, MathContext mc) {
+            return l.subtract(r, mc);
+        }
+    },
+    MULTIPLY {
+        @Override
+        public double calcValue(double l, double r) {
+            return l * r;
+        }
+
+        @Override
+        public Rational calcValue(Rational l, Rational r) {
+            return l.multiply(r);
+        }
+
+        @Override
+        public BigDecimal calcValue(BigDecimal l, BigDecimal r, MathContext mc) {
+            return l.multiply(r, mc);
+        }
+    },
+    DIVIDE {
+        @Override
+        public double calcValue(double l, double r) {
+            return l / r;
+        }
+
+        @Override
+        public Rational calcValue(Rational l, Rational r) {
+            return l.divide(r);
+        }
+
+        @Override
+        public BigDecimal calcValue(BigDecimal l, BigDecimal r, MathContext mc) {
+            return l.divide(r, mc);
+        }
+    },
+    POWER {
+        @Override
+        public double calcValue(double l, double r) {
+            return Math.pow(l, r);
+        }
+
+        @Override
+        public Rational calcValue(Rational l, Rational r) {
+            return l.pow(r);
+        }
+
+        @Override
+        public BigDecimal calcValue(BigDecimal l, BigDecimal r, MathContext mc) {
+            int n;
+            try {
+                n = r.intValueExact();
+            } catch (ArithmeticException e) {
+                throw new ArithmeticException(String.format(NON_INTEGER_EXPONENT, r));
+            }
+            return l.pow(n, mc);
+        }
+    };
+
+    private static final String NON_INTEGER_EXPONENT = "Non-integer or too large exponent: %s";
+
+    /**
+     * Metodo che calcola il risultato esatto dell'operazione
+     * @param l Il primo parametro
+     * @param r Il secondo parametro
+     * @return Il risultato
+     * @throws ArithmeticException Se il risultato non è un numero razionale (divisione per zero, potenza con
+     *                             esponente non intero)
+     */
+    public abstract Rational calcValue(Rational l, Rational r) throws ArithmeticException;
+
+    /**
+     * Metodo che calcola il risultato dell'operazione con la precisione data
+     * @param l Il primo parametro
+     * @param r Il secondo parametro
+     * @param mc La precisione e il tipo di arrotondamento
+     * @return Il risultato
+     * @throws ArithmeticException Se il risultato non è definito (divisione per zero, potenza con esponente non
+     *                             intero) o non è rappresentabile esattamente con MathContext.UNLIMITED
+     */
+    public abstract BigDecimal calcValue(BigDecimal l, BigDecimal r, MathContext mc) throws ArithmeticException;
+}
@@ -0,0 +1,487 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Classe che rappresenta un albero binario di un'espressione matematica in forma compatta: invece di un oggetto per
+ * ciascun nodo, l'albero è memorizzato in quattro array paralleli di tipi primitivi (codice operativo, indice del
+ * figlio sinistro, indice del figlio destro e valore della costante).
+ * I nodi sono salvati in ordine posticipato (post-ordine): i figli precedono sempre il padre, quindi la radice è
+ * l'ultimo nodo e il calcolo del risultato è un semplice ciclo sugli array, senza ricorsione.
+ * Il codice operativo di un nodo operatore è la posizione dell'operatore nella OperatorTable, mentre le costanti
+ * hanno codice CONST.
+ * Rispetto a Tree, il testo originale delle costanti non viene conservato: le costanti vengono riscritte a partire
+ * dal loro valore (es: "3.50" diventa "3.5"), e le costanti non valide vengono segnalate già durante il parsing.
+ * <b>Nota:</b> il calcolo del risultato riutilizza gli array dell'albero, quindi un oggetto CompactTree non può
+ * essere utilizzato da più thread contemporaneamente.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public class CompactTree {
+    public static final int CONST = -1;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int INITIAL_STACK = 32;
+    private static final double CONST_NODE_PERCENTAGE = 0.5;
+    private static final int MINRANDOM = 0;
+    private static final int MAXRANDOM = 100;
+    private static final String ILLEGAL_CHILD = "Illegal child index %d for node %d";
+    private static final String UNSUPPORTED_NODE = "Unsupported node type: %s";
+    private static final String EMPTY_TREE = "The expression tree is empty";
+
+    private OperatorTable opers;
+    private int size;
+    private int[] opcodes;
+    private int[] left;
+    private int[] right;
+    // valore delle costanti; per i nodi operatore contiene l'ultimo risultato calcolato
+    private double[] values;
+
+    /**
+     * Costruttore
+     * @param opers La tabella degli operatori
+     */
+    public CompactTree(OperatorTable opers) {
+        this(opers, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Costruttore con una capacità iniziale data (utile se si conosce in anticipo il numero di nodi)
+     * @param opers La tabella degli operatori
+     * @param capacity Il numero di nodi per cui riservare spazio
+     */
+    public CompactTree(OperatorTable opers, int capacity) {
+        this.opers = opers;
+        capacity = Math.max(capacity, 1);
+        this.opcodes = new int[capacity];
+        this.left = new int[capacity];
+        this.right = new int[capacity];
+        this.values = new double[capacity];
+    }
+
+    /**
+     * Metodo statico che converte un albero di nodi nella forma compatta. I sottoalberi condivisi (ad esempio dopo
+     * un'ottimizzazione con TreeOptimizer) vengono memorizzati una volta sola
+     * @param root La radice dell'albero da convertire
+     * @param opers La tabella degli operatori
+     * @return L'albero compatto equivalente
+     * @throws IllegalArgumentException Se l'albero contiene costanti non valide
+     */
+    public static CompactTree fromNode(Node root, OperatorTable opers) throws IllegalArgumentException {
+        CompactTree out = new CompactTree(opers);
+        // associa ciascun nodo già convertito alla sua posizione negli array
+        IdentityHashMap<Node, Integer> indexes = new IdentityHashMap<>();
+
+        // visita iterativa in post-ordine, così i figli vengono inseriti prima del padre
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.peek();
+            if (indexes.containsKey(node)) {
+                stack.pop();
+                continue;
+            }
+
+            if (node instanceof OperatorNode) {
+                OperatorNode operNode = (OperatorNode) node;
+                Integer l = indexes.get(operNode.getLeftChild());
+                Integer r = indexes.get(operNode.getRightChild());
+                if (l == null || r == null) {
+                    // il figlio sinistro va in cima alla pila, così viene inserito per primo
+                    if (r == null) stack.push(operNode.getRightChild());
+                    if (l == null) stack.push(operNode.getLeftChild());
+                    continue;
+                }
+                stack.pop();
+                indexes.put(node, out.addOperator(opers.indexOf(operNode.getOperator()), l, r));
+            } else if (node instanceof ConstNode) {
+                stack.pop();
+                indexes.put(node, out.addConst(node.calcValue()));
+            } else {
+                throw new IllegalArgumentException(String.format(UNSUPPORTED_NODE, node.getClass().getSimpleName()));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Metodo che genera l'albero a partire da una data espressione matematica, sostituendo il contenuto attuale.
+     * Il parsing è iterativo e scrive direttamente negli array (vedere IterativeParser)
+     * @param s Una String contenente l'espressione matematica
+     * @throws IllegalArgumentException Se ci sono problemi di formattazione della stringa o delle costanti
+     */
+    public void parseExpression(String s) throws IllegalArgumentException {
+        CompactTree parsed = IterativeParser.parseCompact(s, this.opers);
+        this.size = parsed.size;
+        this.opcodes = parsed.opcodes;
+        this.left = parsed.left;
+        this.right = parsed.right;
+        this.values = parsed.values;
+    }
+
+    /**
+     * Metodo che genera casualmente un albero di massima profondità data, sostituendo il contenuto attuale.
+     * La distribuzione degli alberi generati è la stessa di Tree.randomize; la generazione usa una pila esplicita,
+     * quindi non ci sono limiti alla profondità dell'albero
+     * @param maxDepth La profondità massima dell'albero
+     */
+    public void randomize(int maxDepth) {
+        this.clear();
+        // pila degli operatori in costruzione: profondità massima del sottoalbero e posizione del figlio sinistro
+        // (-1 finché non è stato generato)
+        int[] depths = new int[INITIAL_STACK];
+        int[] lefts = new int[INITIAL_STACK];
+        int top = 0;
+        // la radice è sempre un operatore
+        depths[top] = maxDepth;
+        lefts[top++] = -1;
+        while (top > 0) {
+            // genero il prossimo figlio dell'operatore in cima: una costante, oppure un nuovo operatore da completare
+            int childDepth = depths[top - 1] - 1;
+            if (childDepth > 1 && Math.random() >= CONST_NODE_PERCENTAGE) {
+                if (top == depths.length) {
+                    depths = Arrays.copyOf(depths, top * 2);
+                    lefts = Arrays.copyOf(lefts, top * 2);
+                }
+                depths[top] = childDepth;
+                lefts[top++] = -1;
+                continue;
+            }
+            int child = this.addConst((int) (Math.random() * (MAXRANDOM - MINRANDOM)) + MINRANDOM);
+
+            // un figlio destro completa il suo operatore, che diventa a sua volta il figlio di quello sottostante
+            while (top > 0 && lefts[top - 1] >= 0) {
+                int opcode = (int) (Math.random() * this.opers.size());
+                child = this.addOperator(opcode, lefts[--top], child);
+            }
+            if (top > 0)
+                lefts[top - 1] = child;
+        }
+    }
+
+    /**
+     * Svuota l'albero, mantenendo lo spazio già riservato (utile per riutilizzare lo stesso oggetto)
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * Aggiunge una costante in coda all'albero
+     * @param value Il valore della costante
+     * @return La posizione del nuovo nodo
+     */
+    public int addConst(double value) {
+        int index = this.reserve();
+        this.opcodes[index] = CONST;
+        this.left[index] = -1;
+        this.right[index] = -1;
+        this.values[index] = value;
+        return index;
+    }
+
+    /**
+     * Aggiunge un nodo operatore in coda all'albero. I figli devono essere già stati inseriti
+     * @param opcode La posizione dell'operatore nella tabella
+     * @param l La posizione del figlio sinistro
+     * @param r La posizione del figlio destro
+     * @return La posizione del nuovo nodo
+     * @throws IllegalArgumentException Se i figli non sono nodi già presenti
+     */
+    public int addOperator(int opcode, int l, int r) throws IllegalArgumentException {
+        if (l < 0 || l >= this.size)
+            throw new IllegalArgumentException(String.format(ILLEGAL_CHILD, l, this.size));
+        if (r < 0 || r >= this.size)
+            throw new IllegalArgumentException(String.format(ILLEGAL_CHILD, r, this.size));
+
+        int index = this.reserve();
+        this.opcodes[index] = opcode;
+        this.left[index] = l;
+        this.right[index] = r;
+        return index;
+    }
+
+    /**
+     * Metodo d'appoggio che riserva la posizione per un nuovo nodo, ingrandendo gli array se necessario
+     * @return La posizione riservata
+     */
+    private int reserve() {
+        if (this.size == this.opcodes.length) {
+            int capacity = this.opcodes.length * 2;
+            this.opcodes = Arrays.copyOf(this.opcodes, capacity);
+            this.left = Arrays.copyOf(this.left, capacity);
+            this.right = Arrays.copyOf(this.right, capacity);
+            this.values = Arrays.copyOf(this.values, capacity);
+        }
+        return this.size++;
+    }
+
+    /**
+     * Metodo che restituisce il valore computato dell'albero. Poiché i figli precedono sempre il padre, basta un
+     * unico ciclo sugli array
+     * @return Il risultato dell'operazione
+     * @throws IllegalStateException Se l'albero è vuoto
+     */
+    public double calculate() throws IllegalStateException {
+        Operation[] operations = this.operations();
+        for (int i = 0; i < this.size; i++) {
+            int opcode = this.opcodes[i];
+            if (opcode != CONST)
+                this.values[i] = operations[opcode].calcValue(this.values[this.left[i]], this.values[this.right[i]]);
+        }
+        return this.values[this.getRoot()];
+    }
+
+    /**
+     * Metodo che crea una copia immutabile di questo albero, pronta per essere calcolata da più thread
+     * contemporaneamente (vedere CompiledExpression)
+     * @return L'espressione compilata
+     * @throws IllegalStateException Se l'albero è vuoto
+     */
+    public CompiledExpression compile() throws IllegalStateException {
+        if (this.size == 0)
+            throw new IllegalStateException(EMPTY_TREE);
+        return new CompiledExpression(this.opcodes, this.left, this.right, this.values, this.size, this.operations());
+    }
+
+    /**
+     * Metodo d'appoggio che copia le operazioni della tabella in un array, per evitare accessi ripetuti alla lista
+     * @return Le operazioni, indicizzate per codice operativo
+     */
+    Operation[] operations() {
+        Operation[] operations = new Operation[this.opers.size()];
+        for (int i = 0; i < operations.length; i++) {
+            operations[i] = this.opers.get(i).getOperation();
+        }
+        return operations;
+    }
+
+    /**
+     * Metodo che restituisce la rappresentazione sotto forma di espressione dell'albero, con tutte le
+     * parentesi, anche se non sono strettamente necessarie (stesso formato di Tree.parenthesize)
+     * @return Una String contenente l'espressione con le parentesi
+     */
+    public String parenthesize() {
+        StringBuilder out = new StringBuilder();
+        try {
+            this.parenthesize(out);
+        } catch (IOException e) {
+            // uno StringBuilder non genera mai errori di scrittura
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Metodo che scrive l'espressione con tutte le parentesi sulla destinazione data, in una sola passata
+     * @param out La destinazione su cui scrivere (ad esempio uno StringBuilder o un Writer)
+     * @throws IOException Se ci sono errori di scrittura
+     * @throws IllegalStateException Se l'albero è vuoto
+     */
+    public void parenthesize(Appendable out) throws IOException, IllegalStateException {
+        // pila esplicita dei nodi da scrivere, con lo stato di ciascuno (0: figlio sinistro, 1: destro, 2: fine)
+        int[] nodes = new int[INITIAL_STACK];
+        byte[] states = new byte[INITIAL_STACK];
+        int top = 0;
+        nodes[top] = this.getRoot();
+        states[top++] = 0;
+        while (top > 0) {
+            int node = nodes[top - 1];
+            if (this.opcodes[node] == CONST) {
+                out.append(ConstNode.format(this.values[node]));
+                top--;
+                continue;
+            }
+
+            byte state = states[top - 1]++;
+            int child;
+            if (state == 0) {
+                out.append('[');
+                child = this.left[node];
+            } else if (state == 1) {
+                out.append(' ').append(this.opers.get(this.opcodes[node]).getId()).append(' ');
+                child = this.right[node];
+            } else {
+                out.append(']');
+                top--;
+                continue;
+            }
+            if (top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, top * 2);
+                states = Arrays.copyOf(states, top * 2);
+            }
+            nodes[top] = child;
+            states[top++] = 0;
+        }
+    }
+
+    /**
+     * Metodo che scrive l'espressione con tutte le parentesi direttamente su un canale, codificata in UTF-8 (vedere
+     * TreePrinter)
+     * @param channel Il canale su cui scrivere (non viene chiuso)
+     * @throws IOException Se ci sono errori di scrittura
+     * @throws IllegalStateException Se l'albero è vuoto
+     */
+    public void parenthesize(WritableByteChannel channel) throws IOException, IllegalStateException {
+        Writer out = TreePrinter.channelWriter(channel);
+        this.parenthesize(out);
+        out.flush();
+    }
+
+    /**
+     * Metodo che restituisce la rappresentazione sotto forma di espressione dell'albero, solamente con le parentesi
+     * strettamente necessarie (stesso formato di Tree.necessaryParentheses, vedere OperatorNode.necessaryParentheses
+     * per la spiegazione dei casi)
+     * @return Una String contenente l'espressione con le parentesi
+     */
+    public String necessaryParentheses() {
+        StringBuilder out = new StringBuilder();
+        try {
+            this.necessaryParentheses(out);
+        } catch (IOException e) {
+            // uno StringBuilder non genera mai errori di scrittura
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Metodo che scrive l'espressione con le sole parentesi necessarie sulla destinazione data, in una sola passata
+     * @param out La destinazione su cui scrivere (ad esempio uno StringBuilder o un Writer)
+     * @throws IOException Se ci sono errori di scrittura
+     * @throws IllegalStateException Se l'albero è vuoto
+     */
+    public void necessaryParentheses(Appendable out) throws IOException, IllegalStateException {
+        // pila esplicita dei nodi da scrivere, con lo stato di ciascuno (0: figlio sinistro, 1: destro, 2: fine)
+        // e la necessità delle parentesi, decisa prima di scrivere i figli
+        int[] nodes = new int[INITIAL_STACK];
+        byte[] states = new byte[INITIAL_STACK];
+        boolean[] wrapped = new boolean[INITIAL_STACK];
+        int top = 0;
+        nodes[top] = this.getRoot();
+        states[top] = 0;
+        wrapped[top++] = false;
+        while (top > 0) {
+            int node = nodes[top - 1];
+            if (this.opcodes[node] == CONST) {
+                out.append(ConstNode.format(this.values[node]));
+                top--;
+                continue;
+            }
+
+            Operator oper = this.opers.get(this.opcodes[node]);
+            int precedence = oper.getPrecedence();
+            boolean isLeftAssoc = oper.hasLeftAssociativity();
+            byte state = states[top - 1]++;
+            int child;
+            boolean childSameDirection;
+            if (state == 0) {
+                if (wrapped[top - 1]) out.append('(');
+                child = this.left[node];
+                childSameDirection = isLeftAssoc;
+            } else if (state == 1) {
+                out.append(' ').append(oper.getId()).append(' ');
+                child = this.right[node];
+                childSameDirection = !isLeftAssoc;
+            } else {
+                if (wrapped[top - 1]) out.append(')');
+                top--;
+                continue;
+            }
+            if (top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, top * 2);
+                states = Arrays.copyOf(states, top * 2);
+                wrapped = Arrays.copyOf(wrapped, top * 2);
+            }
+            nodes[top] = child;
+            states[top] = 0;
+            if (this.opcodes[child] == CONST) {
+                wrapped[top++] = false;
+            } else {
+                int diff = this.opers.get(this.opcodes[child]).getPrecedence() - precedence;
+                wrapped[top++] = diff < 0 || (diff == 0 && !childSameDirection);
+            }
+        }
+    }
+
+    /**
+     * Metodo che scrive l'espressione con le sole parentesi necessarie direttamente su un canale, codificata in UTF-8
+     * (vedere TreePrinter)
+     * @param channel Il canale su cui scrivere (non viene chiuso)
+     * @throws IOException Se ci sono errori di scrittura
+     * @throws IllegalStateException Se l'albero è vuoto
+     */
+    public void necessaryParentheses(WritableByteChannel channel) throws IOException, IllegalStateException {
+        Writer out = TreePrinter.channelWriter(channel);
+        this.necessaryParentheses(out);
+        out.flush();
+    }
+
+    /**
+     * Restituisce il numero di nodi dell'albero
+     * @return Il numero di nodi
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Restituisce la posizione della radice (l'ultimo nodo inserito)
+     * @return La posizione della radice
+     * @throws IllegalStateException Se l'albero è vuoto
+     */
+    public int getRoot() throws IllegalStateException {
+        if (this.size == 0)
+            throw new IllegalStateException(EMPTY_TREE);
+        return this.size - 1;
+    }
+
+    /**
+     * Restituisce la tabella degli operatori dell'albero
+     * @return La tabella degli operatori
+     */
+    public OperatorTable getOperatorTable() {
+        return this.opers;
+    }
+
+    /**
+     * Restituisce il codice operativo di un nodo
+     * @param node La posizione del nodo
+     * @return La posizione dell'operatore nella tabella, oppure CONST
+     */
+    public int getOpcode(int node) {
+        return this.opcodes[node];
+    }
+
+    /**
+     * Restituisce la posizione del figlio sinistro di un nodo
+     * @param node La posizione del nodo
+     * @return La posizione del figlio sinistro, -1 per le costanti
+     */
+    public int getLeft(int node) {
+        return this.left[node];
+    }
+
+    /**
+     * Restituisce la posizione del figlio destro di un nodo
+     * @param node La posizione del nodo
+     * @return La posizione del figlio destro, -1 per le costanti
+     */
+    public int getRight(int node) {
+        return this.right[node];
+    }
+
+    /**
+     * Restituisce il valore di una costante (o l'ultimo risultato calcolato, per un nodo operatore)
+     * @param node La posizione del nodo
+     * @return Il valore del nodo
+     */
+    public double getValue(int node) {
+        return this.values[node];
+    }
+}
@@ -0,0 +1,110 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.util.Arrays;
+
+/**
+ * Classe che rappresenta un'espressione già interpretata e pronta per il calcolo ("piano di calcolo").
+ * Gli oggetti di questa classe sono immutabili: gli array vengono copiati alla creazione e le operazioni vengono
+ * fissate al momento della compilazione (modifiche successive alla OperatorTable non hanno effetto). Il calcolo
+ * usa solo variabili locali, quindi la stessa espressione può essere calcolata da un numero qualsiasi di thread
+ * contemporaneamente, senza sincronizzazione.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public final class CompiledExpression {
+    private final int[] opcodes;
+    private final int[] left;
+    private final int[] right;
+    private final double[] constants;
+    private final Operation[] operations;
+
+    /**
+     * Costruttore, utilizzato da CompactTree.compile
+     * @param opcodes I codici operativi dei nodi
+     * @param left Le posizioni dei figli sinistri
+     * @param right Le posizioni dei figli destri
+     * @param constants I valori delle costanti
+     * @param size Il numero di nodi
+     * @param operations Le operazioni, indicizzate per codice operativo
+     */
+    CompiledExpression(int[] opcodes, int[] left, int[] right, double[] constants, int size, Operation[] operations) {
+        this.opcodes = Arrays.copyOf(opcodes, size);
+        this.left = Arrays.copyOf(left, size);
+        this.right = Arrays.copyOf(right, size);
+        this.constants = Arrays.copyOf(constants, size);
+        this.operations = operations.clone();
+    }
+
+    /**
+     * Restituisce il numero di nodi dell'espressione
+     * @return Il numero di nodi
+     */
+    public int getSize() {
+        return this.opcodes.length;
+    }
+
+    /**
+     * Restituisce il codice operativo di un nodo
+     * @param node La posizione del nodo
+     * @return La posizione dell'operatore nella tabella, oppure CompactTree.CONST
+     */
+    public int getOpcode(int node) {
+        return this.opcodes[node];
+    }
+
+    /**
+     * Restituisce la posizione del figlio sinistro di un nodo
+     * @param node La posizione del nodo
+     * @return La posizione del figlio sinistro, -1 per le costanti
+     */
+    public int getLeft(int node) {
+        return this.left[node];
+    }
+
+    /**
+     * Restituisce la posizione del figlio destro di un nodo
+     * @param node La posizione del nodo
+     * @return La posizione del figlio destro, -1 per le costanti
+     */
+    public int getRight(int node) {
+        return this.right[node];
+    }
+
+    /**
+     * Calcola il valore del nodo dato, a partire dai valori già calcolati dei suoi figli
+     * @param node La posizione del nodo
+     * @param values I valori dei nodi (devono essere già presenti quelli dei figli)
+     * @return Il valore del nodo
+     */
+    double calcNode(int node, double[] values) {
+        int opcode = this.opcodes[node];
+        if (opcode == CompactTree.CONST) return this.constants[node];
+        return this.operations[opcode].calcValue(values[this.left[node]], values[this.right[node]]);
+    }
+
+    /**
+     * Calcola il valore dell'espressione
+     * @return Il valore dell'espressione
+     */
+    public double calculate() {
+        return this.calculate(new double[this.opcodes.length]);
+    }
+
+    /**
+     * Calcola il valore dell'espressione utilizzando un array di appoggio fornito dal chiamante, così chi calcola
+     * molte espressioni di seguito può evitare di allocarne uno ogni volta
+     * @param scratch L'array di appoggio, lungo almeno quanto il numero di nodi (vedere getSize)
+     * @return Il valore dell'espressione
+     */
+    public double calculate(double[] scratch) {
+        int size = this.opcodes.length;
+        for (int i = 0; i < size; i++) {
+            int opcode = this.opcodes[i];
+            if (opcode == CompactTree.CONST)
+                scratch[i] = this.constants[i];
+            else
+                scratch[i] = this.operations[opcode].calcValue(scratch[this.left[i]], scratch[this.right[i]]);
+        }
+        return scratch[size - 1];
+    }
+}
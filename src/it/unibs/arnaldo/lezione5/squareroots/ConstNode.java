@@ -1,5 +1,7 @@
 package it.unibs.arnaldo.lezione5.squareroots;
 
+import java.math.BigDecimal;
+
 /**
  * Classe che rappresenti un nodo numerico
  *
@@ -9,9 +11,14 @@ public class ConstNode implements Node {
     private static final int MINRANDOM = 0;
     private static final int MAXRANDOM = 100;
     private static final String ILLEGAL_CONSTANT = "Illegal constant signature: '%s'";
+    private static final String NON_FINITE_CONSTANT = "Non-finite constant: '%s'";
+    // numero di cifre di un intero che sta sicuramente in un long
+    private static final int MAX_LONG_DIGITS = 18;
 
 
-    private boolean isValueSet;
+    // volatile: value viene scritto prima di isValueSet, quindi un thread che legge isValueSet a true vede anche il
+    // valore corretto (il calcolo "pigro" del valore è così sicuro anche se l'albero è condiviso fra più thread)
+    private volatile boolean isValueSet;
     private double value;
     private String constant;
 
@@ -29,6 +36,48 @@ public class ConstNode implements Node {
         this.constant = constant;
     }
 
+    /**
+     * Costruttore con una costante numerica già convertita (dal parser, vedere FastDoubleParser): il valore non deve
+     * più essere calcolato dalla stringa
+     * @param constant La stringa rappresentante la costante
+     * @param value Il valore della costante
+     */
+    ConstNode(String constant, double value) {
+        this.value = value;
+        this.isValueSet = true;
+        this.constant = constant;
+    }
+
+    /**
+     * Costruttore con un valore numerico già calcolato (ad esempio dalla semplificazione di un sottoalbero)
+     * @param value Il valore della costante
+     */
+    public ConstNode(double value) {
+        this.value = value;
+        this.isValueSet = true;
+        this.constant = format(value);
+    }
+
+    /**
+     * Restituisce la stringa che rappresenta questa costante, così come è stata letta o generata
+     * @return La stringa della costante
+     */
+    public String getConstant() {
+        return this.constant;
+    }
+
+    /**
+     * Metodo d'appoggio che converte un valore numerico nella sua rappresentazione testuale: i valori interi
+     * vengono scritti senza la parte decimale, così da coincidere con le costanti generate casualmente
+     * @param value Il valore da convertire
+     * @return La stringa rappresentante il valore
+     */
+    static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15 && !(value == 0 && 1 / value < 0))
+            return String.valueOf((long) value);
+        return String.valueOf(value);
+    }
+
     /**
      * Metodo che genera un valore casuale a questo nodo
      * @param maxDepth La massima profondità dell'albero (non serve in questa implementazione perché una volta
@@ -36,6 +85,15 @@ public class ConstNode implements Node {
      */
     @Override
     public void randomize(int maxDepth) {
+        // il nodo può già far parte di alberi stampati, di cui non si conoscono le radici (vedere RenderCache)
+        RenderCache.invalidateAll();
+        this.generate();
+    }
+
+    /**
+     * Metodo d'appoggio che genera il valore di un nodo appena creato, che non fa ancora parte di nessun albero
+     */
+    void generate() {
         int random = (int) (Math.random() * (MAXRANDOM - MINRANDOM)) + MINRANDOM;
         this.value = random;
         this.constant = String.valueOf(random);
@@ -51,17 +109,62 @@ public class ConstNode implements Node {
     public double calcValue() throws IllegalArgumentException {
         if (isValueSet) return value;
 
-        double v;
-        try {
-            v = Double.parseDouble(this.constant);
-        } catch (NumberFormatException e) {
+        // la stringa non valida viene riconosciuta senza passare da NumberFormatException
+        double v = this.constant == null ? Double.NaN : FastDoubleParser.parse(this.constant, 0, this.constant.length());
+        if (this.constant == null || FastDoubleParser.isInvalid(v))
             throw new IllegalArgumentException(String.format(ILLEGAL_CONSTANT, constant));
-        }
         this.value = v;
         this.isValueSet = true;
         return v;
     }
 
+    /**
+     * Metodo che restituisce il valore esatto di questo nodo, come numero razionale: ad esempio "0.1" vale
+     * esattamente 1/10 (e non il double più vicino a un decimo)
+     * @return Il valore esatto di questo nodo
+     * @throws IllegalArgumentException Se ci sono problemi nel parsing
+     * @throws ArithmeticException Se la costante non è un numero finito (ad esempio "Infinity") o ha troppe cifre
+     *                             decimali (ad esempio "1e-9999999")
+     */
+    public Rational calcRational() throws IllegalArgumentException, ArithmeticException {
+        // caso comune: un numero intero abbastanza piccolo da stare in un long, senza passare dai BigDecimal
+        String s = this.constant;
+        int length = s == null ? 0 : s.length();
+        if (length > 0 && length <= MAX_LONG_DIGITS) {
+            long v = 0;
+            int i = 0;
+            while (i < length) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') break;
+                v = v * 10 + (c - '0');
+                i++;
+            }
+            if (i == length) return Rational.valueOf(v);
+        }
+        return Rational.valueOf(this.calcBigDecimal());
+    }
+
+    /**
+     * Metodo che restituisce il valore esatto di questo nodo, come numero decimale
+     * @return Il valore esatto di questo nodo
+     * @throws IllegalArgumentException Se ci sono problemi nel parsing
+     * @throws ArithmeticException Se la costante non è un numero finito (ad esempio "Infinity")
+     */
+    public BigDecimal calcBigDecimal() throws IllegalArgumentException, ArithmeticException {
+        if (this.constant != null) {
+            try {
+                return new BigDecimal(this.constant.trim());
+            } catch (NumberFormatException e) {
+                // le costanti accettate da Double.parseDouble ma non da BigDecimal (ad esempio "1d" o "0x1p3")
+                // vengono convertite dal loro valore double
+            }
+        }
+        double v = this.calcValue();
+        if (Double.isNaN(v) || Double.isInfinite(v))
+            throw new ArithmeticException(String.format(NON_FINITE_CONSTANT, this.constant));
+        return new BigDecimal(v);
+    }
+
     /**
      * Metodo che formatta con le parentesi adatte questo nodo (per una costante non sono necessarie parentesi)
      * Questo tipo di nodo costituisce il passo base della ricorsione
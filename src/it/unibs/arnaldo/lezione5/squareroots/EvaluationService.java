@@ -0,0 +1,103 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Classe che offre il calcolo di espressioni testuali a più thread contemporaneamente. Le espressioni vengono
+ * compilate una sola volta (vedere ExpressionCache) e calcolate tramite CompiledExpression, che è immutabile:
+ * il servizio può quindi essere condiviso liberamente, ad esempio fra i thread (anche virtuali) di un server.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public class EvaluationService {
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+
+    private final OperatorTable opers;
+    private final ExpressionCache cache;
+
+    /**
+     * Costruttore, con una cache propria di dimensione predefinita
+     * @param opers La tabella degli operatori (non deve essere modificata mentre il servizio è in uso)
+     */
+    public EvaluationService(OperatorTable opers) {
+        this(opers, new ExpressionCache(DEFAULT_CACHE_SIZE));
+    }
+
+    /**
+     * Costruttore con una cache data, che può essere condivisa con altri servizi
+     * @param opers La tabella degli operatori (non deve essere modificata mentre il servizio è in uso)
+     * @param cache La cache delle espressioni compilate
+     */
+    public EvaluationService(OperatorTable opers, ExpressionCache cache) {
+        this.opers = opers;
+        this.cache = cache;
+    }
+
+    /**
+     * Restituisce l'espressione compilata corrispondente al testo dato
+     * @param expression Il testo dell'espressione
+     * @return L'espressione compilata
+     * @throws IllegalArgumentException Se ci sono problemi nel parsing
+     */
+    public CompiledExpression compile(String expression) throws IllegalArgumentException {
+        return this.cache.get(expression, this.opers);
+    }
+
+    /**
+     * Calcola il valore di un'espressione nel thread corrente
+     * @param expression Il testo dell'espressione
+     * @return Il valore dell'espressione
+     * @throws IllegalArgumentException Se ci sono problemi nel parsing
+     */
+    public double evaluate(String expression) throws IllegalArgumentException {
+        return this.compile(expression).calculate();
+    }
+
+    /**
+     * Calcola il valore di un'espressione con l'esecutore dato
+     * @param expression Il testo dell'espressione
+     * @param executor L'esecutore su cui effettuare il calcolo
+     * @return Il risultato futuro del calcolo (completato con un'eccezione in caso di errori di parsing)
+     */
+    public CompletableFuture<Double> evaluateAsync(String expression, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> this.evaluate(expression), executor);
+    }
+
+    /**
+     * Calcola in parallelo i valori di più espressioni, con l'esecutore dato, e attende tutti i risultati
+     * @param expressions I testi delle espressioni
+     * @param executor L'esecutore su cui effettuare i calcoli
+     * @return I valori delle espressioni, nello stesso ordine
+     * @throws IllegalArgumentException Se ci sono problemi nel parsing di almeno un'espressione
+     */
+    public double[] evaluateAll(List<String> expressions, Executor executor) throws IllegalArgumentException {
+        List<CompletableFuture<Double>> futures = new ArrayList<>(expressions.size());
+        for (String expression : expressions) {
+            futures.add(this.evaluateAsync(expression, executor));
+        }
+
+        double[] out = new double[futures.size()];
+        try {
+            for (int i = 0; i < out.length; i++) {
+                out[i] = futures.get(i).join();
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IllegalArgumentException)
+                throw (IllegalArgumentException) e.getCause();
+            throw e;
+        }
+        return out;
+    }
+
+    /**
+     * Restituisce la cache delle espressioni compilate utilizzata dal servizio
+     * @return La cache
+     */
+    public ExpressionCache getCache() {
+        return this.cache;
+    }
+}
@@ -0,0 +1,194 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+
+/**
+ * Classe che calcola il valore di un albero di nodi in modo esatto (con i numeri razionali, vedere Rational) o con
+ * precisione arbitraria (con i BigDecimal). Il calcolo usa una pila esplicita, come IterativeEvaluator, quindi la
+ * profondità dell'albero è limitata solo dalla memoria disponibile.
+ * Tutti gli operatori dell'albero devono essere stati creati con un'operazione aritmetica nota (vedere Arithmetic):
+ * di un'operazione qualsiasi si conosce solo il calcolo in double. Per lo stesso motivo, fra gli operatori prefissi è
+ * supportato solo il cambio di segno (vedere PrefixOperator.negation), e le funzioni non sono supportate.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public final class ExactEvaluator {
+    private static final String NOT_EXACT_OPERATOR = "Operator '%s' has no exact arithmetic";
+    private static final String NOT_EXACT_FUNCTION = "Function '%s' has no exact arithmetic";
+    private static final String UNSUPPORTED_NODE = "Unsupported node type: %s";
+    private static final int INITIAL_STACK = 32;
+
+    private ExactEvaluator() {}
+
+    /**
+     * Metodo che calcola il valore esatto dell'albero con radice data
+     * @param root La radice dell'albero
+     * @return Il valore esatto dell'albero
+     * @throws IllegalArgumentException Se ci sono problemi nelle costanti numeriche o un operatore non ha
+     *                                  un'operazione aritmetica nota
+     * @throws ArithmeticException Se il risultato non è un numero razionale (ad esempio una divisione per zero)
+     */
+    public static Rational calcRational(Node root) throws IllegalArgumentException, ArithmeticException {
+        return calcValue(root, new Mode<Rational>() {
+            @Override
+            public Rational constant(ConstNode node) {
+                return node.calcRational();
+            }
+
+            @Override
+            public Rational apply(Arithmetic arithmetic, Rational l, Rational r) {
+                return arithmetic.calcValue(l, r);
+            }
+
+            @Override
+            public Rational negate(Rational x, PrefixOperator oper) {
+                return x.negate();
+            }
+        });
+    }
+
+    /**
+     * Metodo che calcola il valore dell'albero con radice data con la precisione data. Ogni operazione viene
+     * arrotondata secondo mc, come nei metodi di BigDecimal
+     * @param root La radice dell'albero
+     * @param mc La precisione e il tipo di arrotondamento
+     * @return Il valore dell'albero
+     * @throws IllegalArgumentException Se ci sono problemi nelle costanti numeriche o un operatore non ha
+     *                                  un'operazione aritmetica nota
+     * @throws ArithmeticException Se il risultato non è definito (ad esempio una divisione per zero) o non è
+     *                             rappresentabile esattamente con MathContext.UNLIMITED
+     */
+    public static BigDecimal calcBigDecimal(Node root, MathContext mc)
+            throws IllegalArgumentException, ArithmeticException {
+        return calcValue(root, new Mode<BigDecimal>() {
+            @Override
+            public BigDecimal constant(ConstNode node) {
+                return node.calcBigDecimal().round(mc);
+            }
+
+            @Override
+            public BigDecimal apply(Arithmetic arithmetic, BigDecimal l, BigDecimal r) {
+                return arithmetic.calcValue(l, r, mc);
+            }
+
+            @Override
+            public BigDecimal negate(BigDecimal x, PrefixOperator oper) {
+                return x.negate(mc);
+            }
+        });
+    }
+
+    /**
+     * Metodo d'appoggio che calcola il valore dell'albero con una pila esplicita, nello stesso ordine della versione
+     * ricorsiva (prima il figlio sinistro, poi il destro)
+     * @param root La radice dell'albero
+     * @param mode Il tipo di calcolo
+     * @param <T> Il tipo dei valori
+     * @return Il valore dell'albero
+     */
+    private static <T> T calcValue(Node root, Mode<T> mode) {
+        if (InnerNodes.arity(root) < 0) return leaf(root, mode);
+
+        // per ogni nodo nella pila, il numero di figli già calcolati
+        Node[] nodes = new Node[INITIAL_STACK];
+        int[] states = new int[INITIAL_STACK];
+        Object[] values = new Object[INITIAL_STACK];
+        int nodesTop = 0;
+        int valuesTop = 0;
+
+        nodes[nodesTop] = root;
+        states[nodesTop++] = 0;
+        while (nodesTop > 0) {
+            Node node = nodes[nodesTop - 1];
+            int state = states[nodesTop - 1];
+            if (state == InnerNodes.arity(node)) {
+                // tutti i figli sono stati calcolati: i loro valori sono in cima alla pila
+                T value;
+                if (node instanceof OperatorNode) {
+                    @SuppressWarnings("unchecked") T r = (T) values[--valuesTop];
+                    @SuppressWarnings("unchecked") T l = (T) values[--valuesTop];
+                    // il posto del figlio destro non serve più: lo libero per il garbage collector
+                    values[valuesTop + 1] = null;
+                    value = mode.apply(arithmetic(((OperatorNode) node).getOperator()), l, r);
+                } else if (node instanceof PrefixNode) {
+                    @SuppressWarnings("unchecked") T x = (T) values[--valuesTop];
+                    value = mode.negate(x, negation(((PrefixNode) node).getOperator()));
+                } else {
+                    String name = ((FunctionNode) node).getFunction().getName();
+                    throw new IllegalArgumentException(String.format(NOT_EXACT_FUNCTION, name));
+                }
+                values[valuesTop++] = value;
+                nodesTop--;
+                continue;
+            }
+
+            states[nodesTop - 1]++;
+            Node child = InnerNodes.child(node, state);
+            if (InnerNodes.arity(child) >= 0) {
+                if (nodesTop == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, nodesTop * 2);
+                    states = Arrays.copyOf(states, nodesTop * 2);
+                }
+                nodes[nodesTop] = child;
+                states[nodesTop++] = 0;
+            } else {
+                if (valuesTop == values.length) values = Arrays.copyOf(values, valuesTop * 2);
+                values[valuesTop++] = leaf(child, mode);
+            }
+        }
+        @SuppressWarnings("unchecked") T result = (T) values[0];
+        return result;
+    }
+
+    /**
+     * Metodo d'appoggio che calcola il valore di una foglia
+     * @param node La foglia
+     * @param mode Il tipo di calcolo
+     * @param <T> Il tipo dei valori
+     * @return Il valore della foglia
+     * @throws IllegalArgumentException Se la foglia non è una costante
+     */
+    private static <T> T leaf(Node node, Mode<T> mode) throws IllegalArgumentException {
+        if (!(node instanceof ConstNode))
+            throw new IllegalArgumentException(String.format(UNSUPPORTED_NODE, node.getClass().getSimpleName()));
+        return mode.constant((ConstNode) node);
+    }
+
+    /**
+     * Metodo d'appoggio che restituisce l'operazione aritmetica di un operatore
+     * @param oper L'operatore
+     * @return L'operazione aritmetica
+     * @throws IllegalArgumentException Se l'operatore non ha un'operazione aritmetica nota
+     */
+    private static Arithmetic arithmetic(Operator oper) throws IllegalArgumentException {
+        Arithmetic arithmetic = oper.getArithmetic();
+        if (arithmetic == null)
+            throw new IllegalArgumentException(String.format(NOT_EXACT_OPERATOR, oper.getId()));
+        return arithmetic;
+    }
+
+    /**
+     * Metodo d'appoggio che controlla che un operatore prefisso sia il cambio di segno, l'unico calcolabile in modo
+     * esatto
+     * @param oper L'operatore
+     * @return L'operatore stesso
+     * @throws IllegalArgumentException Se l'operatore non è il cambio di segno
+     */
+    private static PrefixOperator negation(PrefixOperator oper) throws IllegalArgumentException {
+        if (!oper.isNegation())
+            throw new IllegalArgumentException(String.format(NOT_EXACT_OPERATOR, oper.getId()));
+        return oper;
+    }
+
+    /**
+     * Tipo di calcolo: come si ottengono i valori delle costanti e come si applicano le operazioni
+     * @param <T> Il tipo dei valori
+     */
+    private interface Mode<T> {
+        T constant(ConstNode node);
+        T apply(Arithmetic arithmetic, T l, T r);
+        T negate(T x, PrefixOperator oper);
+    }
+}
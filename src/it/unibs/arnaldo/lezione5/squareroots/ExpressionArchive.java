@@ -0,0 +1,361 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Classe che rappresenta un insieme di espressioni salvate su file in formato binario compatto, già pronte per il
+ * calcolo: a differenza della forma testuale non serve ripetere il parsing.
+ * Il file viene letto tramite memory-mapping e le espressioni vengono calcolate direttamente dai byte del file,
+ * senza ricostruire né nodi né array.
+ *
+ * Formato del file (tutti i numeri in big-endian):
+ * - intestazione: MAGIC (int), VERSION (short), numero di operatori (short), e per ciascun operatore la lunghezza
+ *   (short) e i byte UTF-8 del suo identificatore, nell'ordine della OperatorTable
+ * - numero di espressioni (int), seguito dalla tabella delle posizioni (long) di ciascuna espressione nel file
+ * - ciascuna espressione: numero di nodi (int), dimensione massima della pila di calcolo (int) e i nodi in notazione
+ *   polacca inversa, ognuno con il codice operativo (byte, la posizione dell'operatore nella tabella) oppure
+ *   CONST seguito dal valore della costante (double)
+ * Gli operatori vengono salvati per identificatore, quindi il file può essere letto con qualsiasi OperatorTable che
+ * contenga gli stessi operatori, anche in ordine diverso.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public class ExpressionArchive {
+    private static final int MAGIC = 0x53515254; // "SQRT"
+    private static final short VERSION = 1;
+    private static final byte CONST = -1;
+    private static final int MAX_OPERATORS = Byte.MAX_VALUE;
+    private static final int CONST_BYTES = 1 + Double.BYTES;
+    private static final String BAD_FORMAT = "Not an expression archive: '%s'";
+    private static final String BAD_VERSION = "Unsupported archive version %d";
+    private static final String UNKNOWN_OPERATOR = "Operator '%s' not found in the operator table";
+    private static final String TOO_MANY_OPERATORS = "Too many operators for the binary format: %d";
+    private static final String TOO_LARGE = "Archive too large to be mapped: %d bytes";
+    private static final String CORRUPTED = "Corrupted expression %d at byte %d";
+
+    private final MappedByteBuffer buffer;
+    private final OperatorTable opers;
+    // per ciascun codice operativo del file: la posizione dell'operatore nella tabella e la sua operazione
+    private final int[] opcodes;
+    private final Operation[] operations;
+    private final long[] offsets;
+
+    /**
+     * Costruttore privato, utilizzare il metodo statico open
+     * @param buffer Il contenuto del file
+     * @param opers La tabella degli operatori
+     * @param source Il nome del file (per i messaggi di errore)
+     * @throws IllegalArgumentException Se il file non è nel formato corretto
+     */
+    private ExpressionArchive(MappedByteBuffer buffer, OperatorTable opers, String source)
+            throws IllegalArgumentException {
+        this.buffer = buffer;
+        this.opers = opers;
+
+        if (buffer.remaining() < Integer.BYTES + 2 * Short.BYTES || buffer.getInt() != MAGIC)
+            throw new IllegalArgumentException(String.format(BAD_FORMAT, source));
+        short version = buffer.getShort();
+        if (version != VERSION)
+            throw new IllegalArgumentException(String.format(BAD_VERSION, version));
+
+        // associo ciascun operatore del file all'operatore con lo stesso identificatore nella tabella; le lunghezze
+        // lette dal file vengono controllate prima di allocare, così un file troncato viene segnalato come tale
+        int operatorCount = buffer.getShort();
+        if (operatorCount < 0 || operatorCount > MAX_OPERATORS)
+            throw new IllegalArgumentException(String.format(BAD_FORMAT, source));
+        this.opcodes = new int[operatorCount];
+        this.operations = new Operation[operatorCount];
+        for (int i = 0; i < operatorCount; i++) {
+            if (buffer.remaining() < Short.BYTES)
+                throw new IllegalArgumentException(String.format(BAD_FORMAT, source));
+            int length = buffer.getShort();
+            if (length < 0 || length > buffer.remaining())
+                throw new IllegalArgumentException(String.format(BAD_FORMAT, source));
+            byte[] id = new byte[length];
+            buffer.get(id);
+            String identifier = new String(id, StandardCharsets.UTF_8);
+            this.opcodes[i] = indexOf(opers, identifier);
+            if (this.opcodes[i] < 0)
+                throw new IllegalArgumentException(String.format(UNKNOWN_OPERATOR, identifier));
+            this.operations[i] = opers.get(this.opcodes[i]).getOperation();
+        }
+
+        if (buffer.remaining() < Integer.BYTES)
+            throw new IllegalArgumentException(String.format(BAD_FORMAT, source));
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / Long.BYTES)
+            throw new IllegalArgumentException(String.format(BAD_FORMAT, source));
+        // ogni posizione deve lasciare spazio almeno per il numero di nodi e la dimensione della pila
+        this.offsets = new long[count];
+        for (int i = 0; i < this.offsets.length; i++) {
+            this.offsets[i] = buffer.getLong();
+            if (this.offsets[i] < 0 || this.offsets[i] > buffer.limit() - 2 * Integer.BYTES)
+                throw new IllegalArgumentException(String.format(CORRUPTED, i, this.offsets[i]));
+        }
+    }
+
+    /**
+     * Metodo statico che scrive un insieme di espressioni su file, sostituendo il contenuto precedente.
+     * Le espressioni vengono scritte una alla volta, quindi non serve tenere in memoria l'intero file
+     * @param file Il file da scrivere
+     * @param opers La tabella degli operatori delle espressioni
+     * @param trees Le espressioni da salvare
+     * @throws IOException Se ci sono errori di scrittura
+     * @throws IllegalArgumentException Se la tabella contiene troppi operatori per il formato binario
+     */
+    public static void write(Path file, OperatorTable opers, List<CompactTree> trees)
+            throws IOException, IllegalArgumentException {
+        if (opers.size() > MAX_OPERATORS)
+            throw new IllegalArgumentException(String.format(TOO_MANY_OPERATORS, opers.size()));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // intestazione con gli identificatori degli operatori
+            byte[][] ids = new byte[opers.size()][];
+            int headerSize = Integer.BYTES + 2 * Short.BYTES + Integer.BYTES + Long.BYTES * trees.size();
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = opers.get(i).getId().getBytes(StandardCharsets.UTF_8);
+                headerSize += Short.BYTES + ids[i].length;
+            }
+            ByteBuffer header = ByteBuffer.allocate(headerSize);
+            header.putInt(MAGIC).putShort(VERSION).putShort((short) ids.length);
+            for (byte[] id : ids) {
+                header.putShort((short) id.length).put(id);
+            }
+            header.putInt(trees.size());
+
+            // le espressioni vengono scritte dopo l'intestazione, annotandone la posizione
+            long position = headerSize;
+            ByteBuffer encoded = ByteBuffer.allocate(64);
+            for (CompactTree tree : trees) {
+                header.putLong(position);
+                encoded = encode(tree, encoded);
+                position += writeFully(channel, encoded, position);
+            }
+
+            // l'intestazione (con la tabella delle posizioni, ora completa) va all'inizio del file
+            header.position(0);
+            writeFully(channel, header, 0);
+        }
+    }
+
+    /**
+     * Metodo statico che apre un file di espressioni in sola lettura, tramite memory-mapping: il contenuto viene
+     * caricato dal sistema operativo solo quando serve, e può essere condiviso fra più processi
+     * @param file Il file da aprire
+     * @param opers La tabella degli operatori con cui calcolare le espressioni
+     * @return L'insieme di espressioni contenuto nel file
+     * @throws IOException Se ci sono errori di lettura
+     * @throws IllegalArgumentException Se il file non è nel formato corretto
+     */
+    public static ExpressionArchive open(Path file, OperatorTable opers) throws IOException, IllegalArgumentException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IllegalArgumentException(String.format(TOO_LARGE, size));
+            // la mappatura resta valida anche dopo la chiusura del canale
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new ExpressionArchive(buffer, opers, file.toString());
+        }
+    }
+
+    /**
+     * Restituisce il numero di espressioni contenute nel file
+     * @return Il numero di espressioni
+     */
+    public int size() {
+        return this.offsets.length;
+    }
+
+    /**
+     * Restituisce il numero di nodi di un'espressione
+     * @param index La posizione dell'espressione nel file
+     * @return Il numero di nodi
+     * @throws IllegalArgumentException Se l'espressione è danneggiata
+     */
+    public int getNodeCount(int index) throws IllegalArgumentException {
+        return this.buffer.getInt(this.checkHeader(index));
+    }
+
+    /**
+     * Calcola il valore di un'espressione leggendola direttamente dal file. Il metodo non modifica lo stato
+     * dell'oggetto, quindi più thread possono calcolare espressioni contemporaneamente
+     * @param index La posizione dell'espressione nel file
+     * @return Il valore dell'espressione
+     * @throws IllegalArgumentException Se l'espressione è danneggiata
+     */
+    public double calculate(int index) throws IllegalArgumentException {
+        int pos = this.checkHeader(index);
+        int nodeCount = this.buffer.getInt(pos);
+        double[] stack = new double[this.buffer.getInt(pos + Integer.BYTES)];
+        pos += 2 * Integer.BYTES;
+
+        int top = 0;
+        try {
+            for (int i = 0; i < nodeCount; i++) {
+                byte opcode = this.buffer.get(pos++);
+                if (opcode == CONST) {
+                    stack[top++] = this.buffer.getDouble(pos);
+                    pos += Double.BYTES;
+                } else {
+                    double r = stack[--top];
+                    double l = stack[--top];
+                    stack[top++] = this.operations[opcode].calcValue(l, r);
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException(String.format(CORRUPTED, index, pos));
+        }
+        if (top != 1)
+            throw new IllegalArgumentException(String.format(CORRUPTED, index, pos));
+        return stack[0];
+    }
+
+    /**
+     * Carica un'espressione dal file nella forma compatta (ad esempio per stamparla o modificarla)
+     * @param index La posizione dell'espressione nel file
+     * @return L'albero compatto dell'espressione
+     * @throws IllegalArgumentException Se l'espressione è danneggiata
+     */
+    public CompactTree toCompactTree(int index) throws IllegalArgumentException {
+        int pos = this.checkHeader(index);
+        int nodeCount = this.buffer.getInt(pos);
+        int[] stack = new int[this.buffer.getInt(pos + Integer.BYTES)];
+        pos += 2 * Integer.BYTES;
+
+        CompactTree tree = new CompactTree(this.opers, nodeCount);
+        int top = 0;
+        try {
+            for (int i = 0; i < nodeCount; i++) {
+                byte opcode = this.buffer.get(pos++);
+                if (opcode == CONST) {
+                    stack[top++] = tree.addConst(this.buffer.getDouble(pos));
+                    pos += Double.BYTES;
+                } else {
+                    int r = stack[--top];
+                    int l = stack[--top];
+                    stack[top++] = tree.addOperator(this.opcodes[opcode], l, r);
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException(String.format(CORRUPTED, index, pos));
+        }
+        if (top != 1)
+            throw new IllegalArgumentException(String.format(CORRUPTED, index, pos));
+        return tree;
+    }
+
+    /**
+     * Metodo d'appoggio che controlla l'intestazione di un'espressione prima di allocare la pila di calcolo: ogni
+     * nodo occupa almeno un byte, quindi il numero di nodi non può superare i byte rimasti nel file, e la pila non
+     * può essere più grande del numero di nodi
+     * @param index La posizione dell'espressione nel file
+     * @return La posizione dell'intestazione dell'espressione nel file
+     * @throws IllegalArgumentException Se l'intestazione è danneggiata
+     */
+    private int checkHeader(int index) throws IllegalArgumentException {
+        int pos = (int) this.offsets[index];
+        int nodeCount = this.buffer.getInt(pos);
+        int maxStack = this.buffer.getInt(pos + Integer.BYTES);
+        if (nodeCount < 0 || nodeCount > this.buffer.limit() - pos - 2 * Integer.BYTES
+                || maxStack < 0 || maxStack > nodeCount)
+            throw new IllegalArgumentException(String.format(CORRUPTED, index, pos));
+        return pos;
+    }
+
+    /**
+     * Metodo d'appoggio che codifica un albero in notazione polacca inversa. La visita parte dalla radice, quindi
+     * funziona anche se l'albero contiene sottoalberi condivisi (che vengono ripetuti)
+     * @param tree L'albero da codificare
+     * @param out Il buffer da riutilizzare, se abbastanza grande
+     * @return Il buffer contenente l'espressione codificata, pronto per la scrittura
+     */
+    private static ByteBuffer encode(CompactTree tree, ByteBuffer out) {
+        out.clear();
+        // spazio per numero di nodi e dimensione della pila, scritti alla fine
+        out.position(2 * Integer.BYTES);
+
+        int nodeCount = 0;
+        int stackSize = 0;
+        int maxStack = 0;
+
+        // visita iterativa in post-ordine: lo stato indica se i figli del nodo sono già stati visitati
+        int[] nodes = new int[32];
+        boolean[] expanded = new boolean[32];
+        int top = 0;
+        nodes[top] = tree.getRoot();
+        expanded[top++] = false;
+        while (top > 0) {
+            int node = nodes[top - 1];
+            int opcode = tree.getOpcode(node);
+            if (opcode != CompactTree.CONST && !expanded[top - 1]) {
+                expanded[top - 1] = true;
+                if (top + 2 > nodes.length) {
+                    nodes = Arrays.copyOf(nodes, nodes.length * 2);
+                    expanded = Arrays.copyOf(expanded, expanded.length * 2);
+                }
+                // il figlio destro va in pila per primo, così il sinistro viene scritto prima
+                nodes[top] = tree.getRight(node);
+                expanded[top++] = false;
+                nodes[top] = tree.getLeft(node);
+                expanded[top++] = false;
+                continue;
+            }
+            top--;
+
+            if (out.remaining() < CONST_BYTES) {
+                out.flip();
+                out = ByteBuffer.allocate(out.capacity() * 2).put(out);
+            }
+            if (opcode == CompactTree.CONST) {
+                out.put(CONST).putDouble(tree.getValue(node));
+                maxStack = Math.max(maxStack, ++stackSize);
+            } else {
+                out.put((byte) opcode);
+                stackSize--;
+            }
+            nodeCount++;
+        }
+
+        out.putInt(0, nodeCount).putInt(Integer.BYTES, maxStack);
+        out.flip();
+        return out;
+    }
+
+    /**
+     * Metodo d'appoggio che scrive l'intero contenuto di un buffer in una posizione data del canale
+     * @param channel Il canale su cui scrivere
+     * @param buffer Il buffer da scrivere
+     * @param position La posizione nel canale
+     * @return Il numero di byte scritti
+     * @throws IOException Se ci sono errori di scrittura
+     */
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    /**
+     * Metodo d'appoggio che cerca un operatore nella tabella dato il suo identificatore
+     * @param opers La tabella degli operatori
+     * @param identifier L'identificatore dell'operatore
+     * @return La posizione dell'operatore nella tabella, -1 se non è presente
+     */
+    private static int indexOf(OperatorTable opers, String identifier) {
+        for (int i = 0; i < opers.size(); i++) {
+            if (opers.get(i).getId().equals(identifier)) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,443 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Classe che rappresenta il risultato dell'elaborazione di un file di testo con un'espressione per riga (ad esempio
+ * milioni di formule da calcolare).
+ * Il file viene letto tramite memory-mapping: le righe vengono individuate direttamente nei byte del file, senza
+ * creare stringhe intermedie, e ogni thread copia la riga da interpretare (senza spazi) in un proprio buffer di
+ * caratteri riutilizzato, che viene passato a IterativeParser come CharSequence. Le righe vengono divise in blocchi
+ * di dimensione fissa ed elaborate in parallelo con un ForkJoinPool.
+ * Sono previste due modalità:
+ * - compileFile: ogni riga viene interpretata e compilata in un piano di calcolo (vedere CompiledExpression); sono
+ *   supportati solo gli operatori binari, come nella forma compatta
+ * - evaluateFile: ogni riga viene interpretata e calcolata; sono supportati anche operatori prefissi e funzioni
+ * Le righe non valide non interrompono l'elaborazione: vengono riconosciute senza creare eccezioni (vedere
+ * ParseStatus) e per ciascuna viene conservato il messaggio di errore.
+ * Le righe sono numerate da 0 e comprendono anche quelle vuote (che sono quindi errori), tranne l'eventuale riga
+ * vuota dopo l'ultimo a capo.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public class ExpressionBatch {
+    // numero di righe elaborate da ciascun task
+    private static final int BULK_CHUNK = 1024;
+    // dimensione massima di ciascuna porzione del file mappata in memoria
+    private static final int MAX_SEGMENT = 1 << 30;
+    private static final int INITIAL_LINE = 256;
+    private static final String LINE_TOO_LONG = "Line too long to be mapped at byte %d";
+    private static final String NOT_COMPILED = "Line %d was evaluated, not compiled";
+
+    private final int lineCount;
+    private final long byteCount;
+    private final long elapsedNanos;
+    // risultati di ciascuna riga: il piano (solo compileFile) o il valore (solo evaluateFile), e l'errore
+    private final CompiledExpression[] plans;
+    private final double[] values;
+    private final String[] errors;
+    private final int errorCount;
+
+    /**
+     * Costruttore privato, utilizzare i metodi statici compileFile ed evaluateFile
+     */
+    private ExpressionBatch(int lineCount, long byteCount, long elapsedNanos, CompiledExpression[] plans,
+                            double[] values, String[] errors) {
+        this.lineCount = lineCount;
+        this.byteCount = byteCount;
+        this.elapsedNanos = elapsedNanos;
+        this.plans = plans;
+        this.values = values;
+        this.errors = errors;
+        int count = 0;
+        for (String error : errors) {
+            if (error != null) count++;
+        }
+        this.errorCount = count;
+    }
+
+    /**
+     * Metodo statico che interpreta e compila tutte le righe di un file, con il pool comune
+     * @param file Il file da leggere
+     * @param opers La tabella degli operatori
+     * @return I piani di calcolo e gli errori di ciascuna riga
+     * @throws IOException Se ci sono errori di lettura
+     * @throws IllegalArgumentException Se una riga è troppo lunga per essere mappata in memoria
+     */
+    public static ExpressionBatch compileFile(Path file, OperatorTable opers)
+            throws IOException, IllegalArgumentException {
+        return compileFile(file, opers, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Metodo statico che interpreta e compila tutte le righe di un file, con il pool dato
+     * @param file Il file da leggere
+     * @param opers La tabella degli operatori
+     * @param pool Il pool di thread da utilizzare
+     * @return I piani di calcolo e gli errori di ciascuna riga
+     * @throws IOException Se ci sono errori di lettura
+     * @throws IllegalArgumentException Se una riga è troppo lunga per essere mappata in memoria
+     */
+    public static ExpressionBatch compileFile(Path file, OperatorTable opers, ForkJoinPool pool)
+            throws IOException, IllegalArgumentException {
+        return process(file, opers, pool, true);
+    }
+
+    /**
+     * Metodo statico che interpreta e calcola tutte le righe di un file, con il pool comune
+     * @param file Il file da leggere
+     * @param opers La tabella degli operatori
+     * @return I valori e gli errori di ciascuna riga
+     * @throws IOException Se ci sono errori di lettura
+     * @throws IllegalArgumentException Se una riga è troppo lunga per essere mappata in memoria
+     */
+    public static ExpressionBatch evaluateFile(Path file, OperatorTable opers)
+            throws IOException, IllegalArgumentException {
+        return evaluateFile(file, opers, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Metodo statico che interpreta e calcola tutte le righe di un file, con il pool dato
+     * @param file Il file da leggere
+     * @param opers La tabella degli operatori
+     * @param pool Il pool di thread da utilizzare
+     * @return I valori e gli errori di ciascuna riga
+     * @throws IOException Se ci sono errori di lettura
+     * @throws IllegalArgumentException Se una riga è troppo lunga per essere mappata in memoria
+     */
+    public static ExpressionBatch evaluateFile(Path file, OperatorTable opers, ForkJoinPool pool)
+            throws IOException, IllegalArgumentException {
+        return process(file, opers, pool, false);
+    }
+
+    /**
+     * Restituisce il numero di righe elaborate
+     * @return Il numero di righe
+     */
+    public int getLineCount() {
+        return this.lineCount;
+    }
+
+    /**
+     * Restituisce il numero di righe non valide
+     * @return Il numero di errori
+     */
+    public int getErrorCount() {
+        return this.errorCount;
+    }
+
+    /**
+     * Controlla se una riga è stata elaborata senza errori
+     * @param line Il numero della riga (da 0)
+     * @return True se la riga è valida
+     */
+    public boolean isValid(int line) {
+        return this.errors[line] == null;
+    }
+
+    /**
+     * Restituisce il messaggio di errore di una riga
+     * @param line Il numero della riga (da 0)
+     * @return Il messaggio di errore, null se la riga è valida
+     */
+    public String getError(int line) {
+        return this.errors[line];
+    }
+
+    /**
+     * Restituisce il piano di calcolo di una riga (solo per compileFile)
+     * @param line Il numero della riga (da 0)
+     * @return Il piano di calcolo, null se la riga non è valida
+     * @throws IllegalArgumentException Se il file è stato elaborato con evaluateFile
+     */
+    public CompiledExpression getPlan(int line) throws IllegalArgumentException {
+        if (this.plans == null)
+            throw new IllegalArgumentException(String.format(NOT_COMPILED, line));
+        return this.plans[line];
+    }
+
+    /**
+     * Restituisce il valore di una riga. Con compileFile il valore viene calcolato dal piano di calcolo
+     * @param line Il numero della riga (da 0)
+     * @return Il valore dell'espressione, NaN se la riga non è valida
+     */
+    public double getValue(int line) {
+        if (this.errors[line] != null) return Double.NaN;
+        return this.plans != null ? this.plans[line].calculate() : this.values[line];
+    }
+
+    /**
+     * Restituisce la dimensione del file elaborato
+     * @return Il numero di byte
+     */
+    public long getByteCount() {
+        return this.byteCount;
+    }
+
+    /**
+     * Restituisce il tempo impiegato per l'elaborazione, compresa la lettura del file
+     * @return Il tempo in nanosecondi
+     */
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    /**
+     * Restituisce il numero di righe elaborate al secondo
+     * @return Le righe al secondo
+     */
+    public double getLinesPerSecond() {
+        return this.lineCount * 1e9 / Math.max(1, this.elapsedNanos);
+    }
+
+    /**
+     * Restituisce il numero di byte elaborati al secondo
+     * @return I byte al secondo
+     */
+    public double getBytesPerSecond() {
+        return this.byteCount * 1e9 / Math.max(1, this.elapsedNanos);
+    }
+
+    /**
+     * Metodo d'appoggio che elabora un file: prima individua le righe, poi le elabora in parallelo
+     * @param file Il file da leggere
+     * @param opers La tabella degli operatori
+     * @param pool Il pool di thread da utilizzare
+     * @param compile True per compilare le righe, false per calcolarle
+     * @return Il risultato dell'elaborazione
+     * @throws IOException Se ci sono errori di lettura
+     * @throws IllegalArgumentException Se una riga è troppo lunga per essere mappata in memoria
+     */
+    private static ExpressionBatch process(Path file, OperatorTable opers, ForkJoinPool pool, boolean compile)
+            throws IOException, IllegalArgumentException {
+        long start = System.nanoTime();
+        Lines lines;
+        long size;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            lines = Lines.map(channel, size);
+        }
+
+        int count = lines.count;
+        CompiledExpression[] plans = compile ? new CompiledExpression[count] : null;
+        double[] values = compile ? null : new double[count];
+        String[] errors = new String[count];
+        int chunks = (count + BULK_CHUNK - 1) / BULK_CHUNK;
+        if (chunks > 0)
+            pool.invoke(new LineTask(lines, opers, plans, values, errors, 0, chunks));
+        return new ExpressionBatch(count, size, System.nanoTime() - start, plans, values, errors);
+    }
+
+    /**
+     * Posizioni delle righe all'interno del file. Il file viene mappato in porzioni che terminano con un a capo,
+     * quindi ogni riga si trova per intero in una sola porzione
+     */
+    private static final class Lines {
+        private final MappedByteBuffer[] segments;
+        // posizione nel file dell'inizio di ciascuna porzione
+        private final long[] bases;
+        // posizione nel file dell'inizio di ciascuna riga; starts[count] è l'inizio di una riga fittizia successiva
+        // all'ultima, in modo che la fine della riga i sia sempre starts[i + 1] - 1
+        private final long[] starts;
+        private final int count;
+
+        private Lines(MappedByteBuffer[] segments, long[] bases, long[] starts, int count) {
+            this.segments = segments;
+            this.bases = bases;
+            this.starts = starts;
+            this.count = count;
+        }
+
+        /**
+         * Mappa il file e individua l'inizio di ciascuna riga
+         * @param channel Il canale del file
+         * @param size La dimensione del file
+         * @return Le righe del file
+         * @throws IOException Se ci sono errori di lettura
+         * @throws IllegalArgumentException Se una riga è troppo lunga per essere mappata in memoria
+         */
+        private static Lines map(FileChannel channel, long size) throws IOException, IllegalArgumentException {
+            ArrayList<MappedByteBuffer> segments = new ArrayList<>();
+            ArrayList<Long> bases = new ArrayList<>();
+            long[] starts = new long[1024];
+            int count = 0;
+
+            long base = 0;
+            while (base < size) {
+                long length = Math.min(MAX_SEGMENT, size - base);
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, base, length);
+                // se il file continua, la porzione termina con l'ultimo a capo
+                int limit = (int) length;
+                if (base + length < size) {
+                    while (limit > 0 && segment.get(limit - 1) != '\n') limit--;
+                    if (limit == 0)
+                        throw new IllegalArgumentException(String.format(LINE_TOO_LONG, base));
+                }
+
+                boolean isLineStart = true;
+                for (int i = 0; i < limit; i++) {
+                    if (isLineStart) {
+                        if (count == starts.length) starts = Arrays.copyOf(starts, count * 2);
+                        starts[count++] = base + i;
+                    }
+                    isLineStart = segment.get(i) == '\n';
+                }
+                segments.add(segment);
+                bases.add(base);
+                base += limit;
+            }
+
+            // la riga fittizia inizia dopo l'a capo finale, reale o sottinteso
+            if (count == starts.length) starts = Arrays.copyOf(starts, count + 1);
+            starts[count] = size > 0 && endsWithNewline(segments.get(segments.size() - 1)) ? size : size + 1;
+
+            long[] baseArray = new long[bases.size()];
+            for (int i = 0; i < baseArray.length; i++) {
+                baseArray[i] = bases.get(i);
+            }
+            return new Lines(segments.toArray(new MappedByteBuffer[0]), baseArray, starts, count);
+        }
+
+        private static boolean endsWithNewline(MappedByteBuffer segment) {
+            return segment.limit() > 0 && segment.get(segment.limit() - 1) == '\n';
+        }
+
+        /**
+         * Restituisce la porzione che contiene una posizione del file
+         * @param position La posizione nel file
+         * @return L'indice della porzione
+         */
+        private int segmentOf(long position) {
+            int index = Arrays.binarySearch(this.bases, position);
+            return index >= 0 ? index : -index - 2;
+        }
+    }
+
+    /**
+     * Buffer di caratteri riutilizzabile, che contiene la riga da interpretare. Ogni thread ne usa uno proprio
+     */
+    private static final class LineBuffer implements CharSequence {
+        private char[] chars = new char[INITIAL_LINE];
+        private int length;
+
+        /**
+         * Copia una riga nel buffer, saltando gli spazi e gli altri caratteri di controllo. I caratteri non ASCII
+         * vengono decodificati come UTF-8
+         * @param segment La porzione del file
+         * @param from L'inizio della riga nella porzione
+         * @param to La fine della riga nella porzione (esclusa)
+         */
+        private void load(MappedByteBuffer segment, int from, int to) {
+            if (this.chars.length < to - from) this.chars = new char[to - from];
+            this.length = 0;
+            for (int i = from; i < to; i++) {
+                byte b = segment.get(i);
+                if (b < 0) {
+                    this.loadUtf8(segment, from, to);
+                    return;
+                }
+                if (b > ' ') this.chars[this.length++] = (char) b;
+            }
+        }
+
+        /**
+         * Versione più lenta di load, per le righe con caratteri non ASCII
+         */
+        private void loadUtf8(MappedByteBuffer segment, int from, int to) {
+            byte[] bytes = new byte[to - from];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = segment.get(from + i);
+            }
+            String line = new String(bytes, StandardCharsets.UTF_8);
+            this.length = 0;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (!Character.isWhitespace(c) && !Character.isISOControl(c)) this.chars[this.length++] = c;
+            }
+        }
+
+        @Override
+        public int length() {
+            return this.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return this.chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(this.chars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(this.chars, 0, this.length);
+        }
+    }
+
+    /**
+     * Task che elabora un intervallo di blocchi di righe, dividendolo a metà finché non resta un solo blocco
+     */
+    private static final class LineTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Lines lines;
+        private final OperatorTable opers;
+        private final CompiledExpression[] plans;
+        private final double[] values;
+        private final String[] errors;
+        private final int from;
+        private final int to;
+
+        private LineTask(Lines lines, OperatorTable opers, CompiledExpression[] plans, double[] values,
+                         String[] errors, int from, int to) {
+            this.lines = lines;
+            this.opers = opers;
+            this.plans = plans;
+            this.values = values;
+            this.errors = errors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > 1) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new LineTask(this.lines, this.opers, this.plans, this.values, this.errors, this.from, middle),
+                        new LineTask(this.lines, this.opers, this.plans, this.values, this.errors, middle, this.to));
+                return;
+            }
+
+            LineBuffer buffer = new LineBuffer();
+            ParseStatus status = new ParseStatus();
+            long[] starts = this.lines.starts;
+            int end = Math.min(this.lines.count, (this.from + 1) * BULK_CHUNK);
+            for (int i = this.from * BULK_CHUNK; i < end; i++) {
+                int segment = this.lines.segmentOf(starts[i]);
+                long base = this.lines.bases[segment];
+                buffer.load(this.lines.segments[segment], (int) (starts[i] - base), (int) (starts[i + 1] - 1 - base));
+                // le righe non valide vengono scartate senza creare eccezioni
+                if (this.plans != null) {
+                    CompactTree tree = IterativeParser.tryParseCompact(buffer, this.opers, status);
+                    if (tree != null) this.plans[i] = tree.compile();
+                } else {
+                    Node root = IterativeParser.tryParse(buffer, this.opers, status);
+                    if (root != null) this.values[i] = root.calcValue();
+                }
+                if (!status.isOk()) this.errors[i] = status.getMessage(buffer);
+            }
+        }
+    }
+}
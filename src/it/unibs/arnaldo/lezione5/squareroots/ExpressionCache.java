@@ -0,0 +1,146 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Classe che memorizza le espressioni già compilate, indicizzate per testo dell'espressione e tabella degli
+ * operatori, così un'espressione già vista non deve essere interpretata di nuovo.
+ * La classe è utilizzabile da più thread contemporaneamente: la lettura non richiede lock, e due thread che chiedono
+ * insieme la stessa espressione non ancora presente possono al più interpretarla entrambi (viene comunque
+ * memorizzata una sola copia).
+ * Il numero di espressioni memorizzate è limitato: superato il limite, vengono eliminate le espressioni inserite
+ * da più tempo.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public class ExpressionCache {
+    private static final String ILLEGAL_SIZE = "Illegal cache size: %d";
+
+    private final int maxSize;
+    private final ConcurrentHashMap<Key, CompiledExpression> plans;
+    // ordine di inserimento delle espressioni, per scegliere quali eliminare
+    private final ConcurrentLinkedQueue<Key> insertionOrder;
+    private final AtomicInteger size;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /**
+     * Costruttore
+     * @param maxSize Il numero massimo di espressioni memorizzate
+     * @throws IllegalArgumentException Se la dimensione non è positiva
+     */
+    public ExpressionCache(int maxSize) throws IllegalArgumentException {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException(String.format(ILLEGAL_SIZE, maxSize));
+        this.maxSize = maxSize;
+        this.plans = new ConcurrentHashMap<>();
+        this.insertionOrder = new ConcurrentLinkedQueue<>();
+        this.size = new AtomicInteger();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    /**
+     * Restituisce l'espressione compilata corrispondente al testo dato, interpretandola solo se non è già presente
+     * @param expression Il testo dell'espressione
+     * @param opers La tabella degli operatori
+     * @return L'espressione compilata
+     * @throws IllegalArgumentException Se ci sono problemi nel parsing (le espressioni non valide non vengono
+     *                                  memorizzate)
+     */
+    public CompiledExpression get(String expression, OperatorTable opers) throws IllegalArgumentException {
+        Key key = new Key(opers, opers.getVersion(), expression);
+        CompiledExpression plan = this.plans.get(key);
+        if (plan != null) {
+            this.hits.increment();
+            return plan;
+        }
+
+        // il parsing avviene fuori da qualsiasi lock, così non blocca gli altri thread
+        this.misses.increment();
+        plan = IterativeParser.parseCompact(expression, opers).compile();
+        CompiledExpression existing = this.plans.putIfAbsent(key, plan);
+        if (existing != null) return existing;
+
+        this.insertionOrder.add(key);
+        if (this.size.incrementAndGet() > this.maxSize) this.evict();
+        return plan;
+    }
+
+    /**
+     * Metodo d'appoggio che elimina le espressioni più vecchie finché non si rientra nel limite
+     */
+    private void evict() {
+        while (this.size.get() > this.maxSize) {
+            Key oldest = this.insertionOrder.poll();
+            if (oldest == null) return;
+            if (this.plans.remove(oldest) != null) this.size.decrementAndGet();
+        }
+    }
+
+    /**
+     * Svuota la cache
+     */
+    public void clear() {
+        Key key;
+        while ((key = this.insertionOrder.poll()) != null) {
+            if (this.plans.remove(key) != null) this.size.decrementAndGet();
+        }
+    }
+
+    /**
+     * Restituisce il numero di espressioni memorizzate
+     * @return Il numero di espressioni
+     */
+    public int size() {
+        return this.size.get();
+    }
+
+    /**
+     * Restituisce il numero di richieste soddisfatte senza parsing
+     * @return Il numero di richieste trovate nella cache
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Restituisce il numero di richieste che hanno richiesto il parsing dell'espressione
+     * @return Il numero di richieste non trovate nella cache
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Chiave della cache: la tabella degli operatori è confrontata per identità e versione, così dopo una modifica
+     * della tabella le espressioni vengono interpretate di nuovo (le vecchie vengono eliminate con il tempo), il testo
+     * per contenuto
+     */
+    private static final class Key {
+        private final OperatorTable opers;
+        private final int version;
+        private final String expression;
+
+        private Key(OperatorTable opers, int version, String expression) {
+            this.opers = opers;
+            this.version = version;
+            this.expression = expression;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return this.opers == k.opers && this.version == k.version && this.expression.equals(k.expression);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(this.opers) + this.version) + this.expression.hashCode();
+        }
+    }
+}
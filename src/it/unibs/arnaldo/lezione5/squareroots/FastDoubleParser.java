@@ -0,0 +1,190 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+/**
+ * Classe che converte le costanti numeriche in double, accettando le stesse stringhe di Double.parseDouble e
+ * restituendo lo stesso valore.
+ * Il caso comune (un numero decimale con al più 18 cifre significative, come "42", "-3.5" o "1e10") viene convertito
+ * direttamente dai caratteri, senza creare stringhe: se la mantissa sta esattamente in un double e l'esponente è al
+ * massimo 22 in valore assoluto, una sola moltiplicazione o divisione per una potenza di 10 (anch'essa esatta) dà il
+ * risultato arrotondato correttamente (algoritmo di Clinger). Negli altri casi si ricorre a Double.parseDouble.
+ * Le stringhe non valide vengono riconosciute senza lanciare eccezioni (tranne i rari numeri esadecimali mal formati).
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public final class FastDoubleParser {
+    private static final String ILLEGAL_NUMBER = "Illegal number: \"%s\"";
+    // valore restituito per le stringhe non valide: un NaN diverso da quello prodotto da Double.parseDouble("NaN")
+    private static final long INVALID_BITS = 0x7ff8_0000_0000_0badL;
+    private static final double INVALID = Double.longBitsToDouble(INVALID_BITS);
+    // massimo numero di cifre significative che stanno sicuramente in un long
+    private static final int MAX_DIGITS = 18;
+    // massima mantissa rappresentabile esattamente in un double
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    // limite all'esponente letto, oltre il quale il valore è comunque zero o infinito
+    private static final int MAX_EXPONENT = 100_000;
+    private static final double[] POWERS_OF_10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private FastDoubleParser() {}
+
+    /**
+     * Metodo che converte una stringa in double, come Double.parseDouble
+     * @param s La stringa da convertire
+     * @return Il valore della stringa
+     * @throws NumberFormatException Se la stringa non è un numero valido
+     */
+    public static double parseDouble(CharSequence s) throws NumberFormatException {
+        return parseDouble(s, 0, s.length());
+    }
+
+    /**
+     * Metodo che converte una parte di una stringa in double, come Double.parseDouble
+     * @param s La stringa
+     * @param start L'inizio del numero
+     * @param end La fine del numero (esclusa)
+     * @return Il valore del numero
+     * @throws NumberFormatException Se la parte di stringa non è un numero valido
+     */
+    public static double parseDouble(CharSequence s, int start, int end) throws NumberFormatException {
+        double value = parse(s, start, end);
+        if (isInvalid(value))
+            throw new NumberFormatException(String.format(ILLEGAL_NUMBER, s.subSequence(start, end)));
+        return value;
+    }
+
+    /**
+     * Metodo che controlla se una parte di una stringa è un numero valido
+     * @param s La stringa
+     * @param start L'inizio del numero
+     * @param end La fine del numero (esclusa)
+     * @return True se Double.parseDouble accetterebbe la parte di stringa
+     */
+    public static boolean isNumber(CharSequence s, int start, int end) {
+        return !isInvalid(parse(s, start, end));
+    }
+
+    /**
+     * Metodo che converte una parte di una stringa in double senza lanciare eccezioni: le stringhe non valide
+     * restituiscono un valore speciale, da controllare con isInvalid
+     * @param s La stringa
+     * @param start L'inizio del numero
+     * @param end La fine del numero (esclusa)
+     * @return Il valore del numero, oppure il valore speciale
+     */
+    static double parse(CharSequence s, int start, int end) {
+        // gli spazi iniziali e finali vengono ignorati, come in Double.parseDouble
+        while (start < end && s.charAt(start) <= ' ') start++;
+        while (end > start && s.charAt(end - 1) <= ' ') end--;
+        if (start == end) return INVALID;
+
+        int i = start;
+        boolean isNegative = false;
+        char c = s.charAt(i);
+        if (c == '+' || c == '-') {
+            isNegative = c == '-';
+            if (++i == end) return INVALID;
+            c = s.charAt(i);
+        }
+        if (c == 'N') return matches(s, i, end, "NaN") ? Double.NaN : INVALID;
+        if (c == 'I')
+            return matches(s, i, end, "Infinity") ? (isNegative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY)
+                    : INVALID;
+        if (c == '0' && i + 1 < end && (s.charAt(i + 1) == 'x' || s.charAt(i + 1) == 'X'))
+            return parseHex(s, start, end);
+
+        // mantissa: le cifre oltre la diciottesima significativa vengono scartate (e si ricorre a parseDouble)
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+        boolean isTruncated = false;
+        while (i < end && (c = s.charAt(i)) >= '0' && c <= '9') {
+            hasDigits = true;
+            if (digits < MAX_DIGITS) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0) digits++;
+            } else {
+                isTruncated |= c != '0';
+                exponent++;
+            }
+            i++;
+        }
+        if (i < end && s.charAt(i) == '.') {
+            i++;
+            while (i < end && (c = s.charAt(i)) >= '0' && c <= '9') {
+                hasDigits = true;
+                if (digits < MAX_DIGITS) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0) digits++;
+                    exponent--;
+                } else {
+                    isTruncated |= c != '0';
+                }
+                i++;
+            }
+        }
+        if (!hasDigits) return INVALID;
+
+        // esponente
+        if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            if (++i == end) return INVALID;
+            boolean isNegativeExponent = false;
+            c = s.charAt(i);
+            if (c == '+' || c == '-') {
+                isNegativeExponent = c == '-';
+                if (++i == end) return INVALID;
+            }
+            int explicit = 0;
+            boolean hasExponentDigits = false;
+            while (i < end && (c = s.charAt(i)) >= '0' && c <= '9') {
+                hasExponentDigits = true;
+                if (explicit < MAX_EXPONENT) explicit = explicit * 10 + (c - '0');
+                i++;
+            }
+            if (!hasExponentDigits) return INVALID;
+            exponent += isNegativeExponent ? -explicit : explicit;
+        }
+        // suffisso del tipo, ammesso (e ignorato) da Double.parseDouble
+        if (i < end && "fFdD".indexOf(s.charAt(i)) >= 0) i++;
+        if (i != end) return INVALID;
+
+        if (mantissa == 0 && !isTruncated) return isNegative ? -0.0 : 0.0;
+        if (isTruncated || mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22)
+            return Double.parseDouble(s.subSequence(start, end).toString());
+        double value = exponent >= 0 ? mantissa * POWERS_OF_10[exponent] : mantissa / POWERS_OF_10[-exponent];
+        return isNegative ? -value : value;
+    }
+
+    /**
+     * Controlla se un valore restituito da parse è il valore speciale delle stringhe non valide
+     * @param value Il valore restituito da parse
+     * @return True se la stringa non era valida
+     */
+    static boolean isInvalid(double value) {
+        return Double.doubleToRawLongBits(value) == INVALID_BITS;
+    }
+
+    /**
+     * Metodo d'appoggio che controlla se una parte di una stringa coincide con una parola
+     */
+    private static boolean matches(CharSequence s, int start, int end, String word) {
+        if (end - start != word.length()) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (s.charAt(start + i) != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Metodo d'appoggio per i numeri esadecimali (ad esempio "0x1p3"), lasciati a Double.parseDouble
+     */
+    private static double parseHex(CharSequence s, int start, int end) {
+        try {
+            return Double.parseDouble(s.subSequence(start, end).toString());
+        } catch (NumberFormatException e) {
+            return INVALID;
+        }
+    }
+}
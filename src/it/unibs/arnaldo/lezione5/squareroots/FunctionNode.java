@@ -0,0 +1,128 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+/**
+ * Classe che rappresenti la chiamata di una funzione (vedere MathFunction), contenente quindi la funzione e i
+ * suoi argomenti
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public class FunctionNode implements Node {
+    private OperatorTable opers;
+    private Node[] args;
+    private MathFunction function;
+    // rappresentazioni testuali memorizzate (vedere RenderCache), calcolate alla prima richiesta
+    private volatile RenderCache parenthesized;
+    private volatile RenderCache necessary;
+
+    /**
+     * Costruttore a partire da argomenti già costruiti
+     * @param args Gli argomenti (l'array viene copiato)
+     * @param function La funzione chiamata
+     * @param opers La tabella degli operatori
+     */
+    public FunctionNode(Node[] args, MathFunction function, OperatorTable opers) {
+        this.opers = opers;
+        this.function = function;
+        this.args = args.clone();
+    }
+
+    /**
+     * Restituisce il numero di argomenti
+     * @return Il numero di argomenti
+     */
+    public int getArgumentCount() {
+        return this.args.length;
+    }
+
+    /**
+     * Restituisce un argomento
+     * @param index La posizione dell'argomento
+     * @return L'argomento
+     */
+    public Node getArgument(int index) {
+        return this.args[index];
+    }
+
+    /**
+     * Getter della funzione chiamata
+     * @return La funzione
+     */
+    public MathFunction getFunction() {
+        return this.function;
+    }
+
+    /**
+     * Getter della tabella degli operatori utilizzata da questo nodo
+     * @return La tabella degli operatori
+     */
+    public OperatorTable getOperatorTable() {
+        return this.opers;
+    }
+
+    /**
+     * Metodo che genera casualmente gli argomenti, mantenendo la funzione e il numero di argomenti
+     * @param maxDepth La massima profondità dell'albero
+     */
+    @Override
+    public void randomize(int maxDepth) {
+        RenderCache.invalidateAll();
+        for (int i = 0; i < this.args.length; i++) {
+            this.args[i] = OperatorNode.randomNode(maxDepth - 1, this.opers);
+        }
+    }
+
+    /**
+     * Calcola il valore di questo nodo (vedere IterativeEvaluator)
+     * @return Il valore del nodo
+     * @throws IllegalArgumentException Se ci sono problemi nel calcolo dei valori di altri nodi
+     */
+    @Override
+    public double calcValue() throws IllegalArgumentException {
+        return IterativeEvaluator.calcValue(this);
+    }
+
+    /**
+     * Metodo che formatta con le parentesi adatte questo nodo (vedere TreePrinter). Il risultato viene memorizzato
+     * finché l'albero non viene modificato (vedere RenderCache)
+     * @return L'espressione rappresentata da questo nodo con le parentesi
+     */
+    @Override
+    public String parenthesize() {
+        String text = RenderCache.valid(this.parenthesized);
+        if (text != null) return text;
+        long generation = RenderCache.generation();
+        text = TreePrinter.parenthesize(this);
+        this.parenthesized = RenderCache.of(text, generation);
+        return text;
+    }
+
+    /**
+     * Metodo che formatta l'espressione con le sole parentesi necessarie al rispetto dell'ordine delle operazioni.
+     * Il risultato viene memorizzato finché l'albero non viene modificato (vedere RenderCache)
+     * @return La stringa formattata
+     */
+    @Override
+    public String necessaryParentheses() {
+        String text = RenderCache.valid(this.necessary);
+        if (text != null) return text;
+        long generation = RenderCache.generation();
+        text = necessaryParentheses(-1, false);
+        this.necessary = RenderCache.of(text, generation);
+        return text;
+    }
+
+    /**
+     * Metodo che formatta l'espressione con le sole parentesi necessarie. Una chiamata di funzione non richiede mai
+     * parentesi intorno, e i suoi argomenti sono già delimitati dalle parentesi della chiamata
+     * @param fatherPrecedence La precedenza dell'operatore del padre
+     * @param sameDirectionAndAssoc Parametro che è true se l'operatore ha associatività sinistra (/destra)
+     *                              e il figlio è sinistro (/destro), false altrimenti
+     * @return La stringa formattata
+     */
+    @Override
+    public String necessaryParentheses(int fatherPrecedence, boolean sameDirectionAndAssoc) {
+        StringBuilder out = new StringBuilder();
+        TreePrinter.necessaryParentheses(this, fatherPrecedence, sameDirectionAndAssoc, out);
+        return out.toString();
+    }
+}
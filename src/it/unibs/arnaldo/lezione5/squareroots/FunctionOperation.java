@@ -0,0 +1,16 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+/**
+ * Interfaccia rappresentante l'operazione di una funzione con un numero qualsiasi di argomenti (necessaria per le
+ * lambda-expression delle funzioni, vedere MathFunction)
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public interface FunctionOperation {
+    /**
+     * Metodo che calcola il risultato della funzione
+     * @param args Gli argomenti, nell'ordine in cui compaiono nell'espressione
+     * @return Il risultato
+     */
+    double calcValue(double[] args);
+}
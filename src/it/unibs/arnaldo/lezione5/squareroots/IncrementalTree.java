@@ -0,0 +1,479 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Classe che rappresenta un'espressione che viene calcolata in modo incrementale: ogni nodo memorizza il proprio
+ * valore, e quando si modifica una foglia (una costante o una variabile) vengono ricalcolati solo i nodi che ne
+ * dipendono, cioè il percorso dalla foglia alla radice. Su un albero bilanciato un aggiornamento costa quindi
+ * O(profondità) invece di O(dimensione).
+ * Le variabili sono le foglie con un nome al posto del numero (ad esempio "x" in "2 * x + 1"): tutte le occorrenze
+ * dello stesso nome sono la stessa foglia, e il valore iniziale è NaN finché non viene impostato con setVariable.
+ * Come in CompactTree, i nodi sono memorizzati in post-ordine negli array (i figli prima del padre) e i sottoalberi
+ * condivisi vengono memorizzati una volta sola; a differenza di CompactTree, ogni nodo conosce anche i propri padri.
+ * Sono supportati anche gli operatori prefissi e le chiamate di funzione.
+ * Gli aggiornamenti vengono accumulati e applicati tutti insieme alla prima lettura di un valore (calculate o
+ * getValue), quindi modificare molte foglie di seguito costa come ricalcolare una sola volta i nodi coinvolti.
+ * <b>Nota:</b> gli oggetti di questa classe non sono thread-safe.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public class IncrementalTree {
+    private static final String UNSUPPORTED_NODE = "Unsupported node type: %s";
+    private static final String UNKNOWN_VARIABLE = "Unknown variable: '%s'";
+    private static final String NOT_A_CONSTANT = "Node %d is not a constant";
+
+    // tipi dei nodi
+    private static final byte CONST = 0;
+    private static final byte VARIABLE = 1;
+    private static final byte BINARY = 2;
+    private static final byte PREFIX = 3;
+    private static final byte FUNCTION = 4;
+
+    private final int size;
+    private final byte[] kinds;
+    // operazione di ciascun nodo (Operation, UnaryOperation o FunctionOperation), null per le foglie
+    private final Object[] operations;
+    // figli e padri di ciascun nodo, memorizzati di seguito: i figli del nodo i sono
+    // children[childStart[i]] ... children[childStart[i + 1] - 1], e allo stesso modo i padri
+    private final int[] childStart;
+    private final int[] children;
+    private final int[] parentStart;
+    private final int[] parents;
+    // valore memorizzato di ciascun nodo (per le foglie, il valore impostato)
+    private final double[] values;
+    // posizione della foglia di ciascuna variabile
+    private final HashMap<String, Integer> variables;
+
+    // nodi da ricalcolare, non ancora ricalcolati
+    private int[] dirty;
+    private int dirtyCount;
+    private final boolean[] isDirty;
+
+    /**
+     * Costruttore d'appoggio: calcola i padri e tutti i valori
+     * @param kinds I tipi dei nodi
+     * @param operations Le operazioni dei nodi
+     * @param childStart L'inizio dei figli di ciascun nodo (un elemento in più del numero di nodi)
+     * @param children I figli
+     * @param values I valori delle foglie
+     * @param variables Le posizioni delle variabili
+     */
+    private IncrementalTree(byte[] kinds, Object[] operations, int[] childStart, int[] children, double[] values,
+                            HashMap<String, Integer> variables) {
+        this.size = kinds.length;
+        this.kinds = kinds;
+        this.operations = operations;
+        this.childStart = childStart;
+        this.children = children;
+        this.values = values;
+        this.variables = variables;
+
+        // padri: conto quanti padri ha ciascun nodo, poi li inserisco
+        this.parentStart = new int[this.size + 1];
+        for (int c : children) {
+            this.parentStart[c + 1]++;
+        }
+        for (int i = 0; i < this.size; i++) {
+            this.parentStart[i + 1] += this.parentStart[i];
+        }
+        this.parents = new int[children.length];
+        int[] next = Arrays.copyOf(this.parentStart, this.size);
+        for (int i = 0; i < this.size; i++) {
+            for (int j = childStart[i]; j < childStart[i + 1]; j++) {
+                this.parents[next[children[j]]++] = i;
+            }
+        }
+
+        this.dirty = new int[16];
+        this.isDirty = new boolean[this.size];
+        for (int i = 0; i < this.size; i++) {
+            this.recompute(i);
+        }
+    }
+
+    /**
+     * Metodo statico che costruisce l'espressione a partire da un albero di nodi. Le costanti che non sono numeri
+     * ma nomi validi (una lettera seguita da lettere, cifre o '_') diventano variabili
+     * @param root La radice dell'albero
+     * @return L'espressione incrementale
+     * @throws IllegalArgumentException Se l'albero contiene costanti non valide o nodi non supportati
+     */
+    public static IncrementalTree fromNode(Node root) throws IllegalArgumentException {
+        Builder builder = new Builder();
+        // associa ciascun nodo già convertito alla sua posizione negli array
+        IdentityHashMap<Node, Integer> indexes = new IdentityHashMap<>();
+
+        // visita iterativa in post-ordine, così i figli vengono inseriti prima del padre
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.peek();
+            if (indexes.containsKey(node)) {
+                stack.pop();
+                continue;
+            }
+
+            int arity = InnerNodes.arity(node);
+            if (arity < 0) {
+                stack.pop();
+                if (!(node instanceof ConstNode))
+                    throw new IllegalArgumentException(String.format(UNSUPPORTED_NODE, node.getClass().getSimpleName()));
+                indexes.put(node, builder.leaf((ConstNode) node));
+                continue;
+            }
+
+            // i figli non ancora convertiti vanno in pila, il primo in cima così viene inserito per primo
+            boolean isReady = true;
+            for (int i = arity - 1; i >= 0; i--) {
+                Node child = InnerNodes.child(node, i);
+                if (!indexes.containsKey(child)) {
+                    stack.push(child);
+                    isReady = false;
+                }
+            }
+            if (!isReady) continue;
+
+            stack.pop();
+            int[] nodeChildren = new int[arity];
+            for (int i = 0; i < arity; i++) {
+                nodeChildren[i] = indexes.get(InnerNodes.child(node, i));
+            }
+            indexes.put(node, builder.inner(node, nodeChildren));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Metodo statico che costruisce l'espressione a partire da una stringa (vedere IterativeParser)
+     * @param s La stringa da interpretare
+     * @param opers La tabella degli operatori
+     * @return L'espressione incrementale
+     * @throws IllegalArgumentException Se ci sono problemi nel parsing
+     */
+    public static IncrementalTree parse(String s, OperatorTable opers) throws IllegalArgumentException {
+        return fromNode(IterativeParser.parse(s, opers));
+    }
+
+    /**
+     * Metodo statico che costruisce l'espressione a partire da un albero compatto, senza passare dai nodi (utile per
+     * alberi molto grandi)
+     * @param tree L'albero compatto
+     * @return L'espressione incrementale
+     */
+    public static IncrementalTree fromCompact(CompactTree tree) {
+        int size = tree.getSize();
+        byte[] kinds = new byte[size];
+        Object[] operations = new Object[size];
+        int[] childStart = new int[size + 1];
+        double[] values = new double[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            childStart[i] = count;
+            if (tree.getOpcode(i) == CompactTree.CONST) {
+                kinds[i] = CONST;
+                values[i] = tree.getValue(i);
+            } else {
+                kinds[i] = BINARY;
+                operations[i] = tree.getOperatorTable().get(tree.getOpcode(i)).getOperation();
+                count += 2;
+            }
+        }
+        childStart[size] = count;
+        int[] children = new int[count];
+        for (int i = 0; i < size; i++) {
+            if (kinds[i] == BINARY) {
+                children[childStart[i]] = tree.getLeft(i);
+                children[childStart[i] + 1] = tree.getRight(i);
+            }
+        }
+        return new IncrementalTree(kinds, operations, childStart, children, values, new HashMap<>());
+    }
+
+    /**
+     * Restituisce il numero di nodi
+     * @return Il numero di nodi
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Restituisce la posizione della radice
+     * @return La posizione della radice (l'ultimo nodo)
+     */
+    public int getRoot() {
+        return this.size - 1;
+    }
+
+    /**
+     * Controlla se un nodo è una costante (e può quindi essere modificato con setConstant)
+     * @param node La posizione del nodo
+     * @return True se il nodo è una costante
+     */
+    public boolean isConstant(int node) {
+        return this.kinds[node] == CONST;
+    }
+
+    /**
+     * Restituisce i nomi delle variabili
+     * @return I nomi delle variabili (insieme non modificabile)
+     */
+    public Set<String> getVariables() {
+        return Collections.unmodifiableSet(this.variables.keySet());
+    }
+
+    /**
+     * Restituisce una vista delle variabili con i loro valori attuali
+     * @return Una mappa (non modificabile) dal nome della variabile al suo valore
+     */
+    public Map<String, Double> getVariableValues() {
+        HashMap<String, Double> out = new HashMap<>();
+        for (Map.Entry<String, Integer> e : this.variables.entrySet()) {
+            out.put(e.getKey(), this.values[e.getValue()]);
+        }
+        return Collections.unmodifiableMap(out);
+    }
+
+    /**
+     * Restituisce la posizione della foglia di una variabile
+     * @param name Il nome della variabile
+     * @return La posizione della foglia, -1 se la variabile non è presente
+     */
+    public int getVariableNode(String name) {
+        Integer node = this.variables.get(name);
+        return node == null ? -1 : node;
+    }
+
+    /**
+     * Restituisce le posizioni dei figli di un nodo
+     * @param node La posizione del nodo
+     * @return Le posizioni dei figli, nell'ordine in cui compaiono nell'espressione
+     */
+    public int[] getChildren(int node) {
+        return Arrays.copyOfRange(this.children, this.childStart[node], this.childStart[node + 1]);
+    }
+
+    /**
+     * Restituisce le posizioni dei padri di un nodo (più di uno se il nodo è condiviso)
+     * @param node La posizione del nodo
+     * @return Le posizioni dei padri
+     */
+    public int[] getParents(int node) {
+        return Arrays.copyOfRange(this.parents, this.parentStart[node], this.parentStart[node + 1]);
+    }
+
+    /**
+     * Modifica il valore di una costante
+     * @param node La posizione della costante
+     * @param value Il nuovo valore
+     * @throws IllegalArgumentException Se il nodo non è una costante
+     */
+    public void setConstant(int node, double value) throws IllegalArgumentException {
+        if (this.kinds[node] != CONST)
+            throw new IllegalArgumentException(String.format(NOT_A_CONSTANT, node));
+        this.setLeaf(node, value);
+    }
+
+    /**
+     * Modifica il valore di una variabile
+     * @param name Il nome della variabile
+     * @param value Il nuovo valore
+     * @throws IllegalArgumentException Se la variabile non è presente
+     */
+    public void setVariable(String name, double value) throws IllegalArgumentException {
+        Integer node = this.variables.get(name);
+        if (node == null)
+            throw new IllegalArgumentException(String.format(UNKNOWN_VARIABLE, name));
+        this.setLeaf(node, value);
+    }
+
+    /**
+     * Restituisce il valore di un nodo, applicando prima gli aggiornamenti in sospeso
+     * @param node La posizione del nodo
+     * @return Il valore del nodo
+     */
+    public double getValue(int node) {
+        this.flush();
+        return this.values[node];
+    }
+
+    /**
+     * Calcola il valore dell'espressione, ricalcolando solo i nodi che dipendono dalle foglie modificate
+     * @return Il valore dell'espressione
+     */
+    public double calculate() {
+        return this.getValue(this.size - 1);
+    }
+
+    /**
+     * Metodo d'appoggio che modifica una foglia e segna come da ricalcolare tutti i nodi che ne dipendono. La visita
+     * si ferma ai nodi già segnati, perché i loro antenati lo sono già
+     * @param leaf La posizione della foglia
+     * @param value Il nuovo valore
+     */
+    private void setLeaf(int leaf, double value) {
+        if (Double.doubleToLongBits(this.values[leaf]) == Double.doubleToLongBits(value)) return;
+        this.values[leaf] = value;
+
+        int start = this.dirtyCount;
+        this.markParents(leaf);
+        // i nodi appena segnati fanno da pila: per ciascuno si segnano i padri
+        for (int i = start; i < this.dirtyCount; i++) {
+            this.markParents(this.dirty[i]);
+        }
+    }
+
+    /**
+     * Metodo d'appoggio che segna come da ricalcolare i padri di un nodo
+     * @param node La posizione del nodo
+     */
+    private void markParents(int node) {
+        for (int j = this.parentStart[node]; j < this.parentStart[node + 1]; j++) {
+            int parent = this.parents[j];
+            if (this.isDirty[parent]) continue;
+            this.isDirty[parent] = true;
+            if (this.dirtyCount == this.dirty.length) this.dirty = Arrays.copyOf(this.dirty, this.dirtyCount * 2);
+            this.dirty[this.dirtyCount++] = parent;
+        }
+    }
+
+    /**
+     * Metodo d'appoggio che ricalcola i nodi segnati. I nodi sono in post-ordine, quindi ricalcolandoli in ordine di
+     * posizione ogni nodo viene ricalcolato dopo i suoi figli
+     */
+    private void flush() {
+        if (this.dirtyCount == 0) return;
+        Arrays.sort(this.dirty, 0, this.dirtyCount);
+        for (int i = 0; i < this.dirtyCount; i++) {
+            int node = this.dirty[i];
+            this.recompute(node);
+            this.isDirty[node] = false;
+        }
+        this.dirtyCount = 0;
+    }
+
+    /**
+     * Metodo d'appoggio che ricalcola il valore di un nodo dai valori dei figli
+     * @param node La posizione del nodo
+     */
+    private void recompute(int node) {
+        int first = this.childStart[node];
+        switch (this.kinds[node]) {
+            case BINARY:
+                this.values[node] = ((Operation) this.operations[node]).calcValue(
+                        this.values[this.children[first]], this.values[this.children[first + 1]]);
+                break;
+            case PREFIX:
+                this.values[node] = ((UnaryOperation) this.operations[node]).calcValue(
+                        this.values[this.children[first]]);
+                break;
+            case FUNCTION:
+                double[] args = new double[this.childStart[node + 1] - first];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = this.values[this.children[first + i]];
+                }
+                this.values[node] = ((FunctionOperation) this.operations[node]).calcValue(args);
+                break;
+            default:
+                // le foglie hanno già il loro valore
+        }
+    }
+
+    /**
+     * Oggetto d'appoggio che accumula i nodi durante la conversione da un albero di nodi
+     */
+    private static final class Builder {
+        private byte[] kinds = new byte[16];
+        private Object[] operations = new Object[16];
+        private int[] childStart = new int[17];
+        private int[] children = new int[16];
+        private double[] values = new double[16];
+        private final HashMap<String, Integer> variables = new HashMap<>();
+        private int size;
+        private int childCount;
+
+        /**
+         * Aggiunge una foglia: una costante, oppure una variabile se la costante è un nome
+         * @param node La costante
+         * @return La posizione della foglia
+         * @throws IllegalArgumentException Se la costante non è valida
+         */
+        private int leaf(ConstNode node) throws IllegalArgumentException {
+            String name = node.getConstant() == null ? null : node.getConstant().trim();
+            if (isName(name)) {
+                // tutte le occorrenze della stessa variabile sono la stessa foglia
+                Integer existing = this.variables.get(name);
+                if (existing != null) return existing;
+                int index = this.add(VARIABLE, null, Double.NaN, new int[0]);
+                this.variables.put(name, index);
+                return index;
+            }
+            return this.add(CONST, null, node.calcValue(), new int[0]);
+        }
+
+        /**
+         * Aggiunge un nodo con figli
+         * @param node Il nodo originale
+         * @param nodeChildren Le posizioni dei figli, già aggiunti
+         * @return La posizione del nodo
+         */
+        private int inner(Node node, int[] nodeChildren) {
+            if (node instanceof OperatorNode)
+                return this.add(BINARY, ((OperatorNode) node).getOperator().getOperation(), 0, nodeChildren);
+            if (node instanceof PrefixNode)
+                return this.add(PREFIX, ((PrefixNode) node).getOperator().getOperation(), 0, nodeChildren);
+            return this.add(FUNCTION, ((FunctionNode) node).getFunction().getOperation(), 0, nodeChildren);
+        }
+
+        private int add(byte kind, Object operation, double value, int[] nodeChildren) {
+            if (this.size == this.kinds.length) {
+                int capacity = this.size * 2;
+                this.kinds = Arrays.copyOf(this.kinds, capacity);
+                this.operations = Arrays.copyOf(this.operations, capacity);
+                this.childStart = Arrays.copyOf(this.childStart, capacity + 1);
+                this.values = Arrays.copyOf(this.values, capacity);
+            }
+            while (this.childCount + nodeChildren.length > this.children.length) {
+                this.children = Arrays.copyOf(this.children, this.children.length * 2);
+            }
+            System.arraycopy(nodeChildren, 0, this.children, this.childCount, nodeChildren.length);
+            this.childCount += nodeChildren.length;
+
+            this.kinds[this.size] = kind;
+            this.operations[this.size] = operation;
+            this.values[this.size] = value;
+            this.childStart[this.size + 1] = this.childCount;
+            return this.size++;
+        }
+
+        private IncrementalTree build() {
+            int[] childStart = Arrays.copyOf(this.childStart, this.size + 1);
+            return new IncrementalTree(Arrays.copyOf(this.kinds, this.size), Arrays.copyOf(this.operations, this.size),
+                    childStart, Arrays.copyOf(this.children, this.childCount), Arrays.copyOf(this.values, this.size),
+                    this.variables);
+        }
+
+        /**
+         * Controlla se una stringa è un nome di variabile valido
+         * @param s La stringa
+         * @return True se la stringa è una lettera seguita da lettere, cifre o '_'
+         */
+        private static boolean isName(String s) {
+            if (s == null || s.isEmpty() || !Character.isLetter(s.charAt(0))) return false;
+            // "Infinity" e "NaN" sono costanti numeriche valide
+            if (s.equals("Infinity") || s.equals("NaN")) return false;
+            for (int i = 1; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (!Character.isLetterOrDigit(c) && c != '_') return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+/**
+ * Metodi d'appoggio per visitare in modo uniforme i nodi con figli (operatori binari, operatori prefissi e chiamate
+ * di funzione), usati dalle visite iterative
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+final class InnerNodes {
+    private InnerNodes() {}
+
+    /**
+     * Restituisce il numero di figli di un nodo
+     * @param node Il nodo
+     * @return Il numero di figli, -1 se il nodo è una foglia (ad esempio una costante)
+     */
+    static int arity(Node node) {
+        if (node instanceof OperatorNode) return 2;
+        if (node instanceof PrefixNode) return 1;
+        if (node instanceof FunctionNode) return ((FunctionNode) node).getArgumentCount();
+        return -1;
+    }
+
+    /**
+     * Restituisce un figlio di un nodo, nell'ordine in cui compare nell'espressione
+     * @param node Il nodo
+     * @param index La posizione del figlio
+     * @return Il figlio
+     */
+    static Node child(Node node, int index) {
+        if (node instanceof OperatorNode) {
+            OperatorNode operNode = (OperatorNode) node;
+            return index == 0 ? operNode.getLeftChild() : operNode.getRightChild();
+        }
+        if (node instanceof PrefixNode) return ((PrefixNode) node).getOperand();
+        return ((FunctionNode) node).getArgument(index);
+    }
+
+    /**
+     * Calcola il valore di un nodo dati i valori dei figli, memorizzati in posizioni consecutive di un array
+     * @param node Il nodo
+     * @param values L'array dei valori
+     * @param from La posizione del valore del primo figlio
+     * @return Il valore del nodo
+     */
+    static double apply(Node node, double[] values, int from) {
+        if (node instanceof OperatorNode)
+            return ((OperatorNode) node).getOperator().getOperation().calcValue(values[from], values[from + 1]);
+        if (node instanceof PrefixNode)
+            return ((PrefixNode) node).getOperator().getOperation().calcValue(values[from]);
+        FunctionNode function = (FunctionNode) node;
+        double[] args = new double[function.getArgumentCount()];
+        System.arraycopy(values, from, args, 0, args.length);
+        return function.getFunction().getOperation().calcValue(args);
+    }
+}
@@ -0,0 +1,127 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.util.Arrays;
+
+/**
+ * Classe che calcola il valore di un albero di nodi senza ricorsione: i nodi da visitare e i risultati parziali
+ * sono tenuti in pile esplicite (array di tipi primitivi per i valori), quindi la profondità dell'albero è limitata
+ * solo dalla memoria disponibile.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public final class IterativeEvaluator {
+    private static final int INITIAL_STACK = 32;
+    // profondità oltre la quale si abbandona la ricorsione: abbastanza bassa da non esaurire lo stack
+    private static final int MAX_RECURSION_DEPTH = 256;
+
+    private IterativeEvaluator() {}
+
+    /**
+     * Metodo che calcola il valore dell'albero con radice data. L'ordine di calcolo è lo stesso della versione
+     * ricorsiva (prima il figlio sinistro, poi il destro), quindi anche il risultato è identico.
+     * I primi livelli dell'albero vengono calcolati con la ricorsione, che per alberi bilanciati è la soluzione più
+     * veloce; oltre una certa profondità si passa alla pila esplicita
+     * @param root La radice dell'albero
+     * @return Il valore dell'albero
+     * @throws IllegalArgumentException Se ci sono problemi nelle costanti numeriche
+     */
+    public static double calcValue(Node root) throws IllegalArgumentException {
+        return calcValue(root, 0);
+    }
+
+    /**
+     * Metodo d'appoggio ricorsivo, con profondità limitata
+     * @param node La radice del sottoalbero
+     * @param depth La profondità del sottoalbero rispetto alla radice dell'albero
+     * @return Il valore del sottoalbero
+     * @throws IllegalArgumentException Se ci sono problemi nelle costanti numeriche
+     */
+    private static double calcValue(Node node, int depth) throws IllegalArgumentException {
+        if (!(node instanceof OperatorNode)) {
+            if (InnerNodes.arity(node) < 0) return node.calcValue();
+            if (depth >= MAX_RECURSION_DEPTH) return iterativeCalcValue(node);
+            return calcOther(node, depth);
+        }
+        if (depth >= MAX_RECURSION_DEPTH) return iterativeCalcValue(node);
+
+        OperatorNode operNode = (OperatorNode) node;
+        Node left = operNode.getLeftChild();
+        Node right = operNode.getRightChild();
+        // le costanti vengono calcolate direttamente, senza un'ulteriore chiamata ricorsiva
+        double l = left instanceof ConstNode ? left.calcValue() : calcValue(left, depth + 1);
+        double r = right instanceof ConstNode ? right.calcValue() : calcValue(right, depth + 1);
+        return operNode.getOperator().getOperation().calcValue(l, r);
+    }
+
+    /**
+     * Metodo d'appoggio ricorsivo per gli operatori prefissi e le chiamate di funzione
+     * @param node La radice del sottoalbero
+     * @param depth La profondità del sottoalbero rispetto alla radice dell'albero
+     * @return Il valore del sottoalbero
+     * @throws IllegalArgumentException Se ci sono problemi nelle costanti numeriche
+     */
+    private static double calcOther(Node node, int depth) throws IllegalArgumentException {
+        if (node instanceof PrefixNode) {
+            PrefixNode prefixNode = (PrefixNode) node;
+            return prefixNode.getOperator().getOperation().calcValue(calcValue(prefixNode.getOperand(), depth + 1));
+        }
+        FunctionNode function = (FunctionNode) node;
+        double[] args = new double[function.getArgumentCount()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = calcValue(function.getArgument(i), depth + 1);
+        }
+        return function.getFunction().getOperation().calcValue(args);
+    }
+
+    /**
+     * Metodo d'appoggio che calcola il valore di un sottoalbero con una pila esplicita. Per ogni nodo nella pila si
+     * ricorda quale figlio visitare: quando sono stati visitati tutti, i loro valori sono in cima alla pila dei valori
+     * @param root La radice del sottoalbero
+     * @return Il valore del sottoalbero
+     * @throws IllegalArgumentException Se ci sono problemi nelle costanti numeriche
+     */
+    private static double iterativeCalcValue(Node root) throws IllegalArgumentException {
+
+        Node[] nodes = new Node[INITIAL_STACK];
+        int[] states = new int[INITIAL_STACK];
+        double[] values = new double[INITIAL_STACK];
+        int nodesTop = 0;
+        int valuesTop = 0;
+
+        nodes[nodesTop] = root;
+        states[nodesTop++] = 0;
+        while (nodesTop > 0) {
+            Node node = nodes[nodesTop - 1];
+            int state = states[nodesTop - 1];
+            int arity = node instanceof OperatorNode ? 2 : InnerNodes.arity(node);
+            if (state == arity) {
+                // tutti i figli sono stati calcolati: i loro valori sono in cima alla pila
+                valuesTop -= arity;
+                double value = node instanceof OperatorNode
+                        ? ((OperatorNode) node).getOperator().getOperation().calcValue(values[valuesTop],
+                                values[valuesTop + 1])
+                        : InnerNodes.apply(node, values, valuesTop);
+                if (valuesTop == values.length) values = Arrays.copyOf(values, valuesTop * 2);
+                values[valuesTop++] = value;
+                nodesTop--;
+                continue;
+            }
+
+            states[nodesTop - 1]++;
+            Node child = InnerNodes.child(node, state);
+            if (child instanceof ConstNode || InnerNodes.arity(child) < 0) {
+                // le foglie vengono calcolate direttamente, senza passare dalla pila dei nodi
+                if (valuesTop == values.length) values = Arrays.copyOf(values, valuesTop * 2);
+                values[valuesTop++] = child.calcValue();
+            } else {
+                if (nodesTop == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, nodesTop * 2);
+                    states = Arrays.copyOf(states, nodesTop * 2);
+                }
+                nodes[nodesTop] = child;
+                states[nodesTop++] = 0;
+            }
+        }
+        return values[0];
+    }
+}
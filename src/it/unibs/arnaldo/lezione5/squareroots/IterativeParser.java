@@ -0,0 +1,489 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Classe che effettua il parsing di un'espressione senza ricorsione, con l'algoritmo "shunting-yard": la stringa
+ * viene letta una sola volta da sinistra a destra, e gli operatori in attesa vengono tenuti in una pila esplicita.
+ * A differenza di NodeParser, la profondità dell'espressione (parentesi annidate, lunghe catene "1+1+1+...") è
+ * limitata solo dalla memoria disponibile e il tempo di parsing è lineare nella lunghezza della stringa.
+ * Il risultato coincide con quello di NodeParser per le espressioni corrette; alcune espressioni mal formate
+ * (ad esempio "2(3)") vengono segnalate già durante il parsing invece che al momento del calcolo.
+ * Oltre agli operatori binari, il parser riconosce gli operatori prefissi (ad esempio "-3", vedere PrefixOperator) e
+ * le chiamate di funzione (ad esempio "max(1, 2)", vedere MathFunction) presenti nella tabella degli operatori;
+ * questi elementi non sono supportati dalla forma compatta.
+ * Oltre ai metodi che lanciano un'eccezione, sono disponibili tryParse, tryParseCompact e validate, che segnalano gli
+ * errori in un oggetto ParseStatus senza creare eccezioni né messaggi: sono pensati per input in gran parte non
+ * valido, dove la creazione delle eccezioni (con la loro stack trace) occuperebbe la maggior parte del tempo. In
+ * questi metodi le costanti vengono convertite subito (con FastDoubleParser), quindi una costante non valida è un
+ * errore di parsing.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public final class IterativeParser {
+    private static final int INITIAL_STACK = 16;
+
+    // tipi degli elementi nella pila: parentesi aperta, operatore binario, operatore prefisso, chiamata di funzione
+    private static final byte PAREN = 0;
+    private static final byte BINARY = 1;
+    private static final byte PREFIX = 2;
+    private static final byte FUNCTION = 3;
+
+    private IterativeParser() {}
+
+    /**
+     * Metodo che effettua il parsing di una stringa, restituendo un albero di nodi
+     * @param s La stringa da interpretare
+     * @param opers La tabella degli operatori
+     * @return Il nodo radice di questa espressione
+     * @throws IllegalArgumentException Se ci sono problemi nel parsing
+     */
+    public static Node parse(CharSequence s, OperatorTable opers) throws IllegalArgumentException {
+        ParseStatus status = new ParseStatus();
+        NodeBuilder builder = new NodeBuilder(opers, status, false);
+        if (!parse(s, opers, builder, status))
+            throw status.toException(s);
+        return builder.nodes.pop();
+    }
+
+    /**
+     * Metodo che effettua il parsing di una stringa, scrivendo direttamente l'albero in forma compatta.
+     * Le costanti vengono convertite subito, quindi le costanti non valide generano un errore di parsing
+     * @param s La stringa da interpretare
+     * @param opers La tabella degli operatori
+     * @return L'albero compatto di questa espressione
+     * @throws IllegalArgumentException Se ci sono problemi nel parsing
+     */
+    public static CompactTree parseCompact(CharSequence s, OperatorTable opers) throws IllegalArgumentException {
+        ParseStatus status = new ParseStatus();
+        CompactBuilder builder = new CompactBuilder(opers, s.length(), status);
+        if (!parse(s, opers, builder, status))
+            throw status.toException(s);
+        return builder.tree;
+    }
+
+    /**
+     * Metodo che effettua il parsing di una stringa senza lanciare eccezioni, restituendo un albero di nodi. Le
+     * costanti vengono convertite subito, quindi le costanti non valide generano un errore di parsing
+     * @param s La stringa da interpretare
+     * @param opers La tabella degli operatori
+     * @param status L'oggetto in cui registrare l'eventuale errore (viene prima riportato allo stato iniziale)
+     * @return Il nodo radice di questa espressione, null in caso di errore
+     */
+    public static Node tryParse(CharSequence s, OperatorTable opers, ParseStatus status) {
+        status.reset();
+        NodeBuilder builder = new NodeBuilder(opers, status, true);
+        return parse(s, opers, builder, status) ? builder.nodes.pop() : null;
+    }
+
+    /**
+     * Metodo che effettua il parsing di una stringa senza lanciare eccezioni, scrivendo direttamente l'albero in forma
+     * compatta
+     * @param s La stringa da interpretare
+     * @param opers La tabella degli operatori
+     * @param status L'oggetto in cui registrare l'eventuale errore (viene prima riportato allo stato iniziale)
+     * @return L'albero compatto di questa espressione, null in caso di errore
+     */
+    public static CompactTree tryParseCompact(CharSequence s, OperatorTable opers, ParseStatus status) {
+        status.reset();
+        CompactBuilder builder = new CompactBuilder(opers, s.length(), status);
+        return parse(s, opers, builder, status) ? builder.tree : null;
+    }
+
+    /**
+     * Metodo che controlla se una stringa è un'espressione valida, senza costruire alcun albero e senza lanciare
+     * eccezioni. Le costanti devono essere numeri validi
+     * @param s La stringa da controllare
+     * @param opers La tabella degli operatori
+     * @param status L'oggetto in cui registrare l'eventuale errore (viene prima riportato allo stato iniziale)
+     * @return True se l'espressione è valida
+     */
+    public static boolean validate(CharSequence s, OperatorTable opers, ParseStatus status) {
+        status.reset();
+        return parse(s, opers, new ValidationBuilder(status), status);
+    }
+
+    /**
+     * Metodo che effettua il parsing vero e proprio: costanti e operatori vengono passati al builder in notazione
+     * polacca inversa (prima gli operandi, poi l'operatore o la funzione). Gli errori vengono registrati in status,
+     * e il parsing si interrompe al primo errore (del parser o del builder)
+     * @param s La stringa da interpretare
+     * @param opers La tabella degli operatori
+     * @param builder L'oggetto che costruisce il risultato
+     * @param status L'oggetto in cui registrare l'eventuale errore
+     * @return True se il parsing è andato a buon fine
+     */
+    private static boolean parse(CharSequence s, OperatorTable opers, Builder builder, ParseStatus status) {
+        // pila degli elementi in attesa: per ciascuno il tipo, l'oggetto (operatore o funzione), la precedenza (letta
+        // una sola volta, all'inserimento) e, per le funzioni, il numero di argomenti già letti
+        Stack stack = new Stack();
+
+        // true se il prossimo elemento deve essere un operando (all'inizio, dopo un operatore o una parentesi aperta)
+        boolean expectOperand = true;
+        char lastUseful = 0; // ricorda il carattere precedente (se è parentesi o virgola), zero altrimenti
+        int length = s.length();
+        int pos = 0;
+        while (pos < length) {
+            char c = s.charAt(pos);
+            if (c == '(') {
+                // non sono ammesse parentesi aperte dopo una parentesi chiusa o un operando
+                if (lastUseful == ')' || !expectOperand)
+                    return illegalParenthesis(status, pos);
+                stack.push(PAREN, null, 0);
+                lastUseful = c;
+                pos++;
+                continue;
+            }
+            if (c == ')') {
+                int top = stack.top;
+                if (lastUseful == '(') {
+                    // una parentesi chiusa subito dopo una aperta è ammessa solo per le funzioni senza argomenti
+                    if (top == 0 || stack.kinds[top - 1] != FUNCTION)
+                        return illegalParenthesis(status, pos);
+                    if (!callFunction(pos, stack, builder, status, 0)) return false;
+                } else {
+                    // un operatore senza operando destro, come in "(2+)": l'operando è vuoto, come in NodeParser
+                    if (expectOperand && !builder.constant(s, pos, pos)) return false;
+                    // scarico gli operatori fino alla parentesi aperta corrispondente
+                    if (!popOperators(stack, builder)) return false;
+                    // vengono chiuse più parentesi di quante ne vengano aperte
+                    if (stack.top == 0)
+                        return illegalParenthesis(status, pos);
+                    if (stack.kinds[stack.top - 1] == FUNCTION) {
+                        if (!callFunction(pos, stack, builder, status, stack.args[stack.top - 1] + 1)) return false;
+                    } else {
+                        stack.top--;
+                    }
+                }
+                expectOperand = false;
+                lastUseful = c;
+                pos++;
+                continue;
+            }
+            if (c == ',') {
+                // un argomento vuoto, come in "max(1,)": l'operando è vuoto
+                if (expectOperand && !builder.constant(s, pos, pos)) return false;
+                if (!popOperators(stack, builder)) return false;
+                // la virgola è ammessa solo fra gli argomenti di una funzione
+                if (stack.top == 0 || stack.kinds[stack.top - 1] != FUNCTION)
+                    return status.fail(ParseStatus.Kind.ILLEGAL_SEPARATOR, pos, pos, 0, null);
+                stack.args[stack.top - 1]++;
+                expectOperand = true;
+                lastUseful = c;
+                pos++;
+                continue;
+            }
+            lastUseful = 0;
+
+            if (expectOperand) {
+                // dove è atteso un operando, un operatore prefisso ha la priorità su quello binario
+                PrefixOperator prefix = opers.bestPrefixMatch(s, pos);
+                if (prefix != null) {
+                    stack.push(PREFIX, prefix, prefix.getPrecedence());
+                    pos += prefix.getIdLength();
+                    continue;
+                }
+            }
+
+            Operator match = opers.bestMatch(s, pos);
+            if (match != null) {
+                // operatore senza operando sinistro (es: "*3"): l'operando è vuoto, come in NodeParser
+                if (expectOperand && !builder.constant(s, pos, pos)) return false;
+
+                // scarico gli operatori che vanno calcolati prima di quello appena letto: quelli con precedenza
+                // maggiore e, se l'associatività è sinistra, anche quelli con la stessa precedenza. Gli operatori
+                // prefissi vengono scaricati anche a parità di precedenza, perché si applicano all'operando che li
+                // segue
+                int precedence = match.getPrecedence();
+                boolean isLeftAssoc = match.hasLeftAssociativity();
+                while (stack.top > 0) {
+                    int top = stack.top - 1;
+                    byte kind = stack.kinds[top];
+                    if (kind == PAREN || kind == FUNCTION) break;
+                    int topPrecedence = stack.precedences[top];
+                    if (topPrecedence < precedence || (topPrecedence == precedence && kind == BINARY && !isLeftAssoc))
+                        break;
+                    if (!emit(stack, builder)) return false;
+                }
+                stack.push(BINARY, match, precedence);
+                expectOperand = true;
+                pos += match.getIdLength();
+                continue;
+            }
+
+            // un operando subito dopo una parentesi chiusa, come in "(2)3"
+            if (!expectOperand)
+                return illegalParenthesis(status, pos);
+
+            // l'operando prosegue fino alla prossima parentesi, virgola o al prossimo operatore
+            int start = pos;
+            pos++;
+            while (pos < length) {
+                char next = s.charAt(pos);
+                if (next == '(' || next == ')' || next == ',' || opers.bestMatch(s, pos) != null) break;
+                pos++;
+            }
+
+            // un nome seguito da una parentesi aperta è una chiamata di funzione
+            if (pos < length && s.charAt(pos) == '(') {
+                String name = s.subSequence(start, pos).toString().trim();
+                MathFunction function = opers.getFunction(name);
+                if (function == null) {
+                    if (!name.isEmpty() && Character.isLetter(name.charAt(0)))
+                        return status.fail(ParseStatus.Kind.UNKNOWN_FUNCTION, start, pos, 0, null);
+                    return illegalParenthesis(status, pos);
+                }
+                stack.push(FUNCTION, function, 0);
+                lastUseful = '(';
+                pos++;
+                continue;
+            }
+            if (!builder.constant(s, start, pos)) return false;
+            expectOperand = false;
+        }
+
+        // espressione vuota o terminata da un operatore: l'ultimo operando è vuoto
+        if (expectOperand && !builder.constant(s, length, length)) return false;
+        while (stack.top > 0) {
+            byte kind = stack.kinds[stack.top - 1];
+            // parentesi aperta (o chiamata di funzione) mai chiusa
+            if (kind == PAREN || kind == FUNCTION)
+                return illegalParenthesis(status, length);
+            if (!emit(stack, builder)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Metodo d'appoggio che scarica tutti gli operatori fino alla prima parentesi aperta (o chiamata di funzione)
+     * @param stack La pila degli elementi in attesa
+     * @param builder L'oggetto che costruisce il risultato
+     * @return False se il builder ha segnalato un errore
+     */
+    private static boolean popOperators(Stack stack, Builder builder) {
+        while (stack.top > 0) {
+            byte kind = stack.kinds[stack.top - 1];
+            if (kind == PAREN || kind == FUNCTION) break;
+            if (!emit(stack, builder)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Metodo d'appoggio che toglie l'operatore in cima alla pila e lo passa al builder
+     * @param stack La pila degli elementi in attesa
+     * @param builder L'oggetto che costruisce il risultato
+     * @return False se il builder ha segnalato un errore
+     */
+    private static boolean emit(Stack stack, Builder builder) {
+        int top = --stack.top;
+        Object item = stack.items[top];
+        stack.items[top] = null;
+        if (stack.kinds[top] == BINARY)
+            return builder.operator((Operator) item);
+        return builder.prefix((PrefixOperator) item);
+    }
+
+    /**
+     * Metodo d'appoggio che chiude la chiamata di funzione in cima alla pila, controllando il numero di argomenti
+     * @param pos La posizione della parentesi chiusa
+     * @param stack La pila degli elementi in attesa
+     * @param builder L'oggetto che costruisce il risultato
+     * @param status L'oggetto in cui registrare l'eventuale errore
+     * @param args Il numero di argomenti
+     * @return False se la funzione non accetta quel numero di argomenti o il builder ha segnalato un errore
+     */
+    private static boolean callFunction(int pos, Stack stack, Builder builder, ParseStatus status, int args) {
+        int top = --stack.top;
+        MathFunction function = (MathFunction) stack.items[top];
+        stack.items[top] = null;
+        if (!function.acceptsArgs(args))
+            return status.fail(ParseStatus.Kind.WRONG_ARGUMENTS, pos, pos, args, function);
+        return builder.function(function, args);
+    }
+
+    /**
+     * Metodo d'appoggio che registra un errore nelle parentesi
+     * @param status L'oggetto in cui registrare l'errore
+     * @param pos La posizione dell'errore
+     * @return Sempre false
+     */
+    private static boolean illegalParenthesis(ParseStatus status, int pos) {
+        return status.fail(ParseStatus.Kind.ILLEGAL_PARENTHESIS, pos, pos, 0, null);
+    }
+
+    /**
+     * Oggetto che riceve costanti e operatori in notazione polacca inversa e costruisce il risultato del parsing.
+     * Ogni metodo restituisce false (dopo aver registrato l'errore) se l'elemento non può essere accettato
+     */
+    private interface Builder {
+        boolean constant(CharSequence s, int start, int end);
+        boolean operator(Operator oper);
+        boolean prefix(PrefixOperator oper);
+        boolean function(MathFunction function, int args);
+    }
+
+    /**
+     * Pila degli elementi in attesa, con un array per ciascun campo: la precedenza viene letta direttamente
+     * dall'array di interi, senza passare dagli oggetti
+     */
+    private static final class Stack {
+        private byte[] kinds = new byte[INITIAL_STACK];
+        private Object[] items = new Object[INITIAL_STACK];
+        private int[] precedences = new int[INITIAL_STACK];
+        private int[] args = new int[INITIAL_STACK];
+        private int top;
+
+        private void push(byte kind, Object item, int precedence) {
+            if (this.top == this.kinds.length) {
+                int capacity = this.top * 2;
+                this.kinds = Arrays.copyOf(this.kinds, capacity);
+                this.items = Arrays.copyOf(this.items, capacity);
+                this.precedences = Arrays.copyOf(this.precedences, capacity);
+                this.args = Arrays.copyOf(this.args, capacity);
+            }
+            this.kinds[this.top] = kind;
+            this.items[this.top] = item;
+            this.precedences[this.top] = precedence;
+            this.args[this.top++] = 0;
+        }
+    }
+
+    /**
+     * Builder che costruisce un albero di nodi
+     */
+    private static final class NodeBuilder implements Builder {
+        private final OperatorTable opers;
+        private final ArrayDeque<Node> nodes;
+        private final ParseStatus status;
+        // true se le costanti non valide sono errori di parsing, false se vengono segnalate solo al calcolo (come
+        // in NodeParser: ad esempio IncrementalTree le usa come variabili)
+        private final boolean isStrict;
+
+        private NodeBuilder(OperatorTable opers, ParseStatus status, boolean isStrict) {
+            this.opers = opers;
+            this.nodes = new ArrayDeque<>();
+            this.status = status;
+            this.isStrict = isStrict;
+        }
+
+        @Override
+        public boolean constant(CharSequence s, int start, int end) {
+            // le costanti valide vengono convertite subito, così il calcolo non deve più farlo
+            double value = FastDoubleParser.parse(s, start, end);
+            if (FastDoubleParser.isInvalid(value)) {
+                if (this.isStrict)
+                    return this.status.fail(ParseStatus.Kind.ILLEGAL_CONSTANT, start, end, 0, null);
+                this.nodes.push(new ConstNode(s.subSequence(start, end).toString()));
+            } else {
+                this.nodes.push(new ConstNode(s.subSequence(start, end).toString(), value));
+            }
+            return true;
+        }
+
+        @Override
+        public boolean operator(Operator oper) {
+            Node right = this.nodes.pop();
+            Node left = this.nodes.pop();
+            this.nodes.push(new OperatorNode(left, right, oper, this.opers));
+            return true;
+        }
+
+        @Override
+        public boolean prefix(PrefixOperator oper) {
+            this.nodes.push(new PrefixNode(this.nodes.pop(), oper, this.opers));
+            return true;
+        }
+
+        @Override
+        public boolean function(MathFunction function, int args) {
+            Node[] nodes = new Node[args];
+            for (int i = args - 1; i >= 0; i--) {
+                nodes[i] = this.nodes.pop();
+            }
+            this.nodes.push(new FunctionNode(nodes, function, this.opers));
+            return true;
+        }
+    }
+
+    /**
+     * Builder che scrive l'albero direttamente in forma compatta
+     */
+    private static final class CompactBuilder implements Builder {
+        private final OperatorTable opers;
+        private final CompactTree tree;
+        private final ParseStatus status;
+        private int[] operands;
+        private int top;
+
+        private CompactBuilder(OperatorTable opers, int length, ParseStatus status) {
+            this.opers = opers;
+            // stima iniziale del numero di nodi, gli array vengono comunque ingranditi se necessario
+            this.tree = new CompactTree(opers, length + 1);
+            this.status = status;
+            this.operands = new int[INITIAL_STACK];
+        }
+
+        @Override
+        public boolean constant(CharSequence s, int start, int end) {
+            double value = FastDoubleParser.parse(s, start, end);
+            if (FastDoubleParser.isInvalid(value))
+                return this.status.fail(ParseStatus.Kind.ILLEGAL_CONSTANT, start, end, 0, null);
+            if (this.top == this.operands.length) this.operands = Arrays.copyOf(this.operands, this.top * 2);
+            this.operands[this.top++] = this.tree.addConst(value);
+            return true;
+        }
+
+        @Override
+        public boolean operator(Operator oper) {
+            int right = this.operands[--this.top];
+            int left = this.operands[--this.top];
+            this.operands[this.top++] = this.tree.addOperator(this.opers.indexOf(oper), left, right);
+            return true;
+        }
+
+        @Override
+        public boolean prefix(PrefixOperator oper) {
+            return this.status.fail(ParseStatus.Kind.UNSUPPORTED_COMPACT, 0, 0, 0, oper);
+        }
+
+        @Override
+        public boolean function(MathFunction function, int args) {
+            return this.status.fail(ParseStatus.Kind.UNSUPPORTED_COMPACT, 0, 0, args, function);
+        }
+    }
+
+    /**
+     * Builder che non costruisce nulla: controlla solo che le costanti siano numeri validi
+     */
+    private static final class ValidationBuilder implements Builder {
+        private final ParseStatus status;
+
+        private ValidationBuilder(ParseStatus status) {
+            this.status = status;
+        }
+
+        @Override
+        public boolean constant(CharSequence s, int start, int end) {
+            if (FastDoubleParser.isInvalid(FastDoubleParser.parse(s, start, end)))
+                return this.status.fail(ParseStatus.Kind.ILLEGAL_CONSTANT, start, end, 0, null);
+            return true;
+        }
+
+        @Override
+        public boolean operator(Operator oper) {
+            return true;
+        }
+
+        @Override
+        public boolean prefix(PrefixOperator oper) {
+            return true;
+        }
+
+        @Override
+        public boolean function(MathFunction function, int args) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+/**
+ * Classe rappresentante una funzione, come sqrt(x) o max(a, b). Una funzione ha un nome e accetta un numero di
+ * argomenti compreso fra un minimo e un massimo (ad esempio max può accettare da uno a infiniti argomenti).
+ * Nelle espressioni, la chiamata è data dal nome seguito dagli argomenti fra parentesi, separati da virgole.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public class MathFunction {
+    /**
+     * Numero massimo di argomenti per le funzioni senza limiti
+     */
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+    private static final String ILLEGAL_ARITY = "Illegal number of arguments for function '%s': [%d, %d]";
+
+    private String name;
+    private int minArgs;
+    private int maxArgs;
+    private FunctionOperation oper;
+
+    /**
+     * Costruttore, per una funzione con un numero fisso di argomenti
+     * @param name Il nome della funzione
+     * @param args Il numero di argomenti
+     * @param oper L'operazione della funzione
+     * @throws IllegalArgumentException Se il numero di argomenti è negativo
+     */
+    public MathFunction(String name, int args, FunctionOperation oper) throws IllegalArgumentException {
+        this(name, args, args, oper);
+    }
+
+    /**
+     * Costruttore, per una funzione con un numero variabile di argomenti
+     * @param name Il nome della funzione
+     * @param minArgs Il numero minimo di argomenti
+     * @param maxArgs Il numero massimo di argomenti (UNLIMITED se non c'è un limite)
+     * @param oper L'operazione della funzione
+     * @throws IllegalArgumentException Se l'intervallo del numero di argomenti non è valido
+     */
+    public MathFunction(String name, int minArgs, int maxArgs, FunctionOperation oper)
+            throws IllegalArgumentException {
+        if (minArgs < 0 || maxArgs < minArgs)
+            throw new IllegalArgumentException(String.format(ILLEGAL_ARITY, name, minArgs, maxArgs));
+        this.name = name;
+        this.minArgs = minArgs;
+        this.maxArgs = maxArgs;
+        this.oper = oper;
+    }
+
+    /**
+     * Getter del nome della funzione
+     * @return Il nome della funzione
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Getter del numero minimo di argomenti
+     * @return Il numero minimo di argomenti
+     */
+    public int getMinArgs() {
+        return this.minArgs;
+    }
+
+    /**
+     * Getter del numero massimo di argomenti
+     * @return Il numero massimo di argomenti, UNLIMITED se non c'è un limite
+     */
+    public int getMaxArgs() {
+        return this.maxArgs;
+    }
+
+    /**
+     * Getter dell'operazione della funzione
+     * @return L'operazione
+     */
+    public FunctionOperation getOperation() {
+        return this.oper;
+    }
+
+    /**
+     * Controlla se la funzione accetta un certo numero di argomenti
+     * @param args Il numero di argomenti
+     * @return True se il numero di argomenti è ammesso
+     */
+    public boolean acceptsArgs(int args) {
+        return args >= this.minArgs && args <= this.maxArgs;
+    }
+}
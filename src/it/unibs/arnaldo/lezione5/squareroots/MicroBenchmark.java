@@ -0,0 +1,147 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Classe d'appoggio per le misure di prestazioni di SquareRootsBenchmark: esegue un'operazione ripetutamente, prima
+ * per un periodo di riscaldamento (così il compilatore JIT ha già ottimizzato il codice) e poi per il periodo di
+ * misura, e raccoglie operazioni al secondo, percentili della latenza e memoria allocata per operazione.
+ * Le operazioni molto brevi vengono eseguite a gruppi, in modo che la durata di ciascun gruppo sia molto maggiore
+ * della risoluzione di System.nanoTime: i percentili si riferiscono quindi alla latenza media all'interno di ciascun
+ * gruppo. La memoria allocata viene letta dal ThreadMXBean della JVM, se supportato.
+ * I valori restituiti dalle operazioni vengono accumulati in un campo volatile, così il compilatore non può
+ * eliminare il calcolo come codice inutile.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+final class MicroBenchmark {
+    // durata minima di un gruppo di operazioni
+    private static final long MIN_BATCH_NANOS = 20_000;
+    // numero minimo di misure, anche per le operazioni più lente del periodo di misura
+    private static final int MIN_SAMPLES = 5;
+    private static final int INITIAL_SAMPLES = 1024;
+
+    private static volatile long sink;
+
+    private final long warmupNanos;
+    private final long measureNanos;
+
+    /**
+     * Costruttore
+     * @param warmupNanos La durata del riscaldamento
+     * @param measureNanos La durata della misura
+     */
+    MicroBenchmark(long warmupNanos, long measureNanos) {
+        this.warmupNanos = warmupNanos;
+        this.measureNanos = measureNanos;
+    }
+
+    /**
+     * Misura le prestazioni di un'operazione
+     * @param name Il nome della misura
+     * @param params I parametri della misura (solo per la stampa)
+     * @param op L'operazione; il valore restituito viene consumato per evitare che il calcolo venga eliminato
+     * @return Il risultato della misura
+     */
+    Result run(String name, String params, LongSupplier op) {
+        // riscaldamento, durante il quale si stima quante operazioni servono per un gruppo
+        long batch = 1;
+        long warmupEnd = System.nanoTime() + this.warmupNanos;
+        long acc = 0;
+        do {
+            long start = System.nanoTime();
+            for (long i = 0; i < batch; i++) acc += op.getAsLong();
+            long elapsed = System.nanoTime() - start;
+            if (elapsed < MIN_BATCH_NANOS) batch *= 2;
+        } while (System.nanoTime() < warmupEnd);
+
+        // misura
+        long[] samples = new long[INITIAL_SAMPLES];
+        int count = 0;
+        long ops = 0;
+        long total = 0;
+        long allocated = allocatedBytes();
+        long measureEnd = System.nanoTime() + this.measureNanos;
+        while (count < MIN_SAMPLES || System.nanoTime() < measureEnd) {
+            long start = System.nanoTime();
+            for (long i = 0; i < batch; i++) acc += op.getAsLong();
+            long elapsed = System.nanoTime() - start;
+            if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+            samples[count++] = elapsed / batch;
+            ops += batch;
+            total += elapsed;
+        }
+        long allocatedAfter = allocatedBytes();
+        sink += acc;
+
+        Arrays.sort(samples, 0, count);
+        long bytesPerOp = allocated < 0 ? -1 : (allocatedAfter - allocated) / ops;
+        return new Result(name, params, ops * 1e9 / Math.max(1, total), percentile(samples, count, 0.5),
+                percentile(samples, count, 0.9), percentile(samples, count, 0.99), samples[count - 1], bytesPerOp);
+    }
+
+    /**
+     * Metodo d'appoggio che restituisce un percentile di un array ordinato
+     */
+    private static long percentile(long[] sorted, int count, double p) {
+        return sorted[Math.min(count - 1, (int) Math.ceil(p * count) - 1)];
+    }
+
+    /**
+     * Metodo d'appoggio che legge la memoria allocata finora dal thread corrente
+     * @return I byte allocati, -1 se la JVM non lo supporta
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()) return -1;
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Risultato di una misura
+     */
+    static final class Result {
+        static final String HEADER = String.format("%-34s %-30s %14s %11s %11s %11s %11s %12s",
+                "Misura", "Parametri", "op/s", "p50 (ns)", "p90 (ns)", "p99 (ns)", "max (ns)", "byte/op");
+
+        private final String name;
+        private final String params;
+        private final double opsPerSecond;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long max;
+        private final long bytesPerOp;
+
+        private Result(String name, String params, double opsPerSecond, long p50, long p90, long p99, long max,
+                       long bytesPerOp) {
+            this.name = name;
+            this.params = params;
+            this.opsPerSecond = opsPerSecond;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        /**
+         * Getter della latenza mediana
+         * @return La latenza mediana in nanosecondi
+         */
+        long getMedianNanos() {
+            return this.p50;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-34s %-30s %14.1f %11d %11d %11d %11d %12s", this.name, this.params,
+                    this.opsPerSecond, this.p50, this.p90, this.p99, this.max,
+                    this.bytesPerOp < 0 ? "n/d" : String.valueOf(this.bytesPerOp));
+        }
+    }
+}
@@ -10,7 +10,23 @@ package it.unibs.arnaldo.lezione5.squareroots;
 public class Operator {
     private String identifier;
     private int precedence;
+    // posizione nella tabella degli operatori (vedere OperatorTable.indexOf), -1 se non è in nessuna tabella
+    private int index = -1;
+    // associatività del livello di precedenza, copiata dalla tabella degli operatori (vedere
+    // OperatorTable.setGroupAssociativity) per non doverla cercare a ogni uso
+    private boolean isLeftAssociative = true;
     private Operation oper;
+    // tipo dell'operazione, se è un'operazione aritmetica nota (null per le operazioni qualsiasi)
+    private Arithmetic arithmetic;
+
+    // elementi neutri (opzionali) dell'operazione, utilizzati dalla semplificazione dell'albero
+    private boolean hasLeftIdentity;
+    private double leftIdentity;
+    private boolean hasRightIdentity;
+    private double rightIdentity;
+    // risultato (opzionale) di "x oper x", ad esempio 0 per la sottrazione
+    private boolean hasSelfResult;
+    private double selfResult;
 
     /**
      * Costruttore, data la stringa dell'identificatore e l'operazione matematica
@@ -22,6 +38,17 @@ public class Operator {
         this.oper = oper;
     }
 
+    /**
+     * Costruttore, data la stringa dell'identificatore e un'operazione aritmetica nota: oltre che in double,
+     * l'operatore può essere calcolato anche in modo esatto o con precisione arbitraria
+     * @param identifier Stringa costituente l'identificatore dell'operatore
+     * @param arithmetic Operazione aritmetica dell'operatore
+     */
+    public Operator(String identifier, Arithmetic arithmetic) {
+        this(identifier, (Operation) arithmetic);
+        this.arithmetic = arithmetic;
+    }
+
     /**
      * Getter dell'identificatore dell'operatore
      * @return L'identificatore dell'operatore
@@ -54,12 +81,141 @@ public class Operator {
         return this.oper;
     }
 
+    /**
+     * Getter dell'operazione aritmetica di questo operatore, necessaria per il calcolo esatto
+     * @return L'operazione aritmetica, null se l'operatore è stato creato con un'operazione qualsiasi
+     */
+    public Arithmetic getArithmetic() {
+        return this.arithmetic;
+    }
+
     /**
      * Setter del livello di precedenza
      * @param precedence Il livello di precedenza da impostare
      */
     public void setPrecedence(int precedence) {
         this.precedence = precedence;
+        RenderCache.invalidateAll();
+    }
+
+    /**
+     * Getter della posizione dell'operatore nell'ultima tabella in cui è stato inserito
+     * @return La posizione, -1 se l'operatore non è in nessuna tabella
+     */
+    int getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Setter della posizione nella tabella, utilizzato dalla tabella degli operatori
+     * @param index La posizione dell'operatore
+     */
+    void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * Controlla se il livello di precedenza dell'operatore ha associatività sinistra. Il valore viene impostato
+     * dalla tabella degli operatori, all'inserimento dell'operatore e a ogni cambio di associatività del livello
+     * @return True se ha associatività sinistra, false se destra
+     */
+    public boolean hasLeftAssociativity() {
+        return this.isLeftAssociative;
+    }
+
+    /**
+     * Setter dell'associatività, utilizzato dalla tabella degli operatori
+     * @param isLeft True se l'associatività è sinistra, false se destra
+     */
+    void setLeftAssociativity(boolean isLeft) {
+        this.isLeftAssociative = isLeft;
+        RenderCache.invalidateAll();
+    }
+
+    /**
+     * Imposta l'elemento neutro sinistro dell'operazione: "e oper x" equivale a "x" per ogni double, zeri con segno
+     * compresi (ad esempio per l'addizione è -0.0, non 0.0)
+     * @param identity L'elemento neutro sinistro
+     */
+    public void setLeftIdentity(double identity) {
+        this.hasLeftIdentity = true;
+        this.leftIdentity = identity;
+    }
+
+    /**
+     * Imposta l'elemento neutro destro dell'operazione: "x oper e" equivale a "x" per ogni double, zeri con segno
+     * compresi (vedere setLeftIdentity)
+     * @param identity L'elemento neutro destro
+     */
+    public void setRightIdentity(double identity) {
+        this.hasRightIdentity = true;
+        this.rightIdentity = identity;
+    }
+
+    /**
+     * Imposta l'elemento neutro dell'operazione, sia a sinistra che a destra (operazioni commutative)
+     * @param identity L'elemento neutro
+     */
+    public void setIdentity(double identity) {
+        this.setLeftIdentity(identity);
+        this.setRightIdentity(identity);
+    }
+
+    /**
+     * Imposta il risultato dell'operazione fra due operandi uguali, ad esempio 0 per "x - x"
+     * @param result Il risultato di "x oper x"
+     */
+    public void setSelfResult(double result) {
+        this.hasSelfResult = true;
+        this.selfResult = result;
+    }
+
+    /**
+     * Controlla se l'operazione ha un elemento neutro sinistro
+     * @return True se l'elemento neutro sinistro è stato impostato
+     */
+    public boolean hasLeftIdentity() {
+        return this.hasLeftIdentity;
+    }
+
+    /**
+     * Getter dell'elemento neutro sinistro (significativo solo se hasLeftIdentity() è true)
+     * @return L'elemento neutro sinistro
+     */
+    public double getLeftIdentity() {
+        return this.leftIdentity;
+    }
+
+    /**
+     * Controlla se l'operazione ha un elemento neutro destro
+     * @return True se l'elemento neutro destro è stato impostato
+     */
+    public boolean hasRightIdentity() {
+        return this.hasRightIdentity;
+    }
+
+    /**
+     * Getter dell'elemento neutro destro (significativo solo se hasRightIdentity() è true)
+     * @return L'elemento neutro destro
+     */
+    public double getRightIdentity() {
+        return this.rightIdentity;
+    }
+
+    /**
+     * Controlla se è noto il risultato di "x oper x"
+     * @return True se il risultato è stato impostato
+     */
+    public boolean hasSelfResult() {
+        return this.hasSelfResult;
+    }
+
+    /**
+     * Getter del risultato di "x oper x" (significativo solo se hasSelfResult() è true)
+     * @return Il risultato dell'operazione fra due operandi uguali
+     */
+    public double getSelfResult() {
+        return this.selfResult;
     }
 
     /**
@@ -76,4 +232,23 @@ public class Operator {
         // altrimenti, controlla se l'inizio della frase è uguale all'id dell'operatore
         return this.identifier.equals(phrase.substring(0,this.identifier.length()));
     }
+
+    /**
+     * Versione di match che non crea sottostringhe: verifica se questo operatore è presente nell'espressione a
+     * partire dalla posizione data
+     * @param phrase L'espressione da controllare
+     * @param from La posizione da cui iniziare il confronto
+     * @return True se questo operatore è presente nella posizione data, falso altrimenti
+     */
+    public boolean match(CharSequence phrase, int from) {
+        int length = this.identifier.length();
+        if (phrase.length() - from < length)
+            return false;
+
+        for (int i = 0; i < length; i++) {
+            if (phrase.charAt(from + i) != this.identifier.charAt(i))
+                return false;
+        }
+        return true;
+    }
 }
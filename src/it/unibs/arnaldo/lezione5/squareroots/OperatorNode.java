@@ -12,6 +12,9 @@ public class OperatorNode implements Node, NodeParser {
     private Node leftChild;
     private Node rightChild;
     private Operator oper;
+    // rappresentazioni testuali memorizzate (vedere RenderCache), calcolate alla prima richiesta
+    private volatile RenderCache parenthesized;
+    private volatile RenderCache necessary;
 
     /**
      * Costruttore "vuoto", forniamo solo la tabella degli operatori
@@ -35,6 +38,52 @@ public class OperatorNode implements Node, NodeParser {
         this.parseExpression(left, right);
     }
 
+    /**
+     * Costruttore a partire da due figli già costruiti
+     * @param left Il figlio sinistro
+     * @param right Il figlio destro
+     * @param oper L'operatore legato a questo nodo
+     * @param opers La tabella degli operatori
+     */
+    public OperatorNode(Node left, Node right, Operator oper, OperatorTable opers) {
+        this.opers = opers;
+        this.oper = oper;
+        this.leftChild = left;
+        this.rightChild = right;
+    }
+
+    /**
+     * Getter del figlio sinistro
+     * @return Il figlio sinistro
+     */
+    public Node getLeftChild() {
+        return this.leftChild;
+    }
+
+    /**
+     * Getter del figlio destro
+     * @return Il figlio destro
+     */
+    public Node getRightChild() {
+        return this.rightChild;
+    }
+
+    /**
+     * Getter dell'operatore legato a questo nodo
+     * @return L'operatore
+     */
+    public Operator getOperator() {
+        return this.oper;
+    }
+
+    /**
+     * Getter della tabella degli operatori utilizzata da questo nodo
+     * @return La tabella degli operatori
+     */
+    public OperatorTable getOperatorTable() {
+        return this.opers;
+    }
+
     /**
      * Metodo che effettua il parsing dei due nodi figli
      * @param l La stringa da interpretare del figlio sinistro
@@ -57,7 +106,7 @@ public class OperatorNode implements Node, NodeParser {
         // crea un nodo "vuoto", da poi popolare casualmente
         OperatorNode out = new OperatorNode(opers);
         // inizia a riempire ricorsivamente il nodo
-        out.randomize(maxDepth);
+        out.generate(maxDepth);
         return out;
     }
 
@@ -67,6 +116,17 @@ public class OperatorNode implements Node, NodeParser {
      */
     @Override
     public void randomize(int maxDepth) {
+        // il nodo può già far parte di alberi stampati, di cui non si conoscono le radici (vedere RenderCache)
+        RenderCache.invalidateAll();
+        this.generate(maxDepth);
+    }
+
+    /**
+     * Metodo d'appoggio che genera i figli e l'operatore di un nodo appena creato: il nodo non fa ancora parte di
+     * nessun albero, quindi la generazione non invalida le rappresentazioni memorizzate degli altri alberi
+     * @param maxDepth La massima profondità dell'albero
+     */
+    void generate(int maxDepth) {
         // generazione casuale dei figli destro e sinistro, permettendo una profondità massima diminuita di 1
         this.leftChild = this.genRandomNode(maxDepth - 1);
         this.rightChild = this.genRandomNode(maxDepth - 1);
@@ -82,63 +142,75 @@ public class OperatorNode implements Node, NodeParser {
      * @return Il nodo generato
      */
     private Node genRandomNode(int maxDepth) {
-        Node out;
+        return randomNode(maxDepth, this.opers);
+    }
+
+    /**
+     * Metodo d'appoggio che genera un nodo casuale, numero o operatore (usato anche dagli altri tipi di nodo)
+     * @param maxDepth La massima profondità dell'albero
+     * @param opers La tabella degli operatori
+     * @return Il nodo generato
+     */
+    static Node randomNode(int maxDepth, OperatorTable opers) {
         // se non abbiamo raggiunto la fine del grafo, abbiamo una certa probabilità di generare un nodo Costante
-        if (maxDepth <= 1 || Math.random() < CONST_NODE_PERCENTAGE)
-            out = new ConstNode();
-        else
-            out = new OperatorNode(this.opers);
+        if (maxDepth <= 1 || Math.random() < CONST_NODE_PERCENTAGE) {
+            ConstNode out = new ConstNode();
+            out.generate();
+            return out;
+        }
 
         // popola casualmente il nuovo nodo generato
-        out.randomize(maxDepth);
+        OperatorNode out = new OperatorNode(opers);
+        out.generate(maxDepth);
         return out;
     }
 
     /**
-     * Calcola ricorsivamente il valore di questo nodo
+     * Calcola il valore di questo nodo. Il calcolo è iterativo (vedere IterativeEvaluator), così anche alberi molto
+     * profondi non esauriscono lo stack
      * @return Il valore del nodo
      * @throws IllegalArgumentException Se ci sono problemi nel calcolo dei valori di altri nodi
      */
     @Override
     public double calcValue() throws IllegalArgumentException {
-        // calcolo ricorsivo del risultato dell'operazione
-        double l = leftChild.calcValue();
-        double r = rightChild.calcValue();
-        // effettivo calcolo del risultato
-        return oper.getOperation().calcValue(l, r);
+        return IterativeEvaluator.calcValue(this);
     }
 
     /**
-     * Metodo che formatta con le parentesi adatte questo nodo
+     * Metodo che formatta con le parentesi adatte questo nodo (la visita è iterativa, vedere TreePrinter). Il
+     * risultato viene memorizzato finché l'albero non viene modificato (vedere RenderCache)
      * @return L'espressione rappresentata da questo nodo con le parentesi
      */
     @Override
     public String parenthesize() {
-        StringBuilder out = new StringBuilder();
-        out.append("[");
-        out.append(this.leftChild.parenthesize());
-        out.append(" ");
-        out.append(this.oper.getId());
-        out.append(" ");
-        out.append(this.rightChild.parenthesize());
-        out.append("]");
-        return out.toString();
+        String text = RenderCache.valid(this.parenthesized);
+        if (text != null) return text;
+        long generation = RenderCache.generation();
+        text = TreePrinter.parenthesize(this);
+        this.parenthesized = RenderCache.of(text, generation);
+        return text;
     }
 
     /**
-     * Metodo che formatta l'espressione con le sole parentesi necessarie al rispetto dell'ordine delle operazioni
+     * Metodo che formatta l'espressione con le sole parentesi necessarie al rispetto dell'ordine delle operazioni.
+     * Il risultato viene memorizzato finché l'albero non viene modificato (vedere RenderCache)
      * @return La stringa formattata
      */
     @Override
     public String necessaryParentheses() {
+        String text = RenderCache.valid(this.necessary);
+        if (text != null) return text;
+        long generation = RenderCache.generation();
         // per il primo nodo, supponiamo che il padre abbia precedenza negativa (vedere il prossimo metodo per la
         // spiegazione)
-        return necessaryParentheses(-1, false);
+        text = necessaryParentheses(-1, false);
+        this.necessary = RenderCache.of(text, generation);
+        return text;
     }
 
     /**
      * Metodo che formatta l'espressione con le sole parentesi necessarie al rispetto dell'ordine delle operazioni,
-     * data l'espressione del nodo padre
+     * data l'espressione del nodo padre. La visita è iterativa (vedere TreePrinter)
      * @param fatherPrecedence La precedenza dell'operatore del padre
      * @param sameDirectionAndAssoc Parametro che è true se l'operatore ha associatività sinistra (/destra)
      *                              e il figlio è sinistro (/destro), false altrimenti
@@ -146,27 +218,8 @@ public class OperatorNode implements Node, NodeParser {
      */
     @Override
     public String necessaryParentheses(int fatherPrecedence, boolean sameDirectionAndAssoc) {
-        StringBuilder out = new StringBuilder();
-
-        int operatorPrecedence = this.oper.getPrecedence();
-        boolean isOperatorLeftAssoc = this.opers.hasLeftAssociativity(operatorPrecedence);
-
-        // genero l'espressione con parentesi del figlio sinistro
-        String leftSon = this.leftChild.necessaryParentheses(operatorPrecedence, isOperatorLeftAssoc);
-        out.append(leftSon);
-
-        out.append(" ");
-        out.append(this.oper.getId());
-        out.append(" ");
-
-        // genero l'espressione con parentesi del figlio destro
-        String rightSon = this.rightChild.necessaryParentheses(operatorPrecedence, !isOperatorLeftAssoc);
-        out.append(rightSon);
-
-
-        int diff = operatorPrecedence - fatherPrecedence; // se positivo il padre ha meno priorità
-
-        /* tre casi:
+        /* detta diff la differenza fra la precedenza di questo operatore e quella del padre (se positiva il padre ha
+         * meno priorità), ci sono tre casi:
          * - (diff < 0) => il figlio ha priorità più bassa del padre
          *   ad esempio, 2 * (3 + 5), le parentesi sono necessarie
          * - (diff == 0 && !sameDirectionAndAssoc)
@@ -184,12 +237,10 @@ public class OperatorNode implements Node, NodeParser {
          *   dell'operatore permette lìomissione
          * - (diff > 0) => il figlio ha priorità più alta del padre
          *   ad esempio, 2 + (3 * 5), le parentesi non sono necessarie
+         * La scelta viene fatta per ogni nodo da TreePrinter, che scrive l'intera espressione in un unico buffer
          */
-        if (diff < 0 || (diff == 0 && !sameDirectionAndAssoc)) {
-            out.insert(0, "(").append(")");
-        }
-
+        StringBuilder out = new StringBuilder();
+        TreePrinter.necessaryParentheses(this, fatherPrecedence, sameDirectionAndAssoc, out);
         return out.toString();
-
     }
 }
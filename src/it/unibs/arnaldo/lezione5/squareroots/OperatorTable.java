@@ -1,28 +1,47 @@
 package it.unibs.arnaldo.lezione5.squareroots;
 
 import java.util.*;
+import java.util.function.ToIntFunction;
 
 public class OperatorTable {
+    // gli operatori vengono raggruppati per primo carattere (i caratteri non ASCII condividono l'ultimo gruppo)
+    private static final int DISPATCH_SIZE = 128;
+
     private ArrayList<Operator> opers;
-    private HashMap<Integer, Boolean> associativity;
+    private ArrayList<PrefixOperator> prefixOpers;
+    private HashMap<String, MathFunction> functions;
+    // associatività di ogni livello di precedenza, letta direttamente dall'array (false, il default, è sinistra)
+    private boolean[] rightAssociativity;
     private int precedenceLevel;
+    // operatori raggruppati per primo carattere, ordinati per lunghezza decrescente dell'identificatore (a parità di
+    // lunghezza, nell'ordine di inserimento): il primo che corrisponde è il match migliore
+    private Operator[][] dispatch;
+    private PrefixOperator[][] prefixDispatch;
+    // incrementata a ogni modifica della tabella, così chi conserva risultati del parsing (vedere ExpressionCache)
+    // si accorge che non sono più validi
+    private volatile int version;
 
     /**
      * Costruttore
      */
     public OperatorTable() {
         this.opers = new ArrayList<>();
-        this.associativity = new HashMap<>();
+        this.prefixOpers = new ArrayList<>();
+        this.functions = new HashMap<>();
+        this.rightAssociativity = new boolean[4];
         this.precedenceLevel = 0;
+        this.dispatch = new Operator[DISPATCH_SIZE + 1][];
+        this.prefixDispatch = new PrefixOperator[DISPATCH_SIZE + 1][];
     }
 
     /**
      * Metodo che controlla se gli operatori di un certo livello di precedenza hanno associatività sinistra
+     * (i livelli per cui non è stata impostata hanno associatività sinistra)
      * @param livPrec Il livello di precedenza da controllare
      * @return True se ha associatività sinistra, false se destra
      */
     public boolean hasLeftAssociativity(int livPrec) {
-        return associativity.get(livPrec);
+        return livPrec >= this.rightAssociativity.length || !this.rightAssociativity[livPrec];
     }
 
     /**
@@ -46,7 +65,16 @@ public class OperatorTable {
      * @param isLeft True se voglio associatività sinistra, false se destra
      */
     public void setGroupAssociativity(int precedenceLevel, boolean isLeft) {
-        this.associativity.put(precedenceLevel, isLeft);
+        if (precedenceLevel >= this.rightAssociativity.length)
+            this.rightAssociativity = Arrays.copyOf(this.rightAssociativity,
+                    Math.max(precedenceLevel + 1, this.rightAssociativity.length * 2));
+        this.rightAssociativity[precedenceLevel] = !isLeft;
+        // gli operatori del livello tengono una copia dell'associatività
+        for (Operator operator : this.opers) {
+            if (operator.getPrecedence() == precedenceLevel) operator.setLeftAssociativity(isLeft);
+        }
+        this.version++;
+        RenderCache.invalidateAll();
     }
 
     /**
@@ -64,7 +92,93 @@ public class OperatorTable {
      */
     public void add(Operator operator, int precedence) {
         operator.setPrecedence(precedence);
+        operator.setLeftAssociativity(this.hasLeftAssociativity(precedence));
+        operator.setIndex(this.opers.size());
         this.opers.add(operator);
+        int bucket = bucket(operator.getId());
+        if (this.dispatch[bucket] == null) this.dispatch[bucket] = new Operator[0];
+        this.dispatch[bucket] = insertByLength(this.dispatch[bucket], operator, Operator::getIdLength);
+        this.version++;
+    }
+
+    /**
+     * Metodo che aggiunge un operatore prefisso all'attuale livello di precedenza nella tabella
+     * @param operator L'operatore da aggiungere alla tabella
+     */
+    public void addPrefix(PrefixOperator operator) {
+        this.addPrefix(operator, this.precedenceLevel);
+    }
+
+    /**
+     * Metodo che aggiunge un operatore prefisso al livello di precedenza dato
+     * @param operator L'operatore da aggiungere
+     * @param precedence Il livello di precedenza di tale operatore
+     */
+    public void addPrefix(PrefixOperator operator, int precedence) {
+        operator.setPrecedence(precedence);
+        this.prefixOpers.add(operator);
+        int bucket = bucket(operator.getId());
+        if (this.prefixDispatch[bucket] == null) this.prefixDispatch[bucket] = new PrefixOperator[0];
+        this.prefixDispatch[bucket] = insertByLength(this.prefixDispatch[bucket], operator,
+                PrefixOperator::getIdLength);
+        this.version++;
+    }
+
+    /**
+     * Metodo che aggiunge una funzione alla tabella (una funzione con lo stesso nome viene sostituita)
+     * @param function La funzione da aggiungere
+     */
+    public void addFunction(MathFunction function) {
+        this.functions.put(function.getName(), function);
+        this.version++;
+    }
+
+    /**
+     * Restituisce la versione della tabella, che cambia a ogni aggiunta di operatori o funzioni e a ogni cambio di
+     * associatività (le modifiche vanno fatte tramite la tabella, non direttamente sugli operatori già inseriti)
+     * @return La versione attuale della tabella
+     */
+    public int getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Restituisce la funzione con il nome dato
+     * @param name Il nome della funzione
+     * @return La funzione, null se non è presente
+     */
+    public MathFunction getFunction(String name) {
+        return this.functions.get(name);
+    }
+
+    /**
+     * Restituisce il numero di operatori presenti nella tabella
+     * @return Il numero di operatori
+     */
+    public int size() {
+        return this.opers.size();
+    }
+
+    /**
+     * Restituisce l'operatore in una certa posizione della tabella (nell'ordine di inserimento)
+     * @param index La posizione dell'operatore
+     * @return L'operatore
+     */
+    public Operator get(int index) {
+        return this.opers.get(index);
+    }
+
+    /**
+     * Restituisce la posizione di un operatore nella tabella, in tempo costante: la posizione viene salvata
+     * nell'operatore all'inserimento (la ricerca lineare serve solo per gli operatori inseriti anche in un'altra
+     * tabella dopo questa)
+     * @param operator L'operatore da cercare
+     * @return La posizione dell'operatore, -1 se non è presente
+     */
+    public int indexOf(Operator operator) {
+        int index = operator.getIndex();
+        if (index >= 0 && index < this.opers.size() && this.opers.get(index) == operator) return index;
+        return this.opers.indexOf(operator);
     }
 
     /**
@@ -94,4 +208,75 @@ public class OperatorTable {
         // trova l'operatore fra i matches con lunghezza massima
         return Collections.max(matches, Comparator.comparingInt(Operator::getIdLength));
     }
+
+    /**
+     * Versione di bestMatch che non crea oggetti: cerca il match più lungo a partire da una posizione data
+     * dell'espressione
+     * @param op L'espressione matematica
+     * @param from La posizione da cui cercare l'operatore
+     * @return Un operatore se è stato trovato un match, null altrimenti
+     */
+    public Operator bestMatch(CharSequence op, int from) {
+        // si controllano solo gli operatori che iniziano con il carattere in quella posizione
+        Operator[] candidates = this.dispatch[bucket(op.charAt(from))];
+        if (candidates != null) {
+            for (Operator o : candidates) {
+                if (o.match(op, from)) return o;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cerca il match più lungo fra gli operatori prefissi, a partire da una posizione data dell'espressione
+     * @param op L'espressione matematica
+     * @param from La posizione da cui cercare l'operatore
+     * @return Un operatore prefisso se è stato trovato un match, null altrimenti
+     */
+    public PrefixOperator bestPrefixMatch(CharSequence op, int from) {
+        PrefixOperator[] candidates = this.prefixDispatch[bucket(op.charAt(from))];
+        if (candidates != null) {
+            for (PrefixOperator o : candidates) {
+                if (o.match(op, from)) return o;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Metodo d'appoggio che restituisce il gruppo di operatori di un certo primo carattere
+     * @param c Il primo carattere dell'identificatore
+     * @return La posizione del gruppo
+     */
+    private static int bucket(char c) {
+        return c < DISPATCH_SIZE ? c : DISPATCH_SIZE;
+    }
+
+    /**
+     * Metodo d'appoggio che restituisce il gruppo di un identificatore (gli identificatori vuoti non corrispondono
+     * mai a niente, quindi vengono messi nell'ultimo gruppo)
+     * @param id L'identificatore
+     * @return La posizione del gruppo
+     */
+    private static int bucket(String id) {
+        return id.isEmpty() ? DISPATCH_SIZE : bucket(id.charAt(0));
+    }
+
+    /**
+     * Metodo d'appoggio che inserisce un elemento in un gruppo, dopo tutti gli elementi con identificatore lungo
+     * almeno quanto il suo
+     * @param bucket Il gruppo
+     * @param item L'elemento da inserire
+     * @param length La funzione che restituisce la lunghezza dell'identificatore
+     * @param <T> Il tipo degli elementi
+     * @return Il nuovo gruppo
+     */
+    private static <T> T[] insertByLength(T[] bucket, T item, ToIntFunction<T> length) {
+        int pos = 0;
+        while (pos < bucket.length && length.applyAsInt(bucket[pos]) >= length.applyAsInt(item)) pos++;
+        T[] out = Arrays.copyOf(bucket, bucket.length + 1);
+        System.arraycopy(bucket, pos, out, pos + 1, bucket.length - pos);
+        out[pos] = item;
+        return out;
+    }
 }
@@ -0,0 +1,138 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Classe che calcola il valore di un'espressione di grandi dimensioni in parallelo, con un ForkJoinPool: i due figli
+ * di ogni nodo sono indipendenti, quindi i sottoalberi abbastanza grandi vengono calcolati da task separati, mentre
+ * quelli piccoli vengono calcolati in sequenza (un task per nodo costerebbe più del calcolo stesso).
+ * Le dimensioni dei sottoalberi vengono calcolate una sola volta, alla creazione dell'oggetto.
+ * Ogni nodo viene calcolato con gli stessi operandi della versione sequenziale, quindi il risultato è sempre
+ * identico a quello di CompiledExpression.calculate, indipendentemente dal numero di thread.
+ * <b>Nota:</b> il calcolo parallelo richiede che ogni sottoalbero occupi posizioni consecutive negli array, come
+ * avviene per gli alberi generati dal parsing o casualmente; per le espressioni con sottoalberi condivisi (ad esempio
+ * dopo TreeOptimizer) il calcolo è sequenziale.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public final class ParallelEvaluator {
+    /**
+     * Dimensione minima di un sottoalbero per essere calcolato da un task separato
+     */
+    public static final int DEFAULT_THRESHOLD = 1 << 13;
+    private static final String ILLEGAL_THRESHOLD = "Illegal threshold: %d";
+
+    private final CompiledExpression plan;
+    private final int threshold;
+    // dimensione del sottoalbero di ciascun nodo, null se l'espressione non può essere calcolata in parallelo
+    private final int[] sizes;
+
+    /**
+     * Costruttore, con la soglia predefinita
+     * @param plan L'espressione da calcolare
+     */
+    public ParallelEvaluator(CompiledExpression plan) {
+        this(plan, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Costruttore
+     * @param plan L'espressione da calcolare
+     * @param threshold La dimensione minima di un sottoalbero per essere calcolato da un task separato
+     * @throws IllegalArgumentException Se la soglia non è positiva
+     */
+    public ParallelEvaluator(CompiledExpression plan, int threshold) throws IllegalArgumentException {
+        if (threshold <= 0)
+            throw new IllegalArgumentException(String.format(ILLEGAL_THRESHOLD, threshold));
+        this.plan = plan;
+        this.threshold = threshold;
+        this.sizes = subtreeSizes(plan);
+    }
+
+    /**
+     * Metodo d'appoggio che calcola le dimensioni dei sottoalberi, verificando allo stesso tempo che ogni
+     * sottoalbero occupi posizioni consecutive: uno dei due figli precede immediatamente il padre, e l'altro
+     * precede immediatamente il sottoalbero del primo
+     * @param plan L'espressione
+     * @return Le dimensioni dei sottoalberi, null se la disposizione dei nodi non lo permette
+     */
+    private static int[] subtreeSizes(CompiledExpression plan) {
+        int[] sizes = new int[plan.getSize()];
+        for (int i = 0; i < sizes.length; i++) {
+            if (plan.getOpcode(i) == CompactTree.CONST) {
+                sizes[i] = 1;
+                continue;
+            }
+            int r = plan.getRight(i);
+            int l = plan.getLeft(i);
+            boolean isRightLast = r == i - 1 && l == r - sizes[r];
+            boolean isLeftLast = l == i - 1 && r == l - sizes[l];
+            if (!isRightLast && !isLeftLast) return null;
+            sizes[i] = 1 + sizes[l] + sizes[r];
+        }
+        return sizes;
+    }
+
+    /**
+     * Calcola il valore dell'espressione con il pool comune
+     * @return Il valore dell'espressione
+     */
+    public double calculate() {
+        return this.calculate(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Calcola il valore dell'espressione con il pool dato
+     * @param pool Il pool di thread da utilizzare
+     * @return Il valore dell'espressione
+     */
+    public double calculate(ForkJoinPool pool) {
+        if (this.sizes == null) return this.plan.calculate();
+
+        double[] values = new double[this.plan.getSize()];
+        int root = values.length - 1;
+        pool.invoke(new EvalTask(root, values));
+        return values[root];
+    }
+
+    /**
+     * Restituisce la dimensione del sottoalbero di un nodo
+     * @param node La posizione del nodo
+     * @return Il numero di nodi del sottoalbero, -1 se l'espressione non può essere calcolata in parallelo
+     */
+    public int getSubtreeSize(int node) {
+        return this.sizes == null ? -1 : this.sizes[node];
+    }
+
+    /**
+     * Task che calcola il valore di un sottoalbero, scrivendolo nell'array dei valori
+     */
+    private final class EvalTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int node;
+        private final double[] values;
+
+        private EvalTask(int node, double[] values) {
+            this.node = node;
+            this.values = values;
+        }
+
+        @Override
+        protected void compute() {
+            int size = sizes[this.node];
+            if (size <= threshold) {
+                // il sottoalbero occupa le posizioni consecutive che terminano con il nodo stesso
+                for (int i = this.node - size + 1; i <= this.node; i++) {
+                    this.values[i] = plan.calcNode(i, this.values);
+                }
+                return;
+            }
+
+            invokeAll(new EvalTask(plan.getLeft(this.node), this.values),
+                    new EvalTask(plan.getRight(this.node), this.values));
+            this.values[this.node] = plan.calcNode(this.node, this.values);
+        }
+    }
+}
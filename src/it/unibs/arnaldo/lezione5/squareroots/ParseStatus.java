@@ -0,0 +1,174 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+/**
+ * Classe che rappresenta l'esito di un parsing senza eccezioni (vedere IterativeParser.tryParse e
+ * IterativeParser.validate): in caso di errore contiene il tipo di errore e la sua posizione nell'espressione.
+ * Segnalare un errore non crea alcun oggetto: il messaggio testuale, uguale a quello delle eccezioni di
+ * IterativeParser.parse, viene costruito solo se richiesto con getMessage. Lo stesso oggetto può quindi essere
+ * riutilizzato per un numero qualsiasi di espressioni, ad esempio per scartare rapidamente grandi quantità di input
+ * non valido.
+ * <b>Nota:</b> gli oggetti di questa classe non sono thread-safe, ogni thread deve usarne uno proprio.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public final class ParseStatus {
+    private static final String ILLEGAL_CONSTANT = "Illegal constant signature: '%s'";
+    private static final String ILLEGAL_SEPARATOR = "Illegal argument separator in the expression: '%s' at character %d";
+    private static final String UNKNOWN_FUNCTION = "Unknown function: '%s'";
+    private static final String WRONG_ARGUMENTS =
+            "Wrong number of arguments for function '%s' (%d) in the expression: '%s' at character %d";
+    private static final String UNSUPPORTED_COMPACT = "'%s' is not supported by the compact form";
+
+    /**
+     * Tipi di errore
+     */
+    public enum Kind {
+        /**
+         * Nessun errore
+         */
+        NONE,
+        /**
+         * Parentesi non bilanciate o in posizione non ammessa, come in "(2" o "(2)3"
+         */
+        ILLEGAL_PARENTHESIS,
+        /**
+         * Virgola fuori dagli argomenti di una funzione
+         */
+        ILLEGAL_SEPARATOR,
+        /**
+         * Nome seguito da una parentesi aperta che non corrisponde a nessuna funzione
+         */
+        UNKNOWN_FUNCTION,
+        /**
+         * Funzione chiamata con un numero di argomenti non ammesso
+         */
+        WRONG_ARGUMENTS,
+        /**
+         * Costante che non è un numero valido (compreso l'operando vuoto, come in "2+")
+         */
+        ILLEGAL_CONSTANT,
+        /**
+         * Operatore prefisso o funzione in un'espressione da scrivere in forma compatta
+         */
+        UNSUPPORTED_COMPACT
+    }
+
+    private Kind kind = Kind.NONE;
+    private int position;
+    private int end;
+    private int args;
+    // operatore prefisso o funzione coinvolti nell'errore (già esistenti, non vengono creati oggetti)
+    private Object item;
+
+    /**
+     * Riporta l'oggetto allo stato iniziale, senza errori
+     */
+    public void reset() {
+        this.kind = Kind.NONE;
+        this.position = 0;
+        this.end = 0;
+        this.args = 0;
+        this.item = null;
+    }
+
+    /**
+     * Controlla se il parsing è andato a buon fine
+     * @return True se non ci sono errori
+     */
+    public boolean isOk() {
+        return this.kind == Kind.NONE;
+    }
+
+    /**
+     * Getter del tipo di errore
+     * @return Il tipo di errore, Kind.NONE se non ci sono errori
+     */
+    public Kind getKind() {
+        return this.kind;
+    }
+
+    /**
+     * Getter della posizione dell'errore: il carattere in cui è stato rilevato, oppure l'inizio della costante o del
+     * nome di funzione non validi
+     * @return La posizione dell'errore nell'espressione
+     */
+    public int getPosition() {
+        return this.position;
+    }
+
+    /**
+     * Getter della fine (esclusa) dell'elemento non valido; per gli errori che riguardano un solo carattere coincide
+     * con la posizione
+     * @return La fine dell'elemento non valido
+     */
+    public int getEnd() {
+        return this.end;
+    }
+
+    /**
+     * Getter del numero di argomenti della chiamata di funzione (solo per Kind.WRONG_ARGUMENTS)
+     * @return Il numero di argomenti
+     */
+    public int getArgumentCount() {
+        return this.args;
+    }
+
+    /**
+     * Metodo d'appoggio che registra un errore
+     * @param kind Il tipo di errore
+     * @param position La posizione dell'errore
+     * @param end La fine dell'elemento non valido
+     * @param args Il numero di argomenti (solo per le chiamate di funzione)
+     * @param item L'operatore prefisso o la funzione coinvolti, null se non ce ne sono
+     * @return Sempre false, per comodità del chiamante
+     */
+    boolean fail(Kind kind, int position, int end, int args, Object item) {
+        this.kind = kind;
+        this.position = position;
+        this.end = end;
+        this.args = args;
+        this.item = item;
+        return false;
+    }
+
+    /**
+     * Costruisce il messaggio di errore, uguale a quello delle eccezioni di IterativeParser.parse
+     * @param s L'espressione analizzata
+     * @return Il messaggio di errore, null se non ci sono errori
+     */
+    public String getMessage(CharSequence s) {
+        switch (this.kind) {
+            case ILLEGAL_PARENTHESIS:
+                return String.format(NodeParser.ILLEGAL_PARENTHESIS, s, this.position);
+            case ILLEGAL_SEPARATOR:
+                return String.format(ILLEGAL_SEPARATOR, s, this.position);
+            case UNKNOWN_FUNCTION:
+                return String.format(UNKNOWN_FUNCTION, s.subSequence(this.position, this.end).toString().trim());
+            case WRONG_ARGUMENTS:
+                return String.format(WRONG_ARGUMENTS, ((MathFunction) this.item).getName(), this.args, s,
+                        this.position);
+            case ILLEGAL_CONSTANT:
+                return String.format(ILLEGAL_CONSTANT, s.subSequence(this.position, this.end));
+            case UNSUPPORTED_COMPACT:
+                String id = this.item instanceof MathFunction ? ((MathFunction) this.item).getName()
+                        : ((PrefixOperator) this.item).getId();
+                return String.format(UNSUPPORTED_COMPACT, id);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Crea l'eccezione corrispondente all'errore
+     * @param s L'espressione analizzata
+     * @return L'eccezione da lanciare
+     */
+    IllegalArgumentException toException(CharSequence s) {
+        return new IllegalArgumentException(this.getMessage(s));
+    }
+
+    @Override
+    public String toString() {
+        return this.kind + "@" + this.position;
+    }
+}
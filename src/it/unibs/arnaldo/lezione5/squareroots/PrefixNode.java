@@ -0,0 +1,117 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+/**
+ * Classe che rappresenti un nodo con un operatore prefisso (vedere PrefixOperator), contenente quindi un operatore
+ * e un solo figlio
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public class PrefixNode implements Node {
+    private OperatorTable opers;
+    private Node operand;
+    private PrefixOperator oper;
+    // rappresentazioni testuali memorizzate (vedere RenderCache), calcolate alla prima richiesta
+    private volatile RenderCache parenthesized;
+    private volatile RenderCache necessary;
+
+    /**
+     * Costruttore a partire da un figlio già costruito
+     * @param operand L'operando
+     * @param oper L'operatore legato a questo nodo
+     * @param opers La tabella degli operatori
+     */
+    public PrefixNode(Node operand, PrefixOperator oper, OperatorTable opers) {
+        this.opers = opers;
+        this.oper = oper;
+        this.operand = operand;
+    }
+
+    /**
+     * Getter dell'operando
+     * @return L'operando
+     */
+    public Node getOperand() {
+        return this.operand;
+    }
+
+    /**
+     * Getter dell'operatore legato a questo nodo
+     * @return L'operatore
+     */
+    public PrefixOperator getOperator() {
+        return this.oper;
+    }
+
+    /**
+     * Getter della tabella degli operatori utilizzata da questo nodo
+     * @return La tabella degli operatori
+     */
+    public OperatorTable getOperatorTable() {
+        return this.opers;
+    }
+
+    /**
+     * Metodo che genera casualmente l'operando, mantenendo l'operatore
+     * @param maxDepth La massima profondità dell'albero
+     */
+    @Override
+    public void randomize(int maxDepth) {
+        RenderCache.invalidateAll();
+        this.operand = OperatorNode.randomNode(maxDepth - 1, this.opers);
+    }
+
+    /**
+     * Calcola il valore di questo nodo (vedere IterativeEvaluator)
+     * @return Il valore del nodo
+     * @throws IllegalArgumentException Se ci sono problemi nel calcolo dei valori di altri nodi
+     */
+    @Override
+    public double calcValue() throws IllegalArgumentException {
+        return IterativeEvaluator.calcValue(this);
+    }
+
+    /**
+     * Metodo che formatta con le parentesi adatte questo nodo (vedere TreePrinter). Il risultato viene memorizzato
+     * finché l'albero non viene modificato (vedere RenderCache)
+     * @return L'espressione rappresentata da questo nodo con le parentesi
+     */
+    @Override
+    public String parenthesize() {
+        String text = RenderCache.valid(this.parenthesized);
+        if (text != null) return text;
+        long generation = RenderCache.generation();
+        text = TreePrinter.parenthesize(this);
+        this.parenthesized = RenderCache.of(text, generation);
+        return text;
+    }
+
+    /**
+     * Metodo che formatta l'espressione con le sole parentesi necessarie al rispetto dell'ordine delle operazioni.
+     * Il risultato viene memorizzato finché l'albero non viene modificato (vedere RenderCache)
+     * @return La stringa formattata
+     */
+    @Override
+    public String necessaryParentheses() {
+        String text = RenderCache.valid(this.necessary);
+        if (text != null) return text;
+        long generation = RenderCache.generation();
+        text = necessaryParentheses(-1, false);
+        this.necessary = RenderCache.of(text, generation);
+        return text;
+    }
+
+    /**
+     * Metodo che formatta l'espressione con le sole parentesi necessarie, data l'espressione del nodo padre.
+     * L'operatore prefisso va racchiuso fra parentesi solo se il padre ha precedenza maggiore: ad esempio, se il
+     * meno prefisso ha precedenza minore di "^", "(-2) ^ 2" richiede le parentesi, mentre "2 ^ -2" no
+     * @param fatherPrecedence La precedenza dell'operatore del padre
+     * @param sameDirectionAndAssoc Non utilizzato: l'associatività non conta per gli operatori prefissi
+     * @return La stringa formattata
+     */
+    @Override
+    public String necessaryParentheses(int fatherPrecedence, boolean sameDirectionAndAssoc) {
+        StringBuilder out = new StringBuilder();
+        TreePrinter.necessaryParentheses(this, fatherPrecedence, sameDirectionAndAssoc, out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,108 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+/**
+ * Classe rappresentante un operatore prefisso (unario), come il meno di "-3". Come gli operatori binari, ha un
+ * identificatore e un livello di precedenza: l'operatore si applica a tutto ciò che segue e ha precedenza
+ * maggiore della sua. Ad esempio, se il meno prefisso ha precedenza maggiore di "*" e minore di "^", "-2 * 3" vale
+ * "(-2) * 3" e "-2 ^ 2" vale "-(2 ^ 2)".
+ * Lo stesso identificatore può essere usato sia per un operatore binario che per uno prefisso: il parser sceglie
+ * in base alla posizione (un operatore prefisso si trova sempre dove è atteso un operando).
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public class PrefixOperator {
+    private String identifier;
+    private int precedence;
+    private UnaryOperation oper;
+    // true se l'operatore è il cambio di segno, che può essere calcolato anche in modo esatto
+    private boolean isNegation;
+
+    /**
+     * Costruttore, data la stringa dell'identificatore e l'operazione matematica
+     * @param identifier Stringa costituente l'identificatore dell'operatore
+     * @param oper Operazione dell'operatore
+     */
+    public PrefixOperator(String identifier, UnaryOperation oper) {
+        this.identifier = identifier;
+        this.oper = oper;
+    }
+
+    /**
+     * Crea l'operatore di cambio di segno: oltre che in double, può essere calcolato anche in modo esatto o con
+     * precisione arbitraria (vedere ExactEvaluator)
+     * @param identifier Stringa costituente l'identificatore dell'operatore
+     * @return L'operatore
+     */
+    public static PrefixOperator negation(String identifier) {
+        PrefixOperator out = new PrefixOperator(identifier, x -> -x);
+        out.isNegation = true;
+        return out;
+    }
+
+    /**
+     * Getter dell'identificatore dell'operatore
+     * @return L'identificatore dell'operatore
+     */
+    public String getId() {
+        return this.identifier;
+    }
+
+    /**
+     * Restituisce la lunghezza della stringa dell'identificatore
+     * @return La lunghezza dell'identificatore
+     */
+    public int getIdLength() {
+        return this.identifier.length();
+    }
+
+    /**
+     * Getter del livello di precedenza dell'operatore
+     * @return Il livello di precedenza
+     */
+    public int getPrecedence() {
+        return this.precedence;
+    }
+
+    /**
+     * Setter del livello di precedenza
+     * @param precedence Il livello di precedenza da impostare
+     */
+    public void setPrecedence(int precedence) {
+        this.precedence = precedence;
+        RenderCache.invalidateAll();
+    }
+
+    /**
+     * Getter dell'operazione matematica di questo operatore
+     * @return L'operazione
+     */
+    public UnaryOperation getOperation() {
+        return this.oper;
+    }
+
+    /**
+     * Controlla se l'operatore è il cambio di segno (vedere negation)
+     * @return True se l'operatore è il cambio di segno
+     */
+    public boolean isNegation() {
+        return this.isNegation;
+    }
+
+    /**
+     * Metodo che verifica se questo operatore è presente nell'espressione a partire dalla posizione data
+     * @param phrase L'espressione da controllare
+     * @param from La posizione da cui iniziare il confronto
+     * @return True se questo operatore è presente nella posizione data, falso altrimenti
+     */
+    public boolean match(CharSequence phrase, int from) {
+        int length = this.identifier.length();
+        if (phrase.length() - from < length)
+            return false;
+
+        for (int i = 0; i < length; i++) {
+            if (phrase.charAt(from + i) != this.identifier.charAt(i))
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,452 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Classe che genera alberi casuali in modo riproducibile: a differenza di Tree.randomize (che usa Math.random, un
+ * generatore globale condiviso da tutti i thread), ogni oggetto ha il proprio SplittableRandom, inizializzato con un
+ * seme dato. Con lo stesso seme, la stessa tabella degli operatori e le stesse impostazioni vengono generati sempre
+ * gli stessi alberi.
+ * La forma degli alberi è controllata dalla profondità massima, dalla probabilità che un nodo sia una costante e
+ * dalla disposizione dei nodi (vedere Shape); le costanti sono numeri interi in un intervallo dato.
+ * La generazione è iterativa, quindi anche gli alberi molto profondi (ad esempio le catene) non esauriscono lo stack.
+ * <b>Nota:</b> un oggetto di questa classe non è thread-safe; per generare alberi in più thread si usa split, che
+ * crea un generatore indipendente, oppure generateParallel.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public class RandomTreeGenerator {
+    public static final double DEFAULT_CONST_PROBABILITY = 0.5;
+    public static final int DEFAULT_MAX_DEPTH = 10;
+    public static final int DEFAULT_MIN_CONST = 0;
+    public static final int DEFAULT_MAX_CONST = 100;
+    // numero di alberi generati da ciascun task nella generazione parallela
+    private static final int BULK_CHUNK = 1024;
+    private static final int INITIAL_STACK = 32;
+
+    private static final String ILLEGAL_PROBABILITY = "Illegal constant probability: %f";
+    private static final String ILLEGAL_DEPTH = "Illegal maximum depth: %d";
+    private static final String ILLEGAL_RANGE = "Illegal constant range: [%d, %d)";
+    private static final String ILLEGAL_COUNT = "Illegal number of trees: %d";
+    private static final String ILLEGAL_TABLE = "The tree uses a different operator table";
+
+    // stati di un nodo operatore nella pila: deve ancora generare il figlio sinistro, il destro, o è completo
+    private static final byte VISIT_LEFT = 0;
+    private static final byte VISIT_RIGHT = 1;
+    private static final byte COMPLETE = 2;
+
+    /**
+     * Disposizione dei nodi negli alberi generati
+     */
+    public enum Shape {
+        /**
+         * Ogni nodo sotto la radice è una costante con la probabilità data (come in Tree.randomize)
+         */
+        RANDOM,
+        /**
+         * Albero completo: tutti i nodi sono operatori fino alla profondità massima
+         */
+        BALANCED,
+        /**
+         * Catena verso sinistra, come "((1 + 2) + 3) + 4": solo i figli sinistri sono operatori
+         */
+        LEFT_CHAIN,
+        /**
+         * Catena verso destra, come "1 + (2 + (3 + 4))": solo i figli destri sono operatori
+         */
+        RIGHT_CHAIN
+    }
+
+    private final OperatorTable opers;
+    private final SplittableRandom random;
+    private double constProbability;
+    private int maxDepth;
+    private int minConst;
+    private int maxConst;
+    private Shape shape;
+
+    // pile di appoggio, riutilizzate fra una generazione e l'altra
+    private int[] depths;
+    private byte[] states;
+
+    /**
+     * Costruttore, con un seme casuale
+     * @param opers La tabella degli operatori
+     */
+    public RandomTreeGenerator(OperatorTable opers) {
+        this(opers, new SplittableRandom());
+    }
+
+    /**
+     * Costruttore
+     * @param opers La tabella degli operatori
+     * @param seed Il seme del generatore di numeri casuali
+     */
+    public RandomTreeGenerator(OperatorTable opers, long seed) {
+        this(opers, new SplittableRandom(seed));
+    }
+
+    /**
+     * Costruttore d'appoggio, con le impostazioni predefinite
+     * @param opers La tabella degli operatori
+     * @param random Il generatore di numeri casuali
+     */
+    private RandomTreeGenerator(OperatorTable opers, SplittableRandom random) {
+        this.opers = opers;
+        this.random = random;
+        this.constProbability = DEFAULT_CONST_PROBABILITY;
+        this.maxDepth = DEFAULT_MAX_DEPTH;
+        this.minConst = DEFAULT_MIN_CONST;
+        this.maxConst = DEFAULT_MAX_CONST;
+        this.shape = Shape.RANDOM;
+        this.depths = new int[INITIAL_STACK];
+        this.states = new byte[INITIAL_STACK];
+    }
+
+    /**
+     * Crea un nuovo generatore con le stesse impostazioni e una sequenza di numeri casuali indipendente da questa
+     * (vedere SplittableRandom.split). Il nuovo generatore dipende solo dallo stato di questo, quindi anche la
+     * sequenza di split è riproducibile
+     * @return Il nuovo generatore
+     */
+    public RandomTreeGenerator split() {
+        RandomTreeGenerator out = new RandomTreeGenerator(this.opers, this.random.split());
+        out.constProbability = this.constProbability;
+        out.maxDepth = this.maxDepth;
+        out.minConst = this.minConst;
+        out.maxConst = this.maxConst;
+        out.shape = this.shape;
+        return out;
+    }
+
+    /**
+     * Imposta la probabilità che un nodo diverso dalla radice sia una costante (usata solo con Shape.RANDOM)
+     * @param constProbability La probabilità, fra 0 e 1
+     * @throws IllegalArgumentException Se la probabilità non è compresa fra 0 e 1
+     */
+    public void setConstProbability(double constProbability) throws IllegalArgumentException {
+        if (!(constProbability >= 0 && constProbability <= 1))
+            throw new IllegalArgumentException(String.format(ILLEGAL_PROBABILITY, constProbability));
+        this.constProbability = constProbability;
+    }
+
+    /**
+     * Imposta la profondità massima degli alberi generati, con lo stesso significato di Tree.randomize
+     * @param maxDepth La profondità massima, almeno 1
+     * @throws IllegalArgumentException Se la profondità non è positiva
+     */
+    public void setMaxDepth(int maxDepth) throws IllegalArgumentException {
+        if (maxDepth < 1)
+            throw new IllegalArgumentException(String.format(ILLEGAL_DEPTH, maxDepth));
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Imposta l'intervallo delle costanti generate
+     * @param minConst Il valore minimo (incluso)
+     * @param maxConst Il valore massimo (escluso)
+     * @throws IllegalArgumentException Se l'intervallo è vuoto
+     */
+    public void setConstRange(int minConst, int maxConst) throws IllegalArgumentException {
+        if (minConst >= maxConst)
+            throw new IllegalArgumentException(String.format(ILLEGAL_RANGE, minConst, maxConst));
+        this.minConst = minConst;
+        this.maxConst = maxConst;
+    }
+
+    /**
+     * Imposta la disposizione dei nodi negli alberi generati
+     * @param shape La disposizione dei nodi
+     */
+    public void setShape(Shape shape) {
+        this.shape = shape;
+    }
+
+    /**
+     * Getter della probabilità che un nodo sia una costante
+     * @return La probabilità
+     */
+    public double getConstProbability() {
+        return this.constProbability;
+    }
+
+    /**
+     * Getter della profondità massima degli alberi
+     * @return La profondità massima
+     */
+    public int getMaxDepth() {
+        return this.maxDepth;
+    }
+
+    /**
+     * Getter del valore minimo delle costanti (incluso)
+     * @return Il valore minimo
+     */
+    public int getMinConst() {
+        return this.minConst;
+    }
+
+    /**
+     * Getter del valore massimo delle costanti (escluso)
+     * @return Il valore massimo
+     */
+    public int getMaxConst() {
+        return this.maxConst;
+    }
+
+    /**
+     * Getter della disposizione dei nodi
+     * @return La disposizione dei nodi
+     */
+    public Shape getShape() {
+        return this.shape;
+    }
+
+    /**
+     * Getter della tabella degli operatori
+     * @return La tabella degli operatori
+     */
+    public OperatorTable getOperatorTable() {
+        return this.opers;
+    }
+
+    /**
+     * Genera un albero casuale in forma compatta
+     * @return L'albero generato
+     */
+    public CompactTree nextCompact() {
+        CompactTree out = new CompactTree(this.opers);
+        this.nextCompact(out);
+        return out;
+    }
+
+    /**
+     * Genera un albero casuale in forma compatta, sostituendo il contenuto dell'albero dato (così, generando molti
+     * alberi di seguito, si può riutilizzare lo spazio già riservato)
+     * @param out L'albero su cui scrivere, che deve usare la stessa tabella degli operatori
+     * @throws IllegalArgumentException Se l'albero usa una tabella degli operatori diversa
+     */
+    public void nextCompact(CompactTree out) throws IllegalArgumentException {
+        if (out.getOperatorTable() != this.opers)
+            throw new IllegalArgumentException(ILLEGAL_TABLE);
+        out.clear();
+        this.generate(new CompactSink(out));
+    }
+
+    /**
+     * Genera un albero casuale di nodi
+     * @return La radice dell'albero generato
+     */
+    public Node nextNode() {
+        NodeSink sink = new NodeSink(this.opers);
+        this.generate(sink);
+        return sink.nodes.pop();
+    }
+
+    /**
+     * Genera in sequenza un certo numero di alberi casuali in forma compatta
+     * @param count Il numero di alberi
+     * @return Gli alberi generati
+     * @throws IllegalArgumentException Se il numero di alberi è negativo
+     */
+    public List<CompactTree> generate(int count) throws IllegalArgumentException {
+        if (count < 0)
+            throw new IllegalArgumentException(String.format(ILLEGAL_COUNT, count));
+        CompactTree[] out = new CompactTree[count];
+        for (int i = 0; i < count; i++) {
+            out[i] = this.nextCompact();
+        }
+        return Arrays.asList(out);
+    }
+
+    /**
+     * Genera in parallelo un certo numero di alberi casuali in forma compatta, con il pool comune
+     * @param count Il numero di alberi
+     * @return Gli alberi generati
+     * @throws IllegalArgumentException Se il numero di alberi è negativo
+     */
+    public List<CompactTree> generateParallel(int count) throws IllegalArgumentException {
+        return this.generateParallel(count, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Genera in parallelo un certo numero di alberi casuali in forma compatta, con il pool dato.
+     * Gli alberi vengono divisi in blocchi di dimensione fissa, e ogni blocco viene generato da un generatore
+     * ottenuto con split: i generatori vengono creati in sequenza prima di iniziare, quindi il risultato dipende
+     * solo dal seme e non dal numero di thread o dall'ordine di esecuzione dei task
+     * @param count Il numero di alberi
+     * @param pool Il pool di thread da utilizzare
+     * @return Gli alberi generati
+     * @throws IllegalArgumentException Se il numero di alberi è negativo
+     */
+    public List<CompactTree> generateParallel(int count, ForkJoinPool pool) throws IllegalArgumentException {
+        if (count < 0)
+            throw new IllegalArgumentException(String.format(ILLEGAL_COUNT, count));
+        RandomTreeGenerator[] generators = new RandomTreeGenerator[(count + BULK_CHUNK - 1) / BULK_CHUNK];
+        for (int i = 0; i < generators.length; i++) {
+            generators[i] = this.split();
+        }
+        CompactTree[] out = new CompactTree[count];
+        if (generators.length > 0)
+            pool.invoke(new GenerateTask(generators, out, 0, generators.length));
+        return Arrays.asList(out);
+    }
+
+    /**
+     * Metodo che genera un albero, passando costanti e operatori al sink in notazione polacca inversa.
+     * I numeri casuali vengono estratti nello stesso ordine della versione ricorsiva di Tree.randomize: prima il
+     * sottoalbero sinistro, poi il destro, infine l'operatore
+     * @param sink L'oggetto che costruisce il risultato
+     */
+    private void generate(Sink sink) {
+        int[] depths = this.depths;
+        byte[] states = this.states;
+        int top = 0;
+        // la radice è sempre un operatore
+        depths[top] = this.maxDepth;
+        states[top++] = VISIT_LEFT;
+        while (top > 0) {
+            byte state = states[top - 1]++;
+            if (state == COMPLETE) {
+                sink.operator(this.random.nextInt(this.opers.size()));
+                top--;
+                continue;
+            }
+
+            int childDepth = depths[top - 1] - 1;
+            if (this.isOperator(childDepth, state == VISIT_LEFT)) {
+                if (top == depths.length) {
+                    depths = Arrays.copyOf(depths, top * 2);
+                    states = Arrays.copyOf(states, top * 2);
+                }
+                depths[top] = childDepth;
+                states[top++] = VISIT_LEFT;
+            } else {
+                sink.constant(this.random.nextInt(this.minConst, this.maxConst));
+            }
+        }
+        // le pile eventualmente ingrandite vengono conservate per la prossima generazione
+        this.depths = depths;
+        this.states = states;
+    }
+
+    /**
+     * Metodo d'appoggio che decide se un nodo figlio è un operatore o una costante
+     * @param maxDepth La massima profondità del sottoalbero del figlio
+     * @param isLeft True se si tratta del figlio sinistro
+     * @return True se il figlio è un operatore
+     */
+    private boolean isOperator(int maxDepth, boolean isLeft) {
+        if (maxDepth <= 1) return false;
+        switch (this.shape) {
+            case BALANCED:
+                return true;
+            case LEFT_CHAIN:
+                return isLeft;
+            case RIGHT_CHAIN:
+                return !isLeft;
+            default:
+                return this.random.nextDouble() >= this.constProbability;
+        }
+    }
+
+    /**
+     * Oggetto che riceve costanti e operatori in notazione polacca inversa e costruisce l'albero generato
+     */
+    private interface Sink {
+        void constant(double value);
+        void operator(int opcode);
+    }
+
+    /**
+     * Sink che scrive l'albero direttamente in forma compatta
+     */
+    private static final class CompactSink implements Sink {
+        private final CompactTree tree;
+        private int[] operands;
+        private int top;
+
+        private CompactSink(CompactTree tree) {
+            this.tree = tree;
+            this.operands = new int[INITIAL_STACK];
+        }
+
+        @Override
+        public void constant(double value) {
+            if (this.top == this.operands.length) this.operands = Arrays.copyOf(this.operands, this.top * 2);
+            this.operands[this.top++] = this.tree.addConst(value);
+        }
+
+        @Override
+        public void operator(int opcode) {
+            int right = this.operands[--this.top];
+            int left = this.operands[--this.top];
+            this.operands[this.top++] = this.tree.addOperator(opcode, left, right);
+        }
+    }
+
+    /**
+     * Sink che costruisce un albero di nodi
+     */
+    private static final class NodeSink implements Sink {
+        private final OperatorTable opers;
+        private final ArrayDeque<Node> nodes;
+
+        private NodeSink(OperatorTable opers) {
+            this.opers = opers;
+            this.nodes = new ArrayDeque<>();
+        }
+
+        @Override
+        public void constant(double value) {
+            this.nodes.push(new ConstNode(value));
+        }
+
+        @Override
+        public void operator(int opcode) {
+            Node right = this.nodes.pop();
+            Node left = this.nodes.pop();
+            this.nodes.push(new OperatorNode(left, right, this.opers.get(opcode), this.opers));
+        }
+    }
+
+    /**
+     * Task che genera un intervallo di blocchi di alberi, ciascuno con il proprio generatore
+     */
+    private static final class GenerateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RandomTreeGenerator[] generators;
+        private final CompactTree[] out;
+        private final int from;
+        private final int to;
+
+        private GenerateTask(RandomTreeGenerator[] generators, CompactTree[] out, int from, int to) {
+            this.generators = generators;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > 1) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new GenerateTask(this.generators, this.out, this.from, middle),
+                        new GenerateTask(this.generators, this.out, middle, this.to));
+                return;
+            }
+
+            RandomTreeGenerator generator = this.generators[this.from];
+            int end = Math.min(this.out.length, (this.from + 1) * BULK_CHUNK);
+            for (int i = this.from * BULK_CHUNK; i < end; i++) {
+                this.out[i] = generator.nextCompact();
+            }
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/**
+ * Classe che rappresenta un numero razionale esatto, usata per il calcolo esatto delle espressioni.
+ * Numeratore e denominatore sono memorizzati come long finché ci stanno: le operazioni usano i metodi Math.*Exact,
+ * e solo in caso di overflow si passa ai BigInteger. Anche i risultati calcolati con i BigInteger tornano ad usare i
+ * long appena possibile, così il caso comune resta veloce.
+ * La frazione è sempre ridotta ai minimi termini, con denominatore positivo, quindi ogni numero ha una sola
+ * rappresentazione. Gli oggetti di questa classe sono immutabili.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public final class Rational extends Number implements Comparable<Rational> {
+    private static final long serialVersionUID = 1L;
+
+    public static final Rational ZERO = new Rational(0, 1);
+    public static final Rational ONE = new Rational(1, 1);
+
+    private static final String DIVISION_BY_ZERO = "Division by zero";
+    private static final String NON_INTEGER_EXPONENT = "Non-integer exponent: %s";
+    private static final String EXPONENT_TOO_LARGE = "Exponent too large: %s";
+    private static final String NON_FINITE_VALUE = "Non-finite value: %s";
+    private static final String SCALE_TOO_LARGE = "Decimal scale too large: %d";
+    // dimensione massima (in bit) di numeratore e denominatore di una potenza
+    private static final long MAX_POWER_BITS = 1L << 24;
+    // scala massima (in cifre) di un numero decimale: 10^n ha meno di 4n bit, quindi resta entro MAX_POWER_BITS
+    private static final long MAX_SCALE = MAX_POWER_BITS / 4;
+    // i long fino a 2^53 sono rappresentati esattamente dai double
+    private static final long MAX_EXACT_DOUBLE = 1L << 53;
+
+    // forma compatta, valida se bigNum è null
+    private final long num;
+    private final long den;
+    // forma estesa, usata solo se numeratore o denominatore non stanno in un long
+    private final BigInteger bigNum;
+    private final BigInteger bigDen;
+
+    /**
+     * Costruttore della forma compatta (la frazione deve essere già ridotta)
+     * @param num Il numeratore
+     * @param den Il denominatore, positivo
+     */
+    private Rational(long num, long den) {
+        this.num = num;
+        this.den = den;
+        this.bigNum = null;
+        this.bigDen = null;
+    }
+
+    /**
+     * Costruttore della forma estesa (la frazione deve essere già ridotta)
+     * @param num Il numeratore
+     * @param den Il denominatore, positivo
+     */
+    private Rational(BigInteger num, BigInteger den) {
+        this.num = 0;
+        this.den = 0;
+        this.bigNum = num;
+        this.bigDen = den;
+    }
+
+    /**
+     * Restituisce il numero intero dato
+     * @param value Il numero intero
+     * @return Il numero razionale corrispondente
+     */
+    public static Rational valueOf(long value) {
+        return new Rational(value, 1);
+    }
+
+    /**
+     * Restituisce la frazione data, ridotta ai minimi termini
+     * @param num Il numeratore
+     * @param den Il denominatore
+     * @return Il numero razionale corrispondente
+     * @throws ArithmeticException Se il denominatore è zero
+     */
+    public static Rational valueOf(long num, long den) throws ArithmeticException {
+        if (den == 0)
+            throw new ArithmeticException(DIVISION_BY_ZERO);
+        return of(num, den);
+    }
+
+    /**
+     * Restituisce la frazione data, ridotta ai minimi termini
+     * @param num Il numeratore
+     * @param den Il denominatore
+     * @return Il numero razionale corrispondente
+     * @throws ArithmeticException Se il denominatore è zero
+     */
+    public static Rational valueOf(BigInteger num, BigInteger den) throws ArithmeticException {
+        if (den.signum() == 0)
+            throw new ArithmeticException(DIVISION_BY_ZERO);
+        return of(num, den);
+    }
+
+    /**
+     * Restituisce il valore esatto di un numero decimale (ad esempio 2.5 diventa 5/2)
+     * @param value Il numero decimale
+     * @return Il numero razionale corrispondente
+     * @throws ArithmeticException Se la scala del numero è troppo grande (la potenza di 10 corrispondente
+     *                             supererebbe i 2^24 bit)
+     */
+    public static Rational valueOf(BigDecimal value) throws ArithmeticException {
+        int scale = value.scale();
+        BigInteger unscaled = value.unscaledValue();
+        if (unscaled.signum() == 0) return ZERO;
+        if (Math.abs((long) scale) > MAX_SCALE)
+            throw new ArithmeticException(String.format(SCALE_TOO_LARGE, scale));
+        if (scale <= 0)
+            return of(unscaled.multiply(BigInteger.TEN.pow(-scale)), BigInteger.ONE);
+        return of(unscaled, BigInteger.TEN.pow(scale));
+    }
+
+    /**
+     * Restituisce il valore esatto di un double (ad esempio 0.5 diventa 1/2, mentre 0.1 diventa la frazione con
+     * denominatore potenza di 2 più vicina a un decimo, perché 0.1 non è rappresentabile esattamente)
+     * @param value Il double
+     * @return Il numero razionale corrispondente
+     * @throws ArithmeticException Se il valore è infinito o NaN
+     */
+    public static Rational valueOf(double value) throws ArithmeticException {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            throw new ArithmeticException(String.format(NON_FINITE_VALUE, value));
+        if (value == (long) value && Math.abs(value) < MAX_EXACT_DOUBLE)
+            return new Rational((long) value, 1);
+        return valueOf(new BigDecimal(value));
+    }
+
+    /**
+     * Metodo d'appoggio che riduce ai minimi termini una frazione di long, passando ai BigInteger se necessario
+     * @param num Il numeratore
+     * @param den Il denominatore, diverso da zero
+     * @return Il numero razionale corrispondente
+     */
+    private static Rational of(long num, long den) {
+        // Long.MIN_VALUE non può essere cambiato di segno
+        if (num == Long.MIN_VALUE || den == Long.MIN_VALUE)
+            return of(BigInteger.valueOf(num), BigInteger.valueOf(den));
+        if (num == 0) return ZERO;
+        if (den < 0) {
+            num = -num;
+            den = -den;
+        }
+        long g = gcd(Math.abs(num), den);
+        return new Rational(num / g, den / g);
+    }
+
+    /**
+     * Metodo d'appoggio che riduce ai minimi termini una frazione di BigInteger, tornando ai long se possibile
+     * @param num Il numeratore
+     * @param den Il denominatore, diverso da zero
+     * @return Il numero razionale corrispondente
+     */
+    private static Rational of(BigInteger num, BigInteger den) {
+        if (num.signum() == 0) return ZERO;
+        if (den.signum() < 0) {
+            num = num.negate();
+            den = den.negate();
+        }
+        BigInteger g = num.gcd(den);
+        if (!g.equals(BigInteger.ONE)) {
+            num = num.divide(g);
+            den = den.divide(g);
+        }
+        if (num.bitLength() < Long.SIZE && den.bitLength() < Long.SIZE)
+            return new Rational(num.longValue(), den.longValue());
+        return new Rational(num, den);
+    }
+
+    /**
+     * Metodo d'appoggio che calcola il massimo comune divisore di due long non negativi
+     * @param a Il primo numero
+     * @param b Il secondo numero
+     * @return Il massimo comune divisore
+     */
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * Controlla se il numero è memorizzato nella forma compatta
+     * @return True se numeratore e denominatore sono long
+     */
+    private boolean isSmall() {
+        return this.bigNum == null;
+    }
+
+    /**
+     * Restituisce il numeratore
+     * @return Il numeratore (negativo se il numero è negativo)
+     */
+    public BigInteger getNumerator() {
+        return this.isSmall() ? BigInteger.valueOf(this.num) : this.bigNum;
+    }
+
+    /**
+     * Restituisce il denominatore
+     * @return Il denominatore, sempre positivo
+     */
+    public BigInteger getDenominator() {
+        return this.isSmall() ? BigInteger.valueOf(this.den) : this.bigDen;
+    }
+
+    /**
+     * Restituisce il segno del numero
+     * @return -1, 0 o 1 se il numero è negativo, zero o positivo
+     */
+    public int signum() {
+        return this.isSmall() ? Long.signum(this.num) : this.bigNum.signum();
+    }
+
+    /**
+     * Controlla se il numero è intero
+     * @return True se il denominatore è 1
+     */
+    public boolean isInteger() {
+        return this.isSmall() ? this.den == 1 : this.bigDen.equals(BigInteger.ONE);
+    }
+
+    /**
+     * Somma
+     * @param other Il secondo addendo
+     * @return La somma
+     */
+    public Rational add(Rational other) {
+        if (this.isSmall() && other.isSmall()) {
+            try {
+                if (this.den == other.den)
+                    return of(Math.addExact(this.num, other.num), this.den);
+                long n = Math.addExact(Math.multiplyExact(this.num, other.den), Math.multiplyExact(other.num, this.den));
+                return of(n, Math.multiplyExact(this.den, other.den));
+            } catch (ArithmeticException overflow) {
+                // si prosegue con i BigInteger
+            }
+        }
+        BigInteger d1 = this.getDenominator();
+        BigInteger d2 = other.getDenominator();
+        return of(this.getNumerator().multiply(d2).add(other.getNumerator().multiply(d1)), d1.multiply(d2));
+    }
+
+    /**
+     * Sottrazione
+     * @param other Il sottraendo
+     * @return La differenza
+     */
+    public Rational subtract(Rational other) {
+        return this.add(other.negate());
+    }
+
+    /**
+     * Cambio di segno
+     * @return L'opposto di questo numero
+     */
+    public Rational negate() {
+        if (this.isSmall() && this.num != Long.MIN_VALUE)
+            return new Rational(-this.num, this.den);
+        return of(this.getNumerator().negate(), this.getDenominator());
+    }
+
+    /**
+     * Moltiplicazione
+     * @param other Il secondo fattore
+     * @return Il prodotto
+     */
+    public Rational multiply(Rational other) {
+        if (this.signum() == 0 || other.signum() == 0) return ZERO;
+        if (this.isSmall() && other.isSmall() && this.num != Long.MIN_VALUE && other.num != Long.MIN_VALUE) {
+            try {
+                // semplifico in croce prima di moltiplicare, così il risultato è già ridotto e l'overflow è più raro
+                long g1 = gcd(Math.abs(this.num), other.den);
+                long g2 = gcd(Math.abs(other.num), this.den);
+                long n = Math.multiplyExact(this.num / g1, other.num / g2);
+                long d = Math.multiplyExact(this.den / g2, other.den / g1);
+                return new Rational(n, d);
+            } catch (ArithmeticException overflow) {
+                // si prosegue con i BigInteger
+            }
+        }
+        return of(this.getNumerator().multiply(other.getNumerator()),
+                this.getDenominator().multiply(other.getDenominator()));
+    }
+
+    /**
+     * Divisione
+     * @param other Il divisore
+     * @return Il quoziente
+     * @throws ArithmeticException Se il divisore è zero
+     */
+    public Rational divide(Rational other) throws ArithmeticException {
+        return this.multiply(other.reciprocal());
+    }
+
+    /**
+     * Reciproco
+     * @return Il reciproco di questo numero
+     * @throws ArithmeticException Se il numero è zero
+     */
+    public Rational reciprocal() throws ArithmeticException {
+        if (this.signum() == 0)
+            throw new ArithmeticException(DIVISION_BY_ZERO);
+        if (this.isSmall())
+            return of(this.den, this.num);
+        return of(this.bigDen, this.bigNum);
+    }
+
+    /**
+     * Elevamento a potenza con esponente intero
+     * @param exponent L'esponente, che deve essere un numero intero
+     * @return La potenza
+     * @throws ArithmeticException Se l'esponente non è intero o è troppo grande (se il risultato supererebbe i 2^24
+     *                             bit), oppure se si eleva zero a un esponente negativo
+     */
+    public Rational pow(Rational exponent) throws ArithmeticException {
+        if (!exponent.isInteger())
+            throw new ArithmeticException(String.format(NON_INTEGER_EXPONENT, exponent));
+        if (!exponent.isSmall() || exponent.num != (int) exponent.num || exponent.num == Integer.MIN_VALUE)
+            throw new ArithmeticException(String.format(EXPONENT_TOO_LARGE, exponent));
+        int n = (int) exponent.num;
+        // stima della dimensione del risultato, per non tentare calcoli che esaurirebbero la memoria
+        long bits = (long) Math.max(this.getNumerator().bitLength() - 1, this.getDenominator().bitLength() - 1)
+                * Math.abs((long) n);
+        if (bits > MAX_POWER_BITS)
+            throw new ArithmeticException(String.format(EXPONENT_TOO_LARGE, exponent));
+        if (n < 0) return this.reciprocal().pow(-n);
+        return this.pow(n);
+    }
+
+    /**
+     * Elevamento a potenza con esponente intero non negativo
+     * @param n L'esponente
+     * @return La potenza
+     */
+    private Rational pow(int n) {
+        if (this.isSmall()) {
+            try {
+                // numeratore e denominatore sono primi fra loro, quindi lo sono anche le loro potenze
+                return new Rational(pow(this.num, n), pow(this.den, n));
+            } catch (ArithmeticException overflow) {
+                // si prosegue con i BigInteger
+            }
+        }
+        return of(this.getNumerator().pow(n), this.getDenominator().pow(n));
+    }
+
+    /**
+     * Metodo d'appoggio che eleva a potenza un long, con quadrati successivi
+     * @param base La base
+     * @param n L'esponente, non negativo
+     * @return La potenza
+     * @throws ArithmeticException In caso di overflow
+     */
+    private static long pow(long base, int n) throws ArithmeticException {
+        long result = 1;
+        while (n > 0) {
+            if ((n & 1) != 0) result = Math.multiplyExact(result, base);
+            n >>>= 1;
+            if (n > 0) base = Math.multiplyExact(base, base);
+        }
+        return result;
+    }
+
+    /**
+     * Converte il numero in un BigDecimal con la precisione data
+     * @param mc La precisione e il tipo di arrotondamento
+     * @return Il numero decimale
+     * @throws ArithmeticException Se il risultato non è esatto e mc non prevede arrotondamenti (ad esempio 1/3 con
+     *                             MathContext.UNLIMITED)
+     */
+    public BigDecimal toBigDecimal(MathContext mc) throws ArithmeticException {
+        if (this.isSmall() && this.den == 1)
+            return new BigDecimal(this.num).round(mc);
+        return new BigDecimal(this.getNumerator()).divide(new BigDecimal(this.getDenominator()), mc);
+    }
+
+    @Override
+    public double doubleValue() {
+        // se numeratore e denominatore sono rappresentati esattamente, la divisione è arrotondata correttamente
+        if (this.isSmall() && Math.abs(this.num) <= MAX_EXACT_DOUBLE && this.den <= MAX_EXACT_DOUBLE)
+            return (double) this.num / this.den;
+        return this.toBigDecimal(MathContext.DECIMAL64).doubleValue();
+    }
+
+    @Override
+    public float floatValue() {
+        return (float) this.doubleValue();
+    }
+
+    @Override
+    public long longValue() {
+        if (this.isSmall()) return this.num / this.den;
+        return this.bigNum.divide(this.bigDen).longValue();
+    }
+
+    @Override
+    public int intValue() {
+        return (int) this.longValue();
+    }
+
+    @Override
+    public int compareTo(Rational other) {
+        if (this.isSmall() && other.isSmall()) {
+            try {
+                return Long.compare(Math.multiplyExact(this.num, other.den), Math.multiplyExact(other.num, this.den));
+            } catch (ArithmeticException overflow) {
+                // si prosegue con i BigInteger
+            }
+        }
+        return this.getNumerator().multiply(other.getDenominator())
+                .compareTo(other.getNumerator().multiply(this.getDenominator()));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Rational)) return false;
+        Rational other = (Rational) o;
+        // la rappresentazione è unica, quindi basta confrontare i campi
+        if (this.isSmall() != other.isSmall()) return false;
+        if (this.isSmall()) return this.num == other.num && this.den == other.den;
+        return this.bigNum.equals(other.bigNum) && this.bigDen.equals(other.bigDen);
+    }
+
+    @Override
+    public int hashCode() {
+        if (this.isSmall()) return 31 * Long.hashCode(this.num) + Long.hashCode(this.den);
+        return 31 * this.bigNum.hashCode() + this.bigDen.hashCode();
+    }
+
+    /**
+     * Restituisce la frazione nella forma "numeratore/denominatore", oppure solo il numeratore se il numero è intero
+     * @return La stringa rappresentante il numero
+     */
+    @Override
+    public String toString() {
+        if (this.isInteger()) return this.getNumerator().toString();
+        return this.getNumerator() + "/" + this.getDenominator();
+    }
+}
@@ -0,0 +1,65 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classe d'appoggio che memorizza la rappresentazione testuale di un nodo (vedere parenthesize e
+ * necessaryParentheses dei nodi con figli), così che stampare più volte lo stesso albero non modificato costi O(1) e
+ * non allochi memoria.
+ * Un albero nuovo (generato casualmente, interpretato da una stringa o ottimizzato) è fatto di nodi nuovi, senza
+ * testo memorizzato, quindi costruirlo o sostituirlo non invalida le rappresentazioni degli altri alberi.
+ * La validità è controllata solo rispetto alle modifiche che possono riguardare alberi già stampati: il cambio di
+ * precedenza di un operatore o di associatività di un livello (gli operatori sono condivisi da tutti gli alberi che
+ * li usano) e la rigenerazione casuale di un nodo esistente (un nodo non conosce i propri padri né gli alberi di cui
+ * fa parte, per cui si invalidano tutti). Queste modifiche incrementano un contatore globale, e sono rare rispetto
+ * alle stampe.
+ * Gli oggetti di questa classe sono immutabili, quindi possono essere letti e sostituiti da più thread.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+final class RenderCache {
+    private static final AtomicLong SHARED_MUTATIONS = new AtomicLong();
+
+    private final String text;
+    private final long generation;
+
+    private RenderCache(String text, long generation) {
+        this.text = text;
+        this.generation = generation;
+    }
+
+    /**
+     * Segnala una modifica che può cambiare la rappresentazione testuale di alberi già stampati
+     */
+    static void invalidateAll() {
+        SHARED_MUTATIONS.incrementAndGet();
+    }
+
+    /**
+     * Restituisce il numero di modifiche finora: va letto prima di generare il testo da memorizzare, così una
+     * modifica concorrente alla stampa rende comunque non valido il risultato
+     * @return Il contatore delle modifiche
+     */
+    static long generation() {
+        return SHARED_MUTATIONS.get();
+    }
+
+    /**
+     * Crea una rappresentazione memorizzata
+     * @param text Il testo
+     * @param generation Il contatore delle modifiche letto prima di generare il testo
+     * @return La rappresentazione memorizzata
+     */
+    static RenderCache of(String text, long generation) {
+        return new RenderCache(text, generation);
+    }
+
+    /**
+     * Restituisce il testo memorizzato, se è ancora valido
+     * @param cache La rappresentazione memorizzata (anche null)
+     * @return Il testo, null se non c'è o non è più valido
+     */
+    static String valid(RenderCache cache) {
+        return cache != null && cache.generation == SHARED_MUTATIONS.get() ? cache.text : null;
+    }
+}
@@ -1,5 +1,9 @@
 package it.unibs.arnaldo.lezione5.squareroots;
 
+import java.io.IOException;
+import java.math.MathContext;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
 import java.util.Scanner;
 
 /**
@@ -12,16 +16,41 @@ public class SquareRoots {
         // aggiunta degli operatori
         OperatorTable operators = new OperatorTable();
         operators.setGroupAssociativity(true); // imposto l'associatività sinistra per tutto il liv. di precedenza
-        operators.add(new Operator("+", (l, r) -> l+r));
-        operators.add(new Operator("-", (l, r) -> l-r));
+        Operator plus = new Operator("+", Arithmetic.ADD);
+        plus.setIdentity(-0.0); // elementi neutri e risultati noti, usati per semplificare l'albero
+        Operator minus = new Operator("-", Arithmetic.SUBTRACT);
+        minus.setRightIdentity(0);
+        minus.setSelfResult(0);
+        operators.add(plus);
+        operators.add(minus);
         operators.stepUpPrecedence(); // aumento il livello di precedenza
         operators.setGroupAssociativity(true);
-        operators.add(new Operator("*", (l, r) -> l*r));
-        operators.add(new Operator("/", (l, r) -> l/r));
-        // tolgo l'operatore di elevamento a potenza perché causa overflow vari nel calcolo del risultato
-//        operators.stepUpPrecedence();
-//        operators.setGroupAssociativity(false);
-//        operators.add(new Operator("^", (l, r) -> (int)Math.pow(l, r)));
+        Operator times = new Operator("*", Arithmetic.MULTIPLY);
+        times.setIdentity(1);
+        Operator divide = new Operator("/", Arithmetic.DIVIDE);
+        divide.setRightIdentity(1);
+        divide.setSelfResult(1);
+        operators.add(times);
+        operators.add(divide);
+        operators.stepUpPrecedence();
+        // il meno prefisso ha precedenza fra "*" e "^": "-2 * 3" vale (-2) * 3, mentre "-2 ^ 2" vale -(2 ^ 2)
+        operators.addPrefix(PrefixOperator.negation("-"));
+        operators.stepUpPrecedence();
+        operators.setGroupAssociativity(false); // l'elevamento a potenza ha associatività destra
+        operators.add(new Operator("^", Arithmetic.POWER));
+        // funzioni
+        operators.addFunction(new MathFunction("sqrt", 1, a -> Math.sqrt(a[0])));
+        operators.addFunction(new MathFunction("abs", 1, a -> Math.abs(a[0])));
+        operators.addFunction(new MathFunction("max", 1, MathFunction.UNLIMITED, a -> {
+            double max = a[0];
+            for (double x : a) max = Math.max(max, x);
+            return max;
+        }));
+        operators.addFunction(new MathFunction("min", 1, MathFunction.UNLIMITED, a -> {
+            double min = a[0];
+            for (double x : a) min = Math.min(min, x);
+            return min;
+        }));
 
         // costruisco l'albero con gli operatori che ho inserito
         Tree tree = new Tree(operators);
@@ -31,6 +60,7 @@ public class SquareRoots {
         System.out.println("Cosa vuoi fare?");
         System.out.println("1) Genera un albero casualmente");
         System.out.println("2) Genera un albero da un'espressione matematica");
+        System.out.println("3) Calcola le espressioni di un file (una per riga)");
 
         Scanner in = new Scanner(System.in).useDelimiter(System.lineSeparator());
         int selection = -1;
@@ -41,9 +71,9 @@ public class SquareRoots {
                 selection = Integer.parseInt(sel);
             } catch (Exception ignored) {}
 
-            if (selection < 1 || selection > 2)
+            if (selection < 1 || selection > 3)
                 System.out.print("Riprova");
-        } while (selection < 1 || selection > 2);
+        } while (selection < 1 || selection > 3);
 
         switch (selection) {
             case 1: // generazione casuale di profondità massima 10
@@ -53,6 +83,16 @@ public class SquareRoots {
                 System.out.println("Inserisci l'espressione da utilizzare");
                 String expr = in.nextLine().replaceAll("\\s+", "");
                 tree.parseExpression(expr);
+                break;
+            case 3: // calcolo di tutte le righe di un file, in parallelo
+                System.out.println("Inserisci il percorso del file");
+                String path = in.nextLine().trim();
+                try {
+                    printBatch(ExpressionBatch.evaluateFile(Paths.get(path), operators));
+                } catch (IOException | InvalidPathException e) {
+                    System.out.println("Impossibile leggere il file " + path + ": " + e.getMessage());
+                }
+                return;
         }
 
         System.out.printf("%nRappresentazione dell'espressione con tutte le parentesi, anche quelle non necessarie:%n");
@@ -63,8 +103,35 @@ public class SquareRoots {
 
         System.out.printf("%n%nCalcolo del risultato dell'espressione:%n");
         System.out.println("Risultato = " + tree.calculate());
-    }
-
 
+        // calcolo esatto (frazione) e con 34 cifre significative: non ci sono errori di arrotondamento, ma la
+        // divisione per zero non ha un risultato
+        try {
+            System.out.println("Risultato esatto = " + tree.calculateExact());
+            System.out.println("Risultato a 34 cifre = " + tree.calculate(MathContext.DECIMAL128));
+        } catch (ArithmeticException | IllegalArgumentException e) {
+            System.out.println("Risultato esatto non disponibile: " + e.getMessage());
+        }
+    }
 
+    /**
+     * Stampa il riepilogo dell'elaborazione di un file: i primi risultati, i primi errori e le prestazioni
+     * @param batch Il risultato dell'elaborazione
+     */
+    private static void printBatch(ExpressionBatch batch) {
+        final int shown = 10;
+        System.out.printf("%nRighe elaborate: %d, di cui non valide: %d%n", batch.getLineCount(), batch.getErrorCount());
+        for (int i = 0, printed = 0; i < batch.getLineCount() && printed < shown; i++) {
+            if (!batch.isValid(i)) {
+                System.out.printf("Riga %d: %s%n", i + 1, batch.getError(i));
+                printed++;
+            }
+        }
+        for (int i = 0; i < Math.min(shown, batch.getLineCount()); i++) {
+            if (batch.isValid(i))
+                System.out.printf("Riga %d = %s%n", i + 1, batch.getValue(i));
+        }
+        System.out.printf("Tempo: %.3f s, %.0f righe/s, %.2f MB/s%n", batch.getElapsedNanos() / 1e9,
+                batch.getLinesPerSecond(), batch.getBytesPerSecond() / (1 << 20));
+    }
 }
@@ -0,0 +1,328 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Classe del main che misura le prestazioni delle parti principali del package: parsing, calcolo, stampa con le
+ * parentesi e ricerca degli operatori (vedere MicroBenchmark per il metodo di misura).
+ * Le misure sono divise in gruppi ("parse", "calculate", "print", "bestMatch"); passando come argomenti i nomi di
+ * alcuni gruppi vengono eseguiti solo quelli, e con l'argomento "quick" le misure durano meno (utile per una prova
+ * veloce, i risultati sono meno affidabili).
+ * Per misurare anche la memoria allocata serve una JVM che la renda disponibile (ad esempio HotSpot).
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public class SquareRootsBenchmark {
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+    private static final long QUICK_WARMUP_NANOS = 100_000_000L;
+    private static final long QUICK_MEASURE_NANOS = 200_000_000L;
+    // oltre questo tempo per una singola operazione, la misura viene saltata (ad esempio il parsing ricorsivo di
+    // NodeParser, più che quadratico, su espressioni molto lunghe)
+    private static final long PROBE_LIMIT_NANOS = 500_000_000L;
+    private static final long SEED = 42;
+
+    private static final int[] PARSE_SIZES = {10, 1_000, 100_000, 1_000_000};
+    private static final int[] CALCULATE_DEPTHS = {5, 10, 15, 20};
+    private static final int[] PRINT_DEPTHS = {5, 10, 15};
+    private static final int[] TABLE_SIZES = {4, 100};
+    // simboli usati per gli identificatori degli operatori della tabella grande
+    private static final String SYMBOLS = "+-*/%^&|<>=!~@#$?:;";
+
+    /**
+     * Forma delle espressioni usate per il parsing
+     */
+    private enum Shape {
+        /**
+         * Catena senza parentesi, come "1+2*3-4/5+..."
+         */
+        LEFT_DEEP,
+        /**
+         * Albero bilanciato, scritto con le sole parentesi necessarie
+         */
+        BALANCED,
+        /**
+         * Parentesi annidate, come "(1+(1+(1+...)))"
+         */
+        PARENTHESIZED
+    }
+
+    public static void main(String[] args) {
+        boolean isQuick = false;
+        List<String> groups = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("quick")) isQuick = true;
+            else groups.add(arg);
+        }
+        MicroBenchmark bench = isQuick ? new MicroBenchmark(QUICK_WARMUP_NANOS, QUICK_MEASURE_NANOS)
+                : new MicroBenchmark(WARMUP_NANOS, MEASURE_NANOS);
+
+        System.out.println("Misura delle prestazioni di parsing, calcolo e stampa delle espressioni");
+        System.out.printf("Riscaldamento: %d ms, misura: %d ms per ciascuna riga%n%n",
+                (isQuick ? QUICK_WARMUP_NANOS : WARMUP_NANOS) / 1_000_000,
+                (isQuick ? QUICK_MEASURE_NANOS : MEASURE_NANOS) / 1_000_000);
+        System.out.println(MicroBenchmark.Result.HEADER);
+
+        OperatorTable opers = basicTable();
+        if (groups.isEmpty() || groups.contains("parse")) parseBenchmarks(bench, opers);
+        if (groups.isEmpty() || groups.contains("calculate")) calculateBenchmarks(bench, opers);
+        if (groups.isEmpty() || groups.contains("print")) printBenchmarks(bench, opers);
+        if (groups.isEmpty() || groups.contains("bestMatch")) bestMatchBenchmarks(bench);
+    }
+
+    /**
+     * Parsing di espressioni di varie lunghezze e forme, con NodeParser (ricorsivo) e IterativeParser
+     */
+    private static void parseBenchmarks(MicroBenchmark bench, OperatorTable opers) {
+        Tree tree = new Tree(opers);
+        for (Shape shape : Shape.values()) {
+            // tempi mediani alle due lunghezze precedenti, per stimare quello alla lunghezza successiva
+            long[] recursive = new long[2];
+            long[] iterative = new long[2];
+            long[] lengths = new long[2];
+            for (int size : PARSE_SIZES) {
+                String expr = expression(shape, size, opers);
+                String params = String.format("%s, %d B", shape, expr.length());
+                int length = expr.length();
+                long median = estimate(recursive, lengths, length) > PROBE_LIMIT_NANOS
+                        ? skip("NodeParser.parse", params)
+                        : runIfFeasible(bench, "NodeParser.parse", params, () -> tree.parse(expr, opers).hashCode());
+                push(recursive, median);
+                median = estimate(iterative, lengths, length) > PROBE_LIMIT_NANOS
+                        ? skip("IterativeParser.parse", params)
+                        : runIfFeasible(bench, "IterativeParser.parse", params,
+                                () -> IterativeParser.parse(expr, opers).hashCode());
+                push(iterative, median);
+                push(lengths, length);
+            }
+        }
+    }
+
+    /**
+     * Calcolo di alberi casuali di varie forme e profondità
+     */
+    private static void calculateBenchmarks(MicroBenchmark bench, OperatorTable opers) {
+        for (RandomTreeGenerator.Shape shape : RandomTreeGenerator.Shape.values()) {
+            for (int depth : CALCULATE_DEPTHS) {
+                Tree tree = randomTree(opers, shape, depth);
+                String params = String.format("%s, maxDepth %d", shape, depth);
+                runIfFeasible(bench, "Tree.calculate", params, () -> Double.doubleToRawLongBits(tree.calculate()));
+            }
+        }
+    }
+
+    /**
+     * Stampa con tutte le parentesi e con le sole parentesi necessarie: la stampa vera e propria (TreePrinter, che
+     * genera ogni volta il testo) e la stampa ripetuta di un albero non modificato, il cui testo è memorizzato nei
+     * nodi (vedere RenderCache)
+     */
+    private static void printBenchmarks(MicroBenchmark bench, OperatorTable opers) {
+        for (RandomTreeGenerator.Shape shape : RandomTreeGenerator.Shape.values()) {
+            for (int depth : PRINT_DEPTHS) {
+                Node root = randomRoot(opers, shape, depth);
+                String params = String.format("%s, maxDepth %d", shape, depth);
+                runIfFeasible(bench, "TreePrinter.parenthesize", params,
+                        () -> TreePrinter.parenthesize(root).length());
+                runIfFeasible(bench, "TreePrinter.necessaryParentheses", params,
+                        () -> TreePrinter.necessaryParentheses(root).length());
+                runIfFeasible(bench, "Node.parenthesize (cache)", params, () -> root.parenthesize().length());
+                runIfFeasible(bench, "Node.necessaryParentheses (cache)", params,
+                        () -> root.necessaryParentheses().length());
+            }
+        }
+    }
+
+    /**
+     * Ricerca dell'operatore in ciascuna posizione di un'espressione, con tabelle di dimensioni diverse
+     */
+    private static void bestMatchBenchmarks(MicroBenchmark bench) {
+        for (int size : TABLE_SIZES) {
+            OperatorTable table = largeTable(size);
+            String expr = withoutSpaces(randomTree(table, RandomTreeGenerator.Shape.BALANCED, 8));
+            int[] pos = new int[1];
+            runIfFeasible(bench, "OperatorTable.bestMatch", String.format("%d operatori", size), () -> {
+                int p = pos[0];
+                pos[0] = p + 1 == expr.length() ? 0 : p + 1;
+                Operator match = table.bestMatch(expr, p);
+                return match == null ? 0 : match.getIdLength();
+            });
+        }
+    }
+
+    /**
+     * Metodo d'appoggio che stima il tempo di un parsing alla lunghezza successiva, così le misure che supererebbero
+     * comunque PROBE_LIMIT_NANOS non vengono nemmeno provate (il parsing ricorsivo è più che quadratico, e una sola
+     * prova su un megabyte richiederebbe ore). Alla seconda lunghezza si suppone una crescita lineare, dalla terza in
+     * poi si ricava l'esponente della crescita osservata tra le due lunghezze precedenti (tempo proporzionale a
+     * lunghezza^k, con k almeno 1) e lo si applica al rapporto tra la lunghezza successiva e la precedente: i passi
+     * tra le lunghezze non sono tutti uguali, quindi la crescita non può essere riutilizzata così com'è
+     * @param medians I tempi mediani alle due lunghezze precedenti (il più recente per ultimo, 0 se non misurati,
+     *                Long.MAX_VALUE se saltati)
+     * @param lengths Le due lunghezze precedenti (la più recente per ultima, 0 se non ancora misurate)
+     * @param length La lunghezza successiva
+     * @return Il tempo stimato in nanosecondi
+     */
+    private static long estimate(long[] medians, long[] lengths, int length) {
+        if (lengths[1] == 0) return 0;
+        double ratio = (double) length / lengths[1];
+        double exponent = 1;
+        if (lengths[0] > 0 && medians[0] > 0)
+            exponent = Math.max(1, Math.log((double) medians[1] / medians[0])
+                    / Math.log((double) lengths[1] / lengths[0]));
+        return (long) Math.min(Long.MAX_VALUE, medians[1] * Math.pow(Math.max(1, ratio), exponent));
+    }
+
+    /**
+     * Metodo d'appoggio che aggiunge un valore a quelli delle due lunghezze precedenti
+     */
+    private static void push(long[] medians, long median) {
+        medians[0] = medians[1];
+        medians[1] = median;
+    }
+
+    /**
+     * Metodo d'appoggio che esegue una misura, a meno che una singola operazione non sia troppo lenta o non sia
+     * possibile (ad esempio per l'esaurimento dello stack nelle versioni ricorsive)
+     * @return La latenza mediana misurata (o la durata della prima esecuzione, se la misura è stata saltata),
+     *         Long.MAX_VALUE se non è stato possibile eseguire l'operazione
+     */
+    private static long runIfFeasible(MicroBenchmark bench, String name, String params, LongSupplier op) {
+        long start = System.nanoTime();
+        try {
+            op.getAsLong();
+        } catch (StackOverflowError e) {
+            System.out.printf("%-34s %-30s saltata: stack esaurito%n", name, params);
+            return Long.MAX_VALUE;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (elapsed > PROBE_LIMIT_NANOS) {
+            System.out.printf("%-34s %-30s saltata: %d ms per operazione%n", name, params, elapsed / 1_000_000);
+            return elapsed;
+        }
+        MicroBenchmark.Result result = bench.run(name, params, op);
+        System.out.println(result);
+        return result.getMedianNanos();
+    }
+
+    /**
+     * Metodo d'appoggio che segnala una misura saltata perché, stando alle lunghezze precedenti, sarebbe troppo lenta
+     * @return Sempre Long.MAX_VALUE
+     */
+    private static long skip(String name, String params) {
+        System.out.printf("%-34s %-30s saltata: troppo lenta alle lunghezze precedenti%n", name, params);
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Metodo d'appoggio che costruisce un'espressione della forma data, lunga almeno quanto richiesto (le
+     * espressioni bilanciate hanno la lunghezza più vicina possibile)
+     */
+    private static String expression(Shape shape, int size, OperatorTable opers) {
+        StringBuilder sb = new StringBuilder(size + 16);
+        switch (shape) {
+            case LEFT_DEEP:
+                String[] ops = {"+", "*", "-", "/"};
+                sb.append(1);
+                for (int i = 0; sb.length() < size; i++) {
+                    sb.append(ops[i % ops.length]).append(i % 9 + 1);
+                }
+                return sb.toString();
+            case PARENTHESIZED:
+                int levels = Math.max(1, (size - 1) / 4);
+                for (int i = 0; i < levels; i++) sb.append("(1+");
+                sb.append(1);
+                for (int i = 0; i < levels; i++) sb.append(')');
+                return sb.toString();
+            default:
+                // profondità con la lunghezza più vicina a quella richiesta
+                String best = null;
+                for (int depth = 1; ; depth++) {
+                    String expr = withoutSpaces(randomTree(opers, RandomTreeGenerator.Shape.BALANCED, depth));
+                    if (best == null || Math.abs(expr.length() - size) < Math.abs(best.length() - size)) best = expr;
+                    if (expr.length() >= size) return best;
+                }
+        }
+    }
+
+    /**
+     * Metodo d'appoggio che genera un albero casuale (sempre lo stesso, a parità di parametri)
+     */
+    private static Tree randomTree(OperatorTable opers, RandomTreeGenerator.Shape shape, int depth) {
+        Tree tree = new Tree(opers);
+        tree.randomize(generator(opers, shape, depth));
+        return tree;
+    }
+
+    /**
+     * Metodo d'appoggio che genera la radice di un albero casuale (la stessa di randomTree, a parità di parametri)
+     */
+    private static Node randomRoot(OperatorTable opers, RandomTreeGenerator.Shape shape, int depth) {
+        return generator(opers, shape, depth).nextNode();
+    }
+
+    /**
+     * Metodo d'appoggio che crea un generatore di alberi casuali con il seme fisso
+     */
+    private static RandomTreeGenerator generator(OperatorTable opers, RandomTreeGenerator.Shape shape, int depth) {
+        RandomTreeGenerator generator = new RandomTreeGenerator(opers, SEED);
+        generator.setShape(shape);
+        generator.setMaxDepth(depth);
+        return generator;
+    }
+
+    /**
+     * Metodo d'appoggio che scrive un albero con le sole parentesi necessarie, senza spazi (come lo accettano i parser)
+     */
+    private static String withoutSpaces(Tree tree) {
+        return tree.necessaryParentheses().replace(" ", "");
+    }
+
+    /**
+     * Metodo d'appoggio che crea la tabella delle quattro operazioni
+     */
+    private static OperatorTable basicTable() {
+        OperatorTable opers = new OperatorTable();
+        opers.setGroupAssociativity(true);
+        opers.add(new Operator("+", Arithmetic.ADD));
+        opers.add(new Operator("-", Arithmetic.SUBTRACT));
+        opers.stepUpPrecedence();
+        opers.setGroupAssociativity(true);
+        opers.add(new Operator("*", Arithmetic.MULTIPLY));
+        opers.add(new Operator("/", Arithmetic.DIVIDE));
+        return opers;
+    }
+
+    /**
+     * Metodo d'appoggio che crea una tabella con il numero di operatori dato: le quattro operazioni, seguite da
+     * operatori di uno, due o tre simboli (su dieci livelli di precedenza)
+     */
+    private static OperatorTable largeTable(int size) {
+        OperatorTable opers = basicTable();
+        List<String> ids = new ArrayList<>();
+        for (int length = 1; length <= 3 && ids.size() < size - opers.size(); length++) {
+            addIds(ids, "", length, size - opers.size());
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            if (i % 10 == 0) opers.stepUpPrecedence();
+            opers.add(new Operator(ids.get(i), (l, r) -> l + r));
+        }
+        return opers;
+    }
+
+    /**
+     * Metodo d'appoggio che aggiunge alla lista gli identificatori della lunghezza data, escluse le quattro
+     * operazioni, fino al numero massimo dato
+     */
+    private static void addIds(List<String> ids, String prefix, int length, int max) {
+        if (ids.size() >= max) return;
+        if (prefix.length() == length) {
+            if (!"+-*/".contains(prefix) || prefix.length() > 1) ids.add(prefix);
+            return;
+        }
+        for (int i = 0; i < SYMBOLS.length() && ids.size() < max; i++) {
+            addIds(ids, prefix + SYMBOLS.charAt(i), length, max);
+        }
+    }
+}
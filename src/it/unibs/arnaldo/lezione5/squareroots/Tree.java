@@ -1,5 +1,10 @@
 package it.unibs.arnaldo.lezione5.squareroots;
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.channels.WritableByteChannel;
+
 /**
  * Classe che implementa un albero binario rappresentante un'espressione matemeatica
  *
@@ -26,12 +31,58 @@ public class Tree implements NodeParser {
     }
 
     /**
-     * Metodo che genera un albero binario a partire da una data espressione matematica
+     * Metodo che genera casualmente un albero binario con il generatore dato, che ne determina forma e dimensione
+     * (vedere RandomTreeGenerator)
+     * @param generator Il generatore di alberi casuali
+     */
+    public void randomize(RandomTreeGenerator generator) {
+        this.root = generator.nextNode();
+    }
+
+    /**
+     * Metodo che genera un albero binario a partire da una data espressione matematica. Il parsing è iterativo
+     * (vedere IterativeParser), quindi la lunghezza e l'annidamento dell'espressione sono limitati solo dalla memoria
      * @param s Una String contenente l'espressione matematica
      * @throws IllegalArgumentException Se ci sono problemi di formattazione della stringa
      */
     public void parseExpression(String s) throws IllegalArgumentException {
-        this.root = this.parse(s, this.opers);
+        this.root = IterativeParser.parse(s, this.opers);
+    }
+
+    /**
+     * Metodo che ottimizza l'albero con le impostazioni di default (vedere TreeOptimizer): i sottoalberi costanti
+     * vengono calcolati una volta sola, e i successivi calcoli del risultato risultano più veloci
+     */
+    public void optimize() {
+        this.optimize(new TreeOptimizer());
+    }
+
+    /**
+     * Metodo che ottimizza l'albero con l'ottimizzatore dato
+     * @param optimizer L'ottimizzatore da utilizzare
+     */
+    public void optimize(TreeOptimizer optimizer) {
+        this.root = optimizer.optimize(this.root);
+    }
+
+    /**
+     * Metodo che converte l'albero nella sua rappresentazione compatta ad array (vedere CompactTree), più adatta
+     * ad alberi di grandi dimensioni
+     * @return L'albero compatto equivalente
+     * @throws IllegalArgumentException Se ci sono problemi nelle costanti numeriche
+     */
+    public CompactTree toCompactTree() throws IllegalArgumentException {
+        return CompactTree.fromNode(this.root, this.opers);
+    }
+
+    /**
+     * Metodo che converte l'albero in un'espressione calcolata in modo incrementale (vedere IncrementalTree), in cui
+     * modificare una costante o una variabile ricalcola solo i nodi che ne dipendono
+     * @return L'espressione incrementale equivalente
+     * @throws IllegalArgumentException Se ci sono problemi nelle costanti numeriche
+     */
+    public IncrementalTree toIncrementalTree() throws IllegalArgumentException {
+        return IncrementalTree.fromNode(this.root);
     }
 
     /**
@@ -43,6 +94,29 @@ public class Tree implements NodeParser {
         return this.root.calcValue();
     }
 
+    /**
+     * Metodo che restituisce il valore esatto dell'albero binario, come numero razionale (vedere ExactEvaluator).
+     * Tutti gli operatori devono essere stati creati con un'operazione aritmetica nota (vedere Arithmetic)
+     * @return Il risultato esatto dell'operazione
+     * @throws IllegalArgumentException Se ci sono problemi nelle costanti numeriche o negli operatori
+     * @throws ArithmeticException Se il risultato non è un numero razionale (ad esempio una divisione per zero)
+     */
+    public Rational calculateExact() throws IllegalArgumentException, ArithmeticException {
+        return ExactEvaluator.calcRational(this.root);
+    }
+
+    /**
+     * Metodo che restituisce il valore dell'albero binario calcolato con la precisione data (vedere ExactEvaluator).
+     * Tutti gli operatori devono essere stati creati con un'operazione aritmetica nota (vedere Arithmetic)
+     * @param mc La precisione e il tipo di arrotondamento
+     * @return Il risultato dell'operazione
+     * @throws IllegalArgumentException Se ci sono problemi nelle costanti numeriche o negli operatori
+     * @throws ArithmeticException Se il risultato non è definito (ad esempio una divisione per zero)
+     */
+    public BigDecimal calculate(MathContext mc) throws IllegalArgumentException, ArithmeticException {
+        return ExactEvaluator.calcBigDecimal(this.root, mc);
+    }
+
     /**
      * Metodo che restituisce la rappresentazione sotto forma di espressione dell'albero binario, con tutte le
      * parentesi, anche se non sono strettamente necessarie
@@ -51,6 +125,26 @@ public class Tree implements NodeParser {
     public String parenthesize() {
         return this.root.parenthesize();
     }
+
+    /**
+     * Metodo che scrive l'espressione con tutte le parentesi direttamente sulla destinazione data, in una sola
+     * passata e senza stringhe intermedie
+     * @param out La destinazione su cui scrivere (ad esempio uno StringBuilder o un Writer)
+     * @throws IOException Se ci sono errori di scrittura
+     */
+    public void parenthesize(Appendable out) throws IOException {
+        TreePrinter.parenthesize(this.root, out);
+    }
+
+    /**
+     * Metodo che scrive l'espressione con tutte le parentesi direttamente su un canale, codificata in UTF-8
+     * @param channel Il canale su cui scrivere (non viene chiuso)
+     * @throws IOException Se ci sono errori di scrittura
+     */
+    public void parenthesize(WritableByteChannel channel) throws IOException {
+        TreePrinter.parenthesize(this.root, channel);
+    }
+
     /**
      * Metodo che restituisce la rappresentazione sotto forma di espressione dell'albero binario,
      * solamente con le parentesi strettamente necessarie
@@ -59,4 +153,23 @@ public class Tree implements NodeParser {
     public String necessaryParentheses() {
         return this.root.necessaryParentheses();
     }
+
+    /**
+     * Metodo che scrive l'espressione con le sole parentesi necessarie direttamente sulla destinazione data, in una
+     * sola passata e senza stringhe intermedie
+     * @param out La destinazione su cui scrivere (ad esempio uno StringBuilder o un Writer)
+     * @throws IOException Se ci sono errori di scrittura
+     */
+    public void necessaryParentheses(Appendable out) throws IOException {
+        TreePrinter.necessaryParentheses(this.root, out);
+    }
+
+    /**
+     * Metodo che scrive l'espressione con le sole parentesi necessarie direttamente su un canale, codificata in UTF-8
+     * @param channel Il canale su cui scrivere (non viene chiuso)
+     * @throws IOException Se ci sono errori di scrittura
+     */
+    public void necessaryParentheses(WritableByteChannel channel) throws IOException {
+        TreePrinter.necessaryParentheses(this.root, channel);
+    }
 }
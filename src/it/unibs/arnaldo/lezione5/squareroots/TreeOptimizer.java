@@ -0,0 +1,290 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+
+/**
+ * Classe che effettua un passaggio di ottimizzazione su un albero di nodi, restituendo un nuovo albero equivalente
+ * (l'albero originale non viene modificato). Le ottimizzazioni disponibili sono:
+ * - calcolo anticipato dei sottoalberi composti da sole costanti (es: "2 * 3" diventa "6")
+ * - applicazione degli elementi neutri degli operatori (es: "x * 1" e "x - 0" diventano "x"); l'elemento neutro
+ *   deve esserlo per ogni double, zeri con segno compresi: "x + 0" non viene semplificato, perché con x = -0.0 vale
+ *   +0.0 (l'elemento neutro dell'addizione è -0.0)
+ * - semplificazione delle operazioni fra operandi uguali (es: "x - x" diventa "0"), disattivata di default perché
+ *   non è sempre sicura con i double (se x vale infinito o NaN il risultato cambia)
+ * - condivisione dei sottoalberi uguali: ciascuna sottoespressione viene costruita una sola volta, e l'albero
+ *   diventa un grafo aciclico (DAG)
+ * Gli elementi neutri e il risultato di "x oper x" sono quelli impostati nei singoli Operator. Anche gli operatori
+ * prefissi e le chiamate di funzione con argomenti costanti vengono calcolati in anticipo (le funzioni devono quindi
+ * restituire sempre lo stesso risultato a parità di argomenti), ma non vengono condivisi.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public class TreeOptimizer {
+    private boolean foldConstants;
+    private boolean applyIdentities;
+    private boolean cancelEqualOperands;
+    private boolean shareSubexpressions;
+
+    /**
+     * Costruttore, con le impostazioni di default (tutte le ottimizzazioni sicure attive)
+     */
+    public TreeOptimizer() {
+        this.foldConstants = true;
+        this.applyIdentities = true;
+        this.cancelEqualOperands = false;
+        this.shareSubexpressions = true;
+    }
+
+    /**
+     * Attiva o disattiva il calcolo anticipato dei sottoalberi costanti
+     * @param foldConstants True per attivare l'ottimizzazione
+     */
+    public void setFoldConstants(boolean foldConstants) {
+        this.foldConstants = foldConstants;
+    }
+
+    /**
+     * Attiva o disattiva l'applicazione degli elementi neutri (x * 1, x - 0, ...)
+     * @param applyIdentities True per attivare l'ottimizzazione
+     */
+    public void setApplyIdentities(boolean applyIdentities) {
+        this.applyIdentities = applyIdentities;
+    }
+
+    /**
+     * Attiva o disattiva la semplificazione delle operazioni fra operandi uguali (x - x, ...).
+     * Due operandi vengono riconosciuti come uguali solo se è attiva anche la condivisione dei sottoalberi
+     * @param cancelEqualOperands True per attivare l'ottimizzazione
+     */
+    public void setCancelEqualOperands(boolean cancelEqualOperands) {
+        this.cancelEqualOperands = cancelEqualOperands;
+    }
+
+    /**
+     * Attiva o disattiva la condivisione dei sottoalberi uguali
+     * @param shareSubexpressions True per attivare l'ottimizzazione
+     */
+    public void setShareSubexpressions(boolean shareSubexpressions) {
+        this.shareSubexpressions = shareSubexpressions;
+    }
+
+    /**
+     * Metodo che ottimizza l'albero (o il grafo) con radice data. La visita è iterativa, quindi non ci sono limiti
+     * alla profondità dell'albero
+     * @param root La radice dell'albero da ottimizzare
+     * @return La radice dell'albero ottimizzato
+     */
+    public Node optimize(Node root) {
+        // associa ogni nodo originale al corrispondente nodo ottimizzato
+        IdentityHashMap<Node, Node> optimized = new IdentityHashMap<>();
+        // associa ogni sottoespressione già costruita alla sua unica istanza
+        HashMap<Key, Node> canonical = new HashMap<>();
+
+        // visita in post-ordine: un nodo operatore viene elaborato solo dopo i suoi figli
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.peek();
+            if (optimized.containsKey(node)) {
+                stack.pop();
+                continue;
+            }
+
+            if (node instanceof OperatorNode) {
+                OperatorNode operNode = (OperatorNode) node;
+                Node left = optimized.get(operNode.getLeftChild());
+                Node right = optimized.get(operNode.getRightChild());
+                // se i figli non sono ancora stati elaborati, li metto in cima alla pila e riprovo dopo
+                if (left == null || right == null) {
+                    if (left == null) stack.push(operNode.getLeftChild());
+                    if (right == null) stack.push(operNode.getRightChild());
+                    continue;
+                }
+                stack.pop();
+                optimized.put(node, this.simplify(operNode, left, right, canonical));
+            } else if (InnerNodes.arity(node) >= 0) {
+                // operatore prefisso o chiamata di funzione: come sopra, ma con un numero qualsiasi di figli
+                Node[] children = new Node[InnerNodes.arity(node)];
+                boolean isReady = true;
+                for (int i = 0; i < children.length; i++) {
+                    children[i] = optimized.get(InnerNodes.child(node, i));
+                    if (children[i] == null) {
+                        stack.push(InnerNodes.child(node, i));
+                        isReady = false;
+                    }
+                }
+                if (!isReady) continue;
+                stack.pop();
+                optimized.put(node, this.simplify(node, children, canonical));
+            } else {
+                stack.pop();
+                optimized.put(node, this.share(node, canonical));
+            }
+        }
+        return optimized.get(root);
+    }
+
+    /**
+     * Metodo d'appoggio che semplifica un nodo operatore, dati i suoi figli già ottimizzati
+     * @param node Il nodo originale
+     * @param left Il figlio sinistro ottimizzato
+     * @param right Il figlio destro ottimizzato
+     * @param canonical La mappa delle sottoespressioni già costruite
+     * @return Il nodo ottimizzato
+     */
+    private Node simplify(OperatorNode node, Node left, Node right, HashMap<Key, Node> canonical) {
+        Operator oper = node.getOperator();
+        boolean isLeftConst = isValidConst(left);
+        boolean isRightConst = isValidConst(right);
+
+        // entrambi i figli sono costanti: calcolo subito il risultato
+        if (this.foldConstants && isLeftConst && isRightConst) {
+            double value = oper.getOperation().calcValue(left.calcValue(), right.calcValue());
+            return this.share(new ConstNode(value), canonical);
+        }
+
+        // le costanti vengono confrontate bit a bit con l'elemento neutro, così 0.0 e -0.0 restano distinti
+        if (this.applyIdentities) {
+            // "x oper e" => x
+            if (isRightConst && oper.hasRightIdentity() && isSameDouble(right.calcValue(), oper.getRightIdentity()))
+                return left;
+            // "e oper x" => x
+            if (isLeftConst && oper.hasLeftIdentity() && isSameDouble(left.calcValue(), oper.getLeftIdentity()))
+                return right;
+        }
+
+        // "x oper x" => risultato noto (con la condivisione attiva, sottoalberi uguali sono lo stesso oggetto)
+        if (this.cancelEqualOperands && left == right && oper.hasSelfResult())
+            return this.share(new ConstNode(oper.getSelfResult()), canonical);
+
+        // se i figli non sono cambiati e non condivido i sottoalberi, posso riutilizzare il nodo originale
+        if (!this.shareSubexpressions && left == node.getLeftChild() && right == node.getRightChild())
+            return node;
+        return this.share(new OperatorNode(left, right, oper, node.getOperatorTable()), canonical);
+    }
+
+    /**
+     * Metodo d'appoggio che semplifica un operatore prefisso o una chiamata di funzione, dati i figli già ottimizzati.
+     * Se tutti gli argomenti sono costanti il risultato viene calcolato subito (le funzioni senza argomenti vengono
+     * lasciate invariate, perché potrebbero non restituire sempre lo stesso valore)
+     * @param node Il nodo originale
+     * @param children I figli ottimizzati
+     * @param canonical La mappa delle sottoespressioni già costruite
+     * @return Il nodo ottimizzato
+     */
+    private Node simplify(Node node, Node[] children, HashMap<Key, Node> canonical) {
+        boolean isUnchanged = true;
+        boolean areConst = children.length > 0;
+        double[] values = new double[children.length];
+        for (int i = 0; i < children.length; i++) {
+            isUnchanged &= children[i] == InnerNodes.child(node, i);
+            if (areConst && isValidConst(children[i]))
+                values[i] = children[i].calcValue();
+            else
+                areConst = false;
+        }
+
+        if (this.foldConstants && areConst)
+            return this.share(new ConstNode(InnerNodes.apply(node, values, 0)), canonical);
+        if (isUnchanged)
+            return node;
+        if (node instanceof PrefixNode) {
+            PrefixNode prefixNode = (PrefixNode) node;
+            return new PrefixNode(children[0], prefixNode.getOperator(), prefixNode.getOperatorTable());
+        }
+        FunctionNode function = (FunctionNode) node;
+        return new FunctionNode(children, function.getFunction(), function.getOperatorTable());
+    }
+
+    /**
+     * Metodo d'appoggio che restituisce l'unica istanza di una sottoespressione (se la condivisione è attiva)
+     * @param node Il nodo da condividere
+     * @param canonical La mappa delle sottoespressioni già costruite
+     * @return Il nodo già presente nella mappa se equivalente, altrimenti il nodo stesso
+     */
+    private Node share(Node node, HashMap<Key, Node> canonical) {
+        if (!this.shareSubexpressions) return node;
+
+        Key key;
+        if (node instanceof OperatorNode) {
+            OperatorNode operNode = (OperatorNode) node;
+            key = new Key(operNode.getOperator(), operNode.getLeftChild(), operNode.getRightChild(), 0, null);
+        } else if (isValidConst(node)) {
+            key = new Key(null, null, null, Double.doubleToLongBits(node.calcValue()), null);
+        } else if (node instanceof ConstNode) {
+            // le costanti non valide vengono confrontate per testo (l'errore verrà segnalato al momento del calcolo)
+            key = new Key(null, null, null, 0, ((ConstNode) node).getConstant());
+        } else {
+            // altri tipi di nodo non vengono condivisi
+            return node;
+        }
+
+        Node existing = canonical.putIfAbsent(key, node);
+        return existing != null ? existing : node;
+    }
+
+    /**
+     * Controlla se due double sono lo stesso valore, distinguendo 0.0 da -0.0
+     * @param a Il primo valore
+     * @param b Il secondo valore
+     * @return True se i due valori hanno la stessa rappresentazione
+     */
+    private static boolean isSameDouble(double a, double b) {
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+    }
+
+    /**
+     * Controlla se il nodo dato è una costante numerica valida
+     * @param node Il nodo da controllare
+     * @return True se il nodo è una costante con un valore numerico corretto
+     */
+    private static boolean isValidConst(Node node) {
+        if (!(node instanceof ConstNode)) return false;
+        try {
+            node.calcValue();
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Chiave che identifica una sottoespressione: per i nodi operatore è data dall'operatore e dai figli (già resi
+     * unici, quindi confrontati per identità), per le costanti dal valore numerico (o dal testo, se non valide)
+     */
+    private static final class Key {
+        private final Operator oper;
+        private final Node left;
+        private final Node right;
+        private final long bits;
+        private final String text;
+
+        private Key(Operator oper, Node left, Node right, long bits, String text) {
+            this.oper = oper;
+            this.left = left;
+            this.right = right;
+            this.bits = bits;
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return this.oper == k.oper && this.left == k.left && this.right == k.right && this.bits == k.bits
+                    && Objects.equals(this.text, k.text);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = System.identityHashCode(this.oper);
+            h = 31 * h + System.identityHashCode(this.left);
+            h = 31 * h + System.identityHashCode(this.right);
+            h = 31 * h + Long.hashCode(this.bits);
+            return 31 * h + Objects.hashCode(this.text);
+        }
+    }
+}
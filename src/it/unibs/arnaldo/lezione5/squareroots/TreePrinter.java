@@ -0,0 +1,288 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Classe che genera la rappresentazione testuale di un albero di nodi senza ricorsione: i nodi da visitare sono
+ * tenuti in una pila esplicita e tutta l'espressione viene scritta in una sola passata direttamente sulla
+ * destinazione (uno StringBuilder, un qualsiasi Appendable come un Writer, oppure un canale), senza stringhe
+ * intermedie per i sottoalberi. Il risultato è identico a quello dei metodi parenthesize e necessaryParentheses
+ * dei nodi.
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public final class TreePrinter {
+    private static final int INITIAL_STACK = 32;
+    private static final int CHANNEL_BUFFER = 8192;
+
+    private TreePrinter() {}
+
+    /**
+     * Metodo che restituisce l'espressione con tutte le parentesi, anche se non sono strettamente necessarie
+     * @param root La radice dell'albero
+     * @return Una String contenente l'espressione con le parentesi
+     */
+    public static String parenthesize(Node root) {
+        StringBuilder out = new StringBuilder();
+        parenthesize(root, out);
+        return out.toString();
+    }
+
+    /**
+     * Metodo che scrive l'espressione con tutte le parentesi nel buffer dato
+     * @param root La radice dell'albero
+     * @param out Il buffer su cui scrivere
+     */
+    public static void parenthesize(Node root, StringBuilder out) {
+        try {
+            parenthesize(root, (Appendable) out);
+        } catch (IOException e) {
+            // uno StringBuilder non genera mai errori di scrittura
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Metodo che scrive l'espressione con tutte le parentesi su un canale (ad esempio un file o un socket),
+     * codificata in UTF-8. Il canale non viene chiuso
+     * @param root La radice dell'albero
+     * @param channel Il canale su cui scrivere
+     * @throws IOException Se ci sono errori di scrittura
+     */
+    public static void parenthesize(Node root, WritableByteChannel channel) throws IOException {
+        Writer out = channelWriter(channel);
+        parenthesize(root, out);
+        out.flush();
+    }
+
+    /**
+     * Metodo che scrive l'espressione con tutte le parentesi sulla destinazione data
+     * @param root La radice dell'albero
+     * @param out La destinazione su cui scrivere
+     * @throws IOException Se ci sono errori di scrittura
+     */
+    public static void parenthesize(Node root, Appendable out) throws IOException {
+        if (InnerNodes.arity(root) < 0) {
+            out.append(root.parenthesize());
+            return;
+        }
+
+        // per ogni nodo nella pila, il numero di figli già scritti
+        Node[] nodes = new Node[INITIAL_STACK];
+        int[] states = new int[INITIAL_STACK];
+        int top = 0;
+        nodes[top] = root;
+        states[top++] = 0;
+        while (top > 0) {
+            Node node = nodes[top - 1];
+            int state = states[top - 1]++;
+            int arity = InnerNodes.arity(node);
+            if (state == arity) {
+                // una funzione senza argomenti non ha ancora scritto il nome
+                if (arity == 0) writeSeparator(node, 0, out, true);
+                out.append(node instanceof FunctionNode ? ')' : ']');
+                top--;
+                continue;
+            }
+            writeSeparator(node, state, out, true);
+
+            Node child = InnerNodes.child(node, state);
+            if (InnerNodes.arity(child) >= 0) {
+                if (top == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, top * 2);
+                    states = Arrays.copyOf(states, top * 2);
+                }
+                nodes[top] = child;
+                states[top++] = 0;
+            } else {
+                out.append(child.parenthesize());
+            }
+        }
+    }
+
+    /**
+     * Metodo che restituisce l'espressione con le sole parentesi necessarie al rispetto dell'ordine delle operazioni
+     * @param root La radice dell'albero
+     * @return La stringa formattata
+     */
+    public static String necessaryParentheses(Node root) {
+        StringBuilder out = new StringBuilder();
+        necessaryParentheses(root, -1, false, out);
+        return out.toString();
+    }
+
+    /**
+     * Metodo che scrive nel buffer dato l'espressione con le sole parentesi necessarie, data l'espressione del nodo
+     * padre (vedere OperatorNode.necessaryParentheses per il significato dei parametri)
+     * @param root La radice dell'albero
+     * @param fatherPrecedence La precedenza dell'operatore del padre
+     * @param sameDirectionAndAssoc True se l'associatività del padre coincide con il lato di questo figlio
+     * @param out Il buffer su cui scrivere
+     */
+    public static void necessaryParentheses(Node root, int fatherPrecedence, boolean sameDirectionAndAssoc,
+                                            StringBuilder out) {
+        try {
+            necessaryParentheses(root, fatherPrecedence, sameDirectionAndAssoc, (Appendable) out);
+        } catch (IOException e) {
+            // uno StringBuilder non genera mai errori di scrittura
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Metodo che scrive l'espressione con le sole parentesi necessarie su un canale (ad esempio un file o un
+     * socket), codificata in UTF-8. Il canale non viene chiuso
+     * @param root La radice dell'albero
+     * @param channel Il canale su cui scrivere
+     * @throws IOException Se ci sono errori di scrittura
+     */
+    public static void necessaryParentheses(Node root, WritableByteChannel channel) throws IOException {
+        Writer out = channelWriter(channel);
+        necessaryParentheses(root, -1, false, out);
+        out.flush();
+    }
+
+    /**
+     * Metodo che scrive l'espressione con le sole parentesi necessarie sulla destinazione data
+     * @param root La radice dell'albero
+     * @param out La destinazione su cui scrivere
+     * @throws IOException Se ci sono errori di scrittura
+     */
+    public static void necessaryParentheses(Node root, Appendable out) throws IOException {
+        necessaryParentheses(root, -1, false, out);
+    }
+
+    /**
+     * Metodo che scrive sulla destinazione data l'espressione con le sole parentesi necessarie, data l'espressione
+     * del nodo padre (vedere OperatorNode.necessaryParentheses per il significato dei parametri e la spiegazione
+     * dei casi). A differenza della versione ricorsiva, la necessità delle parentesi viene decisa prima di scrivere
+     * i figli, così la parentesi aperta non deve essere inserita in testa al buffer
+     * @param root La radice dell'albero
+     * @param fatherPrecedence La precedenza dell'operatore del padre
+     * @param sameDirectionAndAssoc True se l'associatività del padre coincide con il lato di questo figlio
+     * @param out La destinazione su cui scrivere
+     * @throws IOException Se ci sono errori di scrittura
+     */
+    public static void necessaryParentheses(Node root, int fatherPrecedence, boolean sameDirectionAndAssoc,
+                                            Appendable out) throws IOException {
+        if (InnerNodes.arity(root) < 0) {
+            out.append(root.necessaryParentheses(fatherPrecedence, sameDirectionAndAssoc));
+            return;
+        }
+
+        // per ogni nodo nella pila, il numero di figli già scritti
+        Node[] nodes = new Node[INITIAL_STACK];
+        int[] states = new int[INITIAL_STACK];
+        // per ciascun nodo nella pila: true se va racchiuso fra parentesi
+        boolean[] wrapped = new boolean[INITIAL_STACK];
+        int top = 0;
+        nodes[top] = root;
+        states[top] = 0;
+        wrapped[top++] = needsParentheses(root, fatherPrecedence, sameDirectionAndAssoc);
+        while (top > 0) {
+            Node node = nodes[top - 1];
+            int state = states[top - 1]++;
+            int arity = InnerNodes.arity(node);
+            if (state == arity) {
+                // una funzione senza argomenti non ha ancora scritto il nome
+                if (arity == 0) writeSeparator(node, 0, out, false);
+                if (node instanceof FunctionNode || wrapped[top - 1]) out.append(')');
+                top--;
+                continue;
+            }
+            if (state == 0 && wrapped[top - 1]) out.append('(');
+            writeSeparator(node, state, out, false);
+
+            // contesto del figlio: la precedenza del padre e se il lato del figlio coincide con l'associatività
+            int precedence;
+            boolean childSameDirection;
+            if (node instanceof OperatorNode) {
+                OperatorNode operNode = (OperatorNode) node;
+                precedence = operNode.getOperator().getPrecedence();
+                boolean isLeftAssoc = operNode.getOperator().hasLeftAssociativity();
+                childSameDirection = state == 0 ? isLeftAssoc : !isLeftAssoc;
+            } else if (node instanceof PrefixNode) {
+                // l'operatore prefisso viene scaricato dal parser anche a parità di precedenza, quindi un operando
+                // con la stessa precedenza va racchiuso fra parentesi
+                precedence = ((PrefixNode) node).getOperator().getPrecedence();
+                childSameDirection = false;
+            } else {
+                // gli argomenti di una funzione sono già delimitati dalle parentesi della chiamata
+                precedence = -1;
+                childSameDirection = false;
+            }
+
+            Node child = InnerNodes.child(node, state);
+            if (InnerNodes.arity(child) >= 0) {
+                if (top == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, top * 2);
+                    states = Arrays.copyOf(states, top * 2);
+                    wrapped = Arrays.copyOf(wrapped, top * 2);
+                }
+                nodes[top] = child;
+                states[top] = 0;
+                wrapped[top++] = needsParentheses(child, precedence, childSameDirection);
+            } else {
+                out.append(child.necessaryParentheses(precedence, childSameDirection));
+            }
+        }
+    }
+
+    /**
+     * Metodo d'appoggio che scrive ciò che precede un figlio: la parentesi aperta e l'operatore prima del primo
+     * figlio, l'operatore fra i due figli di un operatore binario, la virgola fra gli argomenti di una funzione
+     * @param node Il nodo
+     * @param child La posizione del figlio che sta per essere scritto
+     * @param out La destinazione su cui scrivere
+     * @param brackets True se gli operatori vanno racchiusi fra parentesi quadre (come in parenthesize)
+     * @throws IOException Se ci sono errori di scrittura
+     */
+    private static void writeSeparator(Node node, int child, Appendable out, boolean brackets) throws IOException {
+        if (node instanceof OperatorNode) {
+            if (child == 0) {
+                if (brackets) out.append('[');
+            } else {
+                out.append(' ').append(((OperatorNode) node).getOperator().getId()).append(' ');
+            }
+        } else if (node instanceof PrefixNode) {
+            if (brackets) out.append('[');
+            out.append(((PrefixNode) node).getOperator().getId());
+        } else {
+            if (child == 0)
+                out.append(((FunctionNode) node).getFunction().getName()).append('(');
+            else
+                out.append(", ");
+        }
+    }
+
+    /**
+     * Metodo d'appoggio che crea un Writer bufferizzato che scrive in UTF-8 sul canale dato
+     * @param channel Il canale
+     * @return Il Writer
+     */
+    static Writer channelWriter(WritableByteChannel channel) {
+        return Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), CHANNEL_BUFFER);
+    }
+
+    /**
+     * Metodo d'appoggio che decide se un nodo con figli va racchiuso fra parentesi
+     * @param node Il nodo
+     * @param fatherPrecedence La precedenza dell'operatore del padre
+     * @param sameDirectionAndAssoc True se l'associatività del padre coincide con il lato di questo figlio
+     * @return True se le parentesi sono necessarie
+     */
+    private static boolean needsParentheses(Node node, int fatherPrecedence, boolean sameDirectionAndAssoc) {
+        if (node instanceof OperatorNode) {
+            int diff = ((OperatorNode) node).getOperator().getPrecedence() - fatherPrecedence;
+            return diff < 0 || (diff == 0 && !sameDirectionAndAssoc);
+        }
+        // un operatore prefisso va racchiuso solo se il padre ha precedenza maggiore; una funzione mai
+        return node instanceof PrefixNode && ((PrefixNode) node).getOperator().getPrecedence() < fatherPrecedence;
+    }
+}
@@ -0,0 +1,16 @@
+package it.unibs.arnaldo.lezione5.squareroots;
+
+/**
+ * Interfaccia rappresentante un'operazione con un solo operando, come il cambio di segno (necessaria per le
+ * lambda-expression degli operatori prefissi, vedere PrefixOperator)
+ *
+ * @author Paolo Faustini <paolo.faustini@ieee.org>
+ */
+public interface UnaryOperation {
+    /**
+     * Metodo che calcola il risultato dell'operazione
+     * @param x L'operando
+     * @return Il risultato
+     */
+    double calcValue(double x);
+}